@@ -1,6 +1,7 @@
 package ru.practicum.event.dto;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.*;
 import ru.practicum.category.dto.CategoryDto;
 import ru.practicum.event.enums.State;
@@ -51,4 +52,7 @@ public class EventFullDto {
 
     private Long views;
 
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Boolean viewsStale;
+
 }
\ No newline at end of file
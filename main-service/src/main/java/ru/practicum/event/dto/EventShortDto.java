@@ -1,6 +1,7 @@
 package ru.practicum.event.dto;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -35,4 +36,7 @@ public class EventShortDto {
 
     private Long views;
 
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Boolean viewsStale;
+
 }
@@ -29,6 +29,7 @@ public class EventMapper {
         dto.setTitle(event.getTitle());
         dto.setConfirmedRequests(Math.toIntExact(event.getConfirmedRequests()));
         dto.setViews(event.getViews());
+        dto.setViewsStale(event.getViewsStale());
         return dto;
     }
 
@@ -43,6 +44,7 @@ public class EventMapper {
         dto.setPaid(event.getPaid());
         dto.setTitle(event.getTitle());
         dto.setViews(event.getViews());
+        dto.setViewsStale(event.getViewsStale());
         return dto;
     }
 
@@ -74,6 +74,9 @@ public class Event {
 
     private Long views;
 
+    @Transient
+    private Boolean viewsStale;
+
 
     @Override
     public final boolean equals(Object o) {
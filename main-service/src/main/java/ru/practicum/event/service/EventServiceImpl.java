@@ -27,11 +27,13 @@ import ru.practicum.rating.repository.RatingRepository;
 import ru.practicum.request.enums.RequestStatus;
 import ru.practicum.request.model.Request;
 import ru.practicum.request.repository.RequestRepository;
+import ru.practicum.stats.StatsCircuitBreaker;
 import ru.practicum.user.model.User;
 import ru.practicum.util.CheckExistence;
 
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -58,6 +60,7 @@ public class EventServiceImpl implements EventService {
     private final LocationRepository locationRepository;
     private final CategoryService categoryService;
     private final RatingRepository ratingRepository;
+    private final StatsCircuitBreaker statsCircuitBreaker;
 
     @Override
     public List<EventFullDto> findAllEventsByAdmin(List<Long> users, List<State> states, List<Long> categories,
@@ -142,8 +145,9 @@ public class EventServiceImpl implements EventService {
                 rangeEnd,
                 pageable);
 
-        statsClient.postHit(APP_NAME, request.getRequestURI(), request.getRemoteAddr(), CURRENT_TIME);
+        CompletableFuture<Void> hit = recordHit(request);
         List<Event> eventList = setViewsAndConfirmedRequests(events);
+        hit.join();
 
         if (sort != null && sort.equals(VIEWS)) {
             eventList.sort((e1, e2) -> e2.getViews().compareTo(e1.getViews()));
@@ -170,16 +174,24 @@ public class EventServiceImpl implements EventService {
             throw new NotFoundException(String.format("Event %d is not published", event.getId()));
         }
 
-        statsClient.postHit(APP_NAME, request.getRequestURI(), request.getRemoteAddr(), CURRENT_TIME);
-        List<ViewStats> viewStatsList = statsClient.getStats(List.of(id), true);
-        long hits = viewStatsList
-                .stream()
-                .filter(s -> Objects.equals(s.getUri(), request.getRequestURI()))
-                .count();
-
-        event.setViews(hits + 1);
-        event.setConfirmedRequests((long) requestRepository.findAllByEventIdInAndStatus(List.of(id),
-                RequestStatus.CONFIRMED).size());
+        CompletableFuture<Void> hit = recordHit(request);
+        CompletableFuture<List<ViewStats>> stats = hit.thenCompose(ignored ->
+                statsCircuitBreaker.submit(() -> statsClient.getStatsAsync(List.of(id), true)));
+        long confirmedRequests = requestRepository.findAllByEventIdInAndStatus(List.of(id),
+                RequestStatus.CONFIRMED).size();
+        hit.join();
+        Optional<List<ViewStats>> viewStatsList = statsCircuitBreaker.await(stats);
+        if (viewStatsList.isPresent()) {
+            long hits = viewStatsList.get()
+                    .stream()
+                    .filter(s -> Objects.equals(s.getUri(), request.getRequestURI()))
+                    .count();
+            event.setViews(hits + 1);
+        } else {
+            event.setViews(event.getViews() == null ? 0L : event.getViews());
+            event.setViewsStale(true);
+        }
+        event.setConfirmedRequests(confirmedRequests);
         return EventMapper.toEventFullDto(eventRepository.save(event));
     }
 
@@ -281,31 +293,53 @@ public class EventServiceImpl implements EventService {
                 .map(Event::getId)
                 .collect(Collectors.toList());
 
-        List<ViewStats> viewStatsList = statsClient.getStats(eventIds, false);
-        Map<Long, Long> views;
-        if (viewStatsList != null && !viewStatsList.isEmpty()) {
-            views = viewStatsList
-                    .stream()
-                    .collect(Collectors.toMap(this::getEventIdFromURI, ViewStats::getHits));
-        } else {
-            views = Collections.emptyMap();
-        }
-
-        events.forEach(event ->
-                event.setViews(views.getOrDefault(event.getId(), 0L)));
-
+        CompletableFuture<List<ViewStats>> stats = statsCircuitBreaker.submit(() ->
+                statsClient.getStatsAsync(eventIds, false));
         List<Request> confirmedRequests = requestRepository.findAllByEventIdInAndStatus(new ArrayList<>(eventIds),
                 RequestStatus.CONFIRMED);
 
+        Optional<List<ViewStats>> fetched = statsCircuitBreaker.await(stats);
+        if (fetched.isEmpty()) {
+            events.forEach(event -> {
+                event.setViews(event.getViews() == null ? 0L : event.getViews());
+                event.setViewsStale(true);
+            });
+        } else {
+            List<ViewStats> viewStatsList = fetched.get();
+            Map<Long, Long> views;
+            if (!viewStatsList.isEmpty()) {
+                views = viewStatsList
+                        .stream()
+                        .collect(Collectors.toMap(this::getEventIdFromURI, ViewStats::getHits));
+            } else {
+                views = Collections.emptyMap();
+            }
+
+            events.forEach(event ->
+                    event.setViews(views.getOrDefault(event.getId(), 0L)));
+        }
+
         events.forEach(event ->
                 event.setConfirmedRequests((long) confirmedRequests.size()));
 
         return events
                 .stream()
-                .map(eventRepository::save)
+                .map(event -> {
+                    Event saved = eventRepository.save(event);
+                    saved.setViewsStale(event.getViewsStale());
+                    return saved;
+                })
                 .collect(Collectors.toList());
     }
 
+    private CompletableFuture<Void> recordHit(HttpServletRequest request) {
+        return statsClient.postHitAsync(APP_NAME, request.getRequestURI(), request.getRemoteAddr(), CURRENT_TIME)
+                .exceptionally(e -> {
+                    log.warn("Failed to record hit for {}: {}", request.getRequestURI(), e.getMessage());
+                    return null;
+                });
+    }
+
     private Long getEventIdFromURI(ViewStats viewStats) {
         return Long.parseLong(viewStats.getUri().substring(viewStats.getUri().lastIndexOf("/") + 1));
     }
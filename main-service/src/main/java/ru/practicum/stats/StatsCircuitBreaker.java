@@ -0,0 +1,183 @@
+package ru.practicum.stats;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+@Slf4j
+@Component
+public class StatsCircuitBreaker {
+
+    private final int failureRateThreshold;
+    private final long slowCallNanos;
+    private final int minimumCalls;
+    private final long openNanos;
+    private final int halfOpenProbes;
+    private final long callTimeoutMs;
+    private final boolean[] window;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final MeterRegistry meterRegistry;
+    private final Counter rejectedCounter;
+    private final Counter fallbackCounter;
+
+    private State state = State.CLOSED;
+    private int recorded;
+    private int position;
+    private int failures;
+    private long openedAt;
+    private int probesStarted;
+    private int probesSucceeded;
+
+    public StatsCircuitBreaker(MeterRegistry meterRegistry,
+                               @Value("${stats-client.breaker.failure-rate-threshold:50}") int failureRateThreshold,
+                               @Value("${stats-client.breaker.slow-call-ms:1000}") long slowCallMs,
+                               @Value("${stats-client.breaker.window-size:20}") int windowSize,
+                               @Value("${stats-client.breaker.minimum-calls:10}") int minimumCalls,
+                               @Value("${stats-client.breaker.open-ms:10000}") long openMs,
+                               @Value("${stats-client.breaker.half-open-probes:3}") int halfOpenProbes,
+                               @Value("${stats-client.breaker.call-timeout-ms:1000}") long callTimeoutMs) {
+        this.meterRegistry = meterRegistry;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMs);
+        this.minimumCalls = Math.min(minimumCalls, windowSize);
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMs);
+        this.halfOpenProbes = halfOpenProbes;
+        this.callTimeoutMs = callTimeoutMs;
+        this.window = new boolean[windowSize];
+        this.rejectedCounter = Counter.builder("stats.breaker.rejected").register(meterRegistry);
+        this.fallbackCounter = Counter.builder("stats.breaker.fallbacks").register(meterRegistry);
+        Gauge.builder("stats.breaker.state", this, breaker -> breaker.getState().ordinal())
+                .register(meterRegistry);
+    }
+
+    public State getState() {
+        lock.lock();
+        try {
+            return state;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> call) {
+        if (!acquirePermission()) {
+            rejectedCounter.increment();
+            return CompletableFuture.failedFuture(
+                    new IllegalStateException("Circuit breaker for stats-server is " + getState()));
+        }
+        long startedAt = System.nanoTime();
+        CompletableFuture<T> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException e) {
+            record(false);
+            return CompletableFuture.failedFuture(e);
+        }
+        return future.whenComplete((result, error) ->
+                record(error == null && System.nanoTime() - startedAt < slowCallNanos));
+    }
+
+    public <T> Optional<T> await(CompletableFuture<T> future) {
+        try {
+            return Optional.ofNullable(future.get(callTimeoutMs, TimeUnit.MILLISECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            log.warn("Stats lookup failed, falling back to last known views: {}",
+                    e instanceof ExecutionException ? e.getCause().getMessage() : "timed out");
+        }
+        fallbackCounter.increment();
+        return Optional.empty();
+    }
+
+    private boolean acquirePermission() {
+        lock.lock();
+        try {
+            if (state == State.OPEN) {
+                if (System.nanoTime() - openedAt < openNanos) {
+                    return false;
+                }
+                transition(State.HALF_OPEN);
+            }
+            if (state == State.HALF_OPEN) {
+                if (probesStarted >= halfOpenProbes) {
+                    return false;
+                }
+                probesStarted++;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void record(boolean success) {
+        lock.lock();
+        try {
+            if (state == State.HALF_OPEN) {
+                if (!success) {
+                    transition(State.OPEN);
+                } else if (++probesSucceeded >= halfOpenProbes) {
+                    transition(State.CLOSED);
+                }
+                return;
+            }
+            if (state == State.OPEN) {
+                return;
+            }
+            if (recorded == window.length && !window[position]) {
+                failures--;
+            }
+            window[position] = success;
+            if (!success) {
+                failures++;
+            }
+            position = (position + 1) % window.length;
+            recorded = Math.min(recorded + 1, window.length);
+            if (recorded >= minimumCalls && failures * 100 >= failureRateThreshold * recorded) {
+                transition(State.OPEN);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void transition(State next) {
+        log.info("Stats circuit breaker {} -> {}", state, next);
+        Counter.builder("stats.breaker.transitions")
+                .tag("from", state.name())
+                .tag("to", next.name())
+                .register(meterRegistry)
+                .increment();
+        state = next;
+        switch (next) {
+            case OPEN -> openedAt = System.nanoTime();
+            case HALF_OPEN -> {
+                probesStarted = 0;
+                probesSucceeded = 0;
+            }
+            case CLOSED -> {
+                recorded = 0;
+                position = 0;
+                failures = 0;
+            }
+        }
+    }
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+}
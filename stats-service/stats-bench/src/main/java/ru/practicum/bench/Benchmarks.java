@@ -0,0 +1,23 @@
+package ru.practicum.bench;
+
+import org.openjdk.jmh.Main;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// JMH's own launcher, writing jmh-result.json unless another result format is asked for:
+// java -jar benchmarks.jar [jmh options], e.g. -p rows=100000 StatsRepositoryBenchmark
+public final class Benchmarks {
+
+    private Benchmarks() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> options = new ArrayList<>(List.of(args));
+        if (!options.contains("-rf")) {
+            options.add("-rf");
+            options.add("json");
+        }
+        Main.main(options.toArray(String[]::new));
+    }
+}
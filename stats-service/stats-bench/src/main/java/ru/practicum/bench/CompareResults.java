@@ -0,0 +1,79 @@
+package ru.practicum.bench;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Compares two JMH JSON result files and exits with 1 when a benchmark got slower by more than the threshold
+// and by more than both error margins together:
+// java -cp benchmarks.jar ru.practicum.bench.CompareResults base.json current.json [threshold-percent]
+public final class CompareResults {
+
+    private static final double DEFAULT_THRESHOLD = 10;
+
+    private CompareResults() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: CompareResults <base.json> <current.json> [threshold-percent]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD;
+        Map<String, JsonNode> base = read(new File(args[0]));
+        Map<String, JsonNode> current = read(new File(args[1]));
+
+        int regressions = 0;
+        System.out.printf("%-90s %14s %14s %9s%n", "benchmark", "base", "current", "change");
+        for (Map.Entry<String, JsonNode> entry : current.entrySet()) {
+            JsonNode before = base.get(entry.getKey());
+            JsonNode after = entry.getValue();
+            JsonNode metric = after.get("primaryMetric");
+            String unit = metric.get("scoreUnit").asText();
+            if (before == null) {
+                System.out.printf("%-90s %14s %14.3f %9s  %s%n", entry.getKey(), "-", metric.get("score").asDouble(),
+                        "new", unit);
+                continue;
+            }
+            JsonNode baseMetric = before.get("primaryMetric");
+            double was = baseMetric.get("score").asDouble();
+            double now = metric.get("score").asDouble();
+            double change = (now - was) / was * 100;
+            // throughput is better when it grows, every other mode measures time per operation
+            double worse = "thrpt".equals(after.get("mode").asText()) ? was - now : now - was;
+            double noise = error(baseMetric) + error(metric);
+            boolean regressed = worse > 0 && Math.abs(change) > threshold && worse > noise;
+            if (regressed) {
+                regressions++;
+            }
+            System.out.printf("%-90s %14.3f %14.3f %+8.1f%%  %s%s%n", entry.getKey(), was, now, change, unit,
+                    regressed ? "  REGRESSION" : "");
+        }
+        System.out.printf("%d of %d benchmarks regressed by more than %.1f%%%n", regressions, current.size(),
+                threshold);
+        System.exit(regressions > 0 ? 1 : 0);
+    }
+
+    private static Map<String, JsonNode> read(File file) throws IOException {
+        Map<String, JsonNode> results = new LinkedHashMap<>();
+        for (JsonNode result : new ObjectMapper().readTree(file)) {
+            StringBuilder key = new StringBuilder(result.get("benchmark").asText());
+            Map<String, String> params = new TreeMap<>();
+            result.path("params").fields().forEachRemaining(param -> params.put(param.getKey(),
+                    param.getValue().asText()));
+            params.forEach((name, value) -> key.append(' ').append(name).append('=').append(value));
+            results.put(key.toString(), result);
+        }
+        return results;
+    }
+
+    private static double error(JsonNode metric) {
+        double error = metric.path("scoreError").asDouble();
+        return Double.isNaN(error) ? 0 : error;
+    }
+}
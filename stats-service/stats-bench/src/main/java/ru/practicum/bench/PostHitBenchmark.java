@@ -0,0 +1,54 @@
+package ru.practicum.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import ru.practicum.EndpointHit;
+import ru.practicum.service.StatsService;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+// one synchronous hit through StatsServiceImpl: mapping, dictionary lookups, the insert and the rollup updates
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PostHitBenchmark {
+
+    private static final int URIS = 1000;
+    private static final LocalDateTime START = LocalDateTime.of(2024, 6, 1, 0, 0);
+
+    private ConfigurableApplicationContext context;
+    private StatsService statsService;
+    private long sequence;
+
+    @Setup
+    public void setUp() {
+        context = StatsServerContext.start("post-hit");
+        statsService = context.getBean(StatsService.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void postHit() {
+        long n = sequence++;
+        statsService.postHit(new EndpointHit(0, "ewm-main-service", "/events/" + n % URIS,
+                "10.0." + (n >> 8 & 0xff) + "." + (n & 0xff), START.plusSeconds(n % 86_400)));
+    }
+}
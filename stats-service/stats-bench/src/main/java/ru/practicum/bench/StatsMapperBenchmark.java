@@ -0,0 +1,58 @@
+package ru.practicum.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.practicum.EndpointHit;
+import ru.practicum.mapper.StatsMapper;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatsMapperBenchmark {
+
+    private static final int BATCH_SIZE = 200;
+
+    private List<EndpointHit> hits;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        LocalDateTime now = LocalDateTime.of(2024, 6, 1, 12, 0);
+        hits = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            // every fourth visitor comes over IPv6, which normalization has to compress
+            String ip = i % 4 == 0
+                    ? "2001:0db8:0000:0000:0000:ff00:0042:" + Integer.toHexString(random.nextInt(0x10000))
+                    : "10." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256);
+            hits.add(new EndpointHit(0, "ewm-main-service", "/events/" + random.nextInt(1000), ip,
+                    now.plusSeconds(random.nextInt(3600))));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void toStats(Blackhole blackhole) {
+        for (EndpointHit hit : hits) {
+            blackhole.consume(StatsMapper.toStats(hit));
+        }
+    }
+}
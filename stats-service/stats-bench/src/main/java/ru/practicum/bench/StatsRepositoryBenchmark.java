@@ -0,0 +1,152 @@
+package ru.practicum.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.practicum.ViewStats;
+import ru.practicum.model.VisitorKey;
+import ru.practicum.repository.StatsRepository;
+import ru.practicum.util.IpAddresses;
+import ru.practicum.util.StatsDictionary;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Every StatsRepository query shape over synthetic raw rows: the full month for the report queries and one day
+// for the half-open range queries the rollup and sketch services run at the edges of a request
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class StatsRepositoryBenchmark {
+
+    private static final int URIS = 1000;
+    private static final int IPS = 50_000;
+    private static final int INSERT_CHUNK = 1_000_000;
+    private static final LocalDateTime START = LocalDateTime.of(2024, 6, 1, 0, 0);
+    private static final LocalDateTime END = START.plusDays(30);
+    private static final LocalDateTime DAY_FROM = START.plusDays(10);
+    private static final LocalDateTime DAY_TO = DAY_FROM.plusDays(1);
+
+    private static final String INSERT_STATS = "INSERT INTO stats (app_id, uri_id, ip, time_stamp) " +
+            "SELECT CAST(? AS INTEGER), u.id, i.ip, " +
+            "DATEADD(SECOND, MOD(r.x * 7919, CAST(? AS BIGINT)), CAST(? AS TIMESTAMP)) " +
+            "FROM SYSTEM_RANGE(CAST(? AS BIGINT), CAST(? AS BIGINT)) r " +
+            "JOIN bench_uri u ON u.n = MOD(r.x, CAST(? AS INTEGER)) " +
+            "JOIN bench_ip i ON i.n = MOD(r.x * 31, CAST(? AS INTEGER))";
+
+    @Param({"100000", "1000000", "10000000"})
+    private int rows;
+
+    private ConfigurableApplicationContext context;
+    private StatsRepository statsRepository;
+    private List<String> uris;
+
+    @Setup
+    public void setUp() {
+        context = StatsServerContext.start("repository");
+        try {
+            populate();
+        } catch (RuntimeException e) {
+            context.close();
+            throw e;
+        }
+        statsRepository = context.getBean(StatsRepository.class);
+        uris = List.of("/events/0", "/events/7", "/events/42", "/events/100", "/events/256",
+                "/events/333", "/events/500", "/events/640", "/events/812", "/events/999");
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    private void populate() {
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        StatsDictionary statsDictionary = context.getBean(StatsDictionary.class);
+
+        int app = statsDictionary.internApp("ewm-main-service");
+        List<Object[]> uriIds = new ArrayList<>(URIS);
+        for (int n = 0; n < URIS; n++) {
+            uriIds.add(new Object[]{n, statsDictionary.internUri("/events/" + n)});
+        }
+        jdbcTemplate.execute("CREATE TABLE bench_uri (n INTEGER PRIMARY KEY, id INTEGER NOT NULL)");
+        jdbcTemplate.batchUpdate("INSERT INTO bench_uri (n, id) VALUES (?, ?)", uriIds);
+        List<Object[]> ips = new ArrayList<>(IPS);
+        for (int n = 0; n < IPS; n++) {
+            String ip = "10." + (n >> 16) + "." + (n >> 8 & 0xff) + "." + (n & 0xff);
+            ips.add(new Object[]{n, IpAddresses.toBytes(ip)});
+        }
+        jdbcTemplate.execute("CREATE TABLE bench_ip (n INTEGER PRIMARY KEY, ip BYTEA NOT NULL)");
+        jdbcTemplate.batchUpdate("INSERT INTO bench_ip (n, ip) VALUES (?, ?)", ips);
+
+        long span = Duration.between(START, END).toSeconds();
+        for (long from = 1; from <= rows; from += INSERT_CHUNK) {
+            jdbcTemplate.update(INSERT_STATS, app, span, Timestamp.valueOf(START), from,
+                    Math.min(from + INSERT_CHUNK - 1, rows), URIS, IPS);
+        }
+        jdbcTemplate.execute("ANALYZE");
+    }
+
+    @Benchmark
+    public List<ViewStats> getAllStats() {
+        return statsRepository.getAllStats(START, END);
+    }
+
+    @Benchmark
+    public List<ViewStats> getAllUniqueStats() {
+        return statsRepository.getAllUniqueStats(START, END);
+    }
+
+    @Benchmark
+    public List<ViewStats> getStatsByUris() {
+        return statsRepository.getStatsByUris(START, END, uris);
+    }
+
+    @Benchmark
+    public List<ViewStats> getAllUniqueStatsInUris() {
+        return statsRepository.getAllUniqueStatsInUris(START, END, uris);
+    }
+
+    @Benchmark
+    public List<ViewStats> getStatsInRange() {
+        return statsRepository.getStatsInRange(DAY_FROM, DAY_TO);
+    }
+
+    @Benchmark
+    public List<ViewStats> getStatsInRangeByUris() {
+        return statsRepository.getStatsInRangeByUris(DAY_FROM, DAY_TO, uris);
+    }
+
+    @Benchmark
+    public List<VisitorKey> getVisitorsInRange() {
+        return statsRepository.getVisitorsInRange(DAY_FROM, DAY_TO);
+    }
+
+    @Benchmark
+    public List<VisitorKey> getVisitorsInRangeByUris() {
+        return statsRepository.getVisitorsInRangeByUris(DAY_FROM, DAY_TO, uris);
+    }
+
+    @Benchmark
+    public LocalDateTime getEarliestTimestamp() {
+        return statsRepository.getEarliestTimestamp();
+    }
+}
@@ -0,0 +1,30 @@
+package ru.practicum.bench;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import ru.practicum.StatsServer;
+
+// stats-server without its web layer, on an in-memory H2 database in PostgreSQL compatibility mode
+final class StatsServerContext {
+
+    private StatsServerContext() {
+    }
+
+    static ConfigurableApplicationContext start(String database) {
+        return new SpringApplicationBuilder(StatsServer.class)
+                .web(WebApplicationType.NONE)
+                .profiles("test")
+                .properties(
+                        "spring.datasource.url=jdbc:h2:mem:" + database
+                                + ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH",
+                        "stats.cache.enabled=false",
+                        "spring.main.banner-mode=off",
+                        "logging.level.root=WARN",
+                        "logging.level.org.springframework.orm.jpa=WARN",
+                        "logging.level.org.springframework.transaction=WARN",
+                        "logging.level.org.springframework.transaction.interceptor=WARN",
+                        "logging.level.org.springframework.orm.jpa.JpaTransactionManager=WARN")
+                .run();
+    }
+}
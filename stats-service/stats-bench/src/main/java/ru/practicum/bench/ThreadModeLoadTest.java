@@ -0,0 +1,133 @@
+package ru.practicum.bench;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Closed-loop load against a running service, run once per thread mode:
+// java -cp benchmarks.jar ru.practicum.bench.ThreadModeLoadTest --url=http://localhost:9090 --scenario=hit
+//     --concurrency=1000 --duration=30 --warmup=10
+public class ThreadModeLoadTest {
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            options.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+        String url = options.getOrDefault("url", "http://localhost:9090");
+        String scenario = options.getOrDefault("scenario", "hit");
+        String path = options.getOrDefault("path", "/");
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "1000"));
+        int uris = Integer.parseInt(options.getOrDefault("uris", "1000"));
+        long warmupNanos = Duration.ofSeconds(Long.parseLong(options.getOrDefault("warmup", "10"))).toNanos();
+        long durationNanos = Duration.ofSeconds(Long.parseLong(options.getOrDefault("duration", "30"))).toNanos();
+
+        HttpClient client = HttpClient.newBuilder()
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        AtomicLong errors = new AtomicLong();
+        long start = System.nanoTime();
+        long measureFrom = start + warmupNanos;
+        long measureTo = measureFrom + durationNanos;
+        List<long[]> latencies = new ArrayList<>(concurrency);
+        int[] counts = new int[concurrency];
+
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int worker = 0; worker < concurrency; worker++) {
+                int index = worker;
+                long[] samples = new long[4096];
+                latencies.add(samples);
+                workers.submit(() -> {
+                    long[] recorded = samples;
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (true) {
+                        long sent = System.nanoTime();
+                        if (sent >= measureTo) {
+                            break;
+                        }
+                        HttpRequest request = request(scenario, url, path, random.nextInt(uris), random);
+                        try {
+                            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                            if (response.statusCode() >= 400) {
+                                errors.incrementAndGet();
+                            }
+                        } catch (Exception e) {
+                            errors.incrementAndGet();
+                        }
+                        long received = System.nanoTime();
+                        if (sent >= measureFrom && received <= measureTo) {
+                            if (counts[index] == recorded.length) {
+                                recorded = Arrays.copyOf(recorded, recorded.length * 2);
+                                latencies.set(index, recorded);
+                            }
+                            recorded[counts[index]++] = received - sent;
+                        }
+                    }
+                    return null;
+                });
+            }
+        }
+
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        long[] all = new long[total];
+        int offset = 0;
+        for (int i = 0; i < concurrency; i++) {
+            System.arraycopy(latencies.get(i), 0, all, offset, counts[i]);
+            offset += counts[i];
+        }
+        Arrays.sort(all);
+        double seconds = durationNanos / 1e9;
+        System.out.printf("scenario=%s concurrency=%d requests=%d errors=%d%n", scenario, concurrency, total,
+                errors.get());
+        System.out.printf("throughput=%.0f req/s p50=%.1f ms p99=%.1f ms p999=%.1f ms max=%.1f ms%n",
+                total / seconds, percentile(all, 0.50), percentile(all, 0.99), percentile(all, 0.999),
+                all.length == 0 ? 0 : all[all.length - 1] / 1e6);
+    }
+
+    private static HttpRequest request(String scenario, String url, String path, int uri, ThreadLocalRandom random) {
+        return switch (scenario) {
+            case "hit" -> HttpRequest.newBuilder(URI.create(url + "/hit"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(String.format(
+                            "{\"app\":\"ewm-main-service\",\"uri\":\"/events/%d\",\"ip\":\"10.%d.%d.%d\","
+                                    + "\"timestamp\":\"%s\"}",
+                            uri, random.nextInt(256), random.nextInt(256), random.nextInt(256),
+                            LocalDateTime.now().format(FORMATTER))))
+                    .build();
+            case "stats" -> HttpRequest.newBuilder(URI.create(String.format(
+                            "%s/stats?start=2000-01-01%%2000:00:00&end=2100-01-01%%2000:00:00&uris=/events/%d",
+                            url, uri)))
+                    .GET()
+                    .build();
+            case "get" -> HttpRequest.newBuilder(URI.create(url + path)).GET().build();
+            default -> throw new IllegalArgumentException("Unknown scenario " + scenario);
+        };
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(quantile * sorted.length) - 1)] / 1e6;
+    }
+}
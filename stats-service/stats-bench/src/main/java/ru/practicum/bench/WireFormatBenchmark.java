@@ -0,0 +1,116 @@
+package ru.practicum.bench;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.practicum.EndpointHit;
+import ru.practicum.StatsWireFormat;
+import ru.practicum.ViewStats;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireFormatBenchmark {
+
+    private static final int BATCH_SIZE = 200;
+    private static final TypeReference<List<EndpointHit>> HITS = new TypeReference<>() {
+    };
+    private static final TypeReference<List<ViewStats>> STATS = new TypeReference<>() {
+    };
+
+    @Param({"JSON", "SMILE"})
+    private String format;
+
+    private ObjectMapper mapper;
+    private List<EndpointHit> hits;
+    private byte[] encoded;
+    private List<ViewStats> stats;
+    private byte[] encodedStats;
+
+    @Setup
+    public void setUp() throws IOException {
+        mapper = "SMILE".equals(format)
+                ? StatsWireFormat.smileMapper()
+                : JsonMapper.builder().addModule(new JavaTimeModule()).build();
+        Random random = new Random(42);
+        LocalDateTime now = LocalDateTime.of(2024, 6, 1, 12, 0);
+        hits = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            hits.add(new EndpointHit(0, "ewm-main-service", "/events/" + random.nextInt(1000),
+                    "10." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256),
+                    now.plusSeconds(random.nextInt(3600))));
+        }
+        encoded = mapper.writeValueAsBytes(hits);
+        stats = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            stats.add(new ViewStats("ewm-main-service", "/events/" + i, (long) random.nextInt(100_000)));
+        }
+        encodedStats = mapper.writeValueAsBytes(stats);
+    }
+
+    // payload bytes and hits are reported next to the timing as serialize:bytes and serialize:hits
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public byte[] serialize(Payload payload) throws IOException {
+        byte[] bytes = mapper.writeValueAsBytes(hits);
+        payload.bytes += bytes.length;
+        payload.hits += BATCH_SIZE;
+        return bytes;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<EndpointHit> deserialize() throws IOException {
+        return mapper.readValue(encoded, HITS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public byte[] serializeStats() throws IOException {
+        return mapper.writeValueAsBytes(stats);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<ViewStats> deserializeStats() throws IOException {
+        return mapper.readValue(encodedStats, STATS);
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Payload {
+        public long bytes;
+        public long hits;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            hits = 0;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package ru.practicum;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+// Every batch carries an id that the server deduplicates by, so a batch that failed is kept and sent again with the
+// same id on the next flush. Kept batches are bounded by the queue capacity; past it the oldest one is dropped.
+@Slf4j
+public class HitBatcher {
+
+    private final BiConsumer<List<EndpointHit>, String> sender;
+    private final int batchSize;
+    private final int capacity;
+    private final BlockingQueue<EndpointHit> queue;
+    private final Deque<Batch> failed = new ArrayDeque<>();
+    private int failedHits;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    public HitBatcher(BiConsumer<List<EndpointHit>, String> sender, int batchSize, int capacity, long flushIntervalMs,
+                      ThreadFactory threadFactory) {
+        this.sender = sender;
+        this.batchSize = batchSize;
+        this.capacity = capacity;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        scheduler.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void add(EndpointHit hit) {
+        if (!queue.offer(hit)) {
+            log.warn("Stats client batch queue is full, sending hit {} directly", hit);
+            sender.accept(List.of(hit), UUID.randomUUID().toString());
+            return;
+        }
+        if (queue.size() >= batchSize && flushScheduled.compareAndSet(false, true)) {
+            scheduler.execute(() -> {
+                flushScheduled.set(false);
+                flush();
+            });
+        }
+    }
+
+    // stops at the first failure, the server is most likely down and the rest waits in the queue meanwhile
+    public synchronized void flush() {
+        while (!failed.isEmpty()) {
+            Batch batch = failed.peekFirst();
+            if (!send(batch)) {
+                return;
+            }
+            failed.pollFirst();
+            failedHits -= batch.hits().size();
+        }
+        List<EndpointHit> hits = new ArrayList<>(batchSize);
+        while (queue.drainTo(hits, batchSize) > 0) {
+            Batch batch = new Batch(UUID.randomUUID().toString(), hits);
+            if (!send(batch)) {
+                keep(batch);
+                return;
+            }
+            hits = new ArrayList<>(batchSize);
+        }
+    }
+
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        synchronized (this) {
+            if (failedHits > 0) {
+                log.error("Dropping {} hits that could not be sent to stats-server before shutdown", failedHits);
+            }
+        }
+    }
+
+    private boolean send(Batch batch) {
+        try {
+            sender.accept(batch.hits(), batch.id());
+            return true;
+        } catch (RuntimeException e) {
+            log.warn("Failed to send batch {} of {} hits to stats-server, keeping it for the next flush: {}",
+                    batch.id(), batch.hits().size(), e.getMessage());
+            return false;
+        }
+    }
+
+    private void keep(Batch batch) {
+        failed.addLast(batch);
+        failedHits += batch.hits().size();
+        while (failedHits > capacity && failed.size() > 1) {
+            Batch dropped = failed.pollFirst();
+            failedHits -= dropped.hits().size();
+            log.error("Stats client retry buffer is full, dropping batch {} of {} hits", dropped.id(),
+                    dropped.hits().size());
+        }
+    }
+
+    private record Batch(String id, List<EndpointHit> hits) {
+    }
+}
@@ -0,0 +1,177 @@
+package ru.practicum;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+// Identical hits of one second are counted under a single (app, uri, ip, second) key, so the ip stays in every
+// key and unique counts on the server are unchanged while requests grow with distinct keys, not with traffic.
+// Like HitBatcher, a batch that failed is kept and sent again with the same id, bounded by the capacity in keys.
+@Slf4j
+public class HitCoalescer {
+
+    // the most hits stats-server expands from one /hit/weighted request
+    private static final int MAX_BATCH_WEIGHT = 100_000;
+
+    private final BiConsumer<List<WeightedHit>, String> sender;
+    private final int batchSize;
+    private final int capacity;
+    private final Stripe[] stripes;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final ScheduledExecutorService scheduler;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final Deque<Batch> failed = new ArrayDeque<>();
+    private int failedKeys;
+
+    public HitCoalescer(BiConsumer<List<WeightedHit>, String> sender, int batchSize, int capacity, int stripes,
+                        long flushIntervalMs, ThreadFactory threadFactory) {
+        this.sender = sender;
+        this.batchSize = batchSize;
+        this.capacity = capacity;
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        scheduler.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void add(String app, String uri, String ip, LocalDateTime timestamp) {
+        Key key = new Key(app, uri, ip, timestamp.truncatedTo(ChronoUnit.SECONDS));
+        Stripe stripe = stripes[Math.floorMod(key.hashCode(), stripes.length)];
+        boolean added;
+        stripe.lock.lock();
+        try {
+            added = stripe.counts.merge(key, 1, Integer::sum) == 1;
+        } finally {
+            stripe.lock.unlock();
+        }
+        if (added && pending.incrementAndGet() >= capacity && flushScheduled.compareAndSet(false, true)) {
+            scheduler.execute(() -> {
+                flushScheduled.set(false);
+                flush();
+            });
+        }
+    }
+
+    public int getPending() {
+        return pending.get();
+    }
+
+    // stops at the first failure, the server is most likely down and the rest is kept for the next flush
+    public synchronized void flush() {
+        while (!failed.isEmpty()) {
+            Batch batch = failed.peekFirst();
+            if (!send(batch)) {
+                return;
+            }
+            failed.pollFirst();
+            failedKeys -= batch.hits().size();
+        }
+        List<Batch> batches = new ArrayList<>();
+        List<WeightedHit> hits = new ArrayList<>(batchSize);
+        int weight = 0;
+        for (Stripe stripe : stripes) {
+            Map<Key, Integer> counts;
+            stripe.lock.lock();
+            try {
+                if (stripe.counts.isEmpty()) {
+                    continue;
+                }
+                counts = stripe.counts;
+                stripe.counts = new HashMap<>();
+            } finally {
+                stripe.lock.unlock();
+            }
+            pending.addAndGet(-counts.size());
+            for (Map.Entry<Key, Integer> entry : counts.entrySet()) {
+                Key key = entry.getKey();
+                for (int count = entry.getValue(); count > 0; ) {
+                    int part = Math.min(count, MAX_BATCH_WEIGHT - weight);
+                    hits.add(new WeightedHit(key.app(), key.uri(), key.ip(), key.second(), part));
+                    count -= part;
+                    weight += part;
+                    if (hits.size() == batchSize || weight == MAX_BATCH_WEIGHT) {
+                        batches.add(new Batch(UUID.randomUUID().toString(), hits));
+                        hits = new ArrayList<>(batchSize);
+                        weight = 0;
+                    }
+                }
+            }
+        }
+        if (!hits.isEmpty()) {
+            batches.add(new Batch(UUID.randomUUID().toString(), hits));
+        }
+        for (int i = 0; i < batches.size(); i++) {
+            if (!send(batches.get(i))) {
+                batches.subList(i, batches.size()).forEach(this::keep);
+                return;
+            }
+        }
+    }
+
+    public void close() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        synchronized (this) {
+            if (failedKeys > 0) {
+                log.error("Dropping {} coalesced hits that could not be sent to stats-server before shutdown",
+                        failedKeys);
+            }
+        }
+    }
+
+    private boolean send(Batch batch) {
+        try {
+            sender.accept(batch.hits(), batch.id());
+            return true;
+        } catch (RuntimeException e) {
+            log.warn("Failed to send batch {} of {} coalesced hits to stats-server, keeping it for the next flush: {}",
+                    batch.id(), batch.hits().size(), e.getMessage());
+            return false;
+        }
+    }
+
+    private void keep(Batch batch) {
+        failed.addLast(batch);
+        failedKeys += batch.hits().size();
+        while (failedKeys > capacity && failed.size() > 1) {
+            Batch dropped = failed.pollFirst();
+            failedKeys -= dropped.hits().size();
+            log.error("Stats client retry buffer is full, dropping batch {} of {} coalesced hits", dropped.id(),
+                    dropped.hits().size());
+        }
+    }
+
+    private static final class Stripe {
+        private final ReentrantLock lock = new ReentrantLock();
+        private Map<Key, Integer> counts = new HashMap<>();
+    }
+
+    private record Key(String app, String uri, String ip, LocalDateTime second) {
+    }
+
+    private record Batch(String id, List<WeightedHit> hits) {
+    }
+}
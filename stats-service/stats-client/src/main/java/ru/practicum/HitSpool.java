@@ -0,0 +1,427 @@
+package ru.practicum;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+@Slf4j
+public class HitSpool implements AutoCloseable {
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("spool-(\\d{12})\\.log");
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+    private static final long POLL_INTERVAL_MS = 500;
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final long maxBytes;
+    private final int batchSize;
+    private final long minBackoffMs;
+    private final long maxBackoffMs;
+    private final long fsyncIntervalMs;
+    private final BiConsumer<List<EndpointHit>, String> sender;
+    private final ObjectMapper mapper = JsonMapper.builder().findAndAddModules().build();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    private final AtomicLong backlog = new AtomicLong();
+    private final String spoolId;
+    private final Thread senderThread;
+    private volatile boolean running = true;
+
+    private long writeSegment;
+    private FileChannel writeChannel;
+    private volatile long writePosition;
+
+    private Checkpoint checkpoint;
+    private long readSegment = -1;
+    private FileChannel readChannel;
+    private long lastForce;
+
+    public HitSpool(Path directory, long segmentBytes, long maxBytes, int batchSize, long minBackoffMs,
+                    long maxBackoffMs, long fsyncIntervalMs, BiConsumer<List<EndpointHit>, String> sender,
+                    ThreadFactory threadFactory) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+        this.batchSize = batchSize;
+        this.minBackoffMs = minBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+        this.fsyncIntervalMs = fsyncIntervalMs;
+        this.sender = sender;
+        try {
+            Files.createDirectories(directory);
+            this.spoolId = loadSpoolId();
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open stats spool in " + directory, e);
+        }
+        this.senderThread = threadFactory.newThread(this::run);
+        senderThread.start();
+    }
+
+    public boolean append(EndpointHit hit) {
+        byte[] payload;
+        try {
+            payload = mapper.writeValueAsBytes(hit);
+        } catch (IOException e) {
+            log.error("Could not serialize hit {}", hit, e);
+            return false;
+        }
+        int size = HEADER_SIZE + payload.length;
+        if (backlog.get() + size > maxBytes) {
+            log.warn("Stats spool is full ({} bytes), dropping hit {}", backlog.get(), hit);
+            return false;
+        }
+        ByteBuffer record = ByteBuffer.allocate(size)
+                .putInt(payload.length)
+                .putInt(checksum(payload))
+                .put(payload)
+                .flip();
+        lock.lock();
+        try {
+            if (writePosition >= segmentBytes) {
+                roll();
+            }
+            while (record.hasRemaining()) {
+                writeChannel.write(record, writePosition + record.position());
+            }
+            writePosition += size;
+            backlog.addAndGet(size);
+            appended.signal();
+            return true;
+        } catch (IOException e) {
+            log.error("Could not append hit {} to stats spool", hit, e);
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getBacklogBytes() {
+        return backlog.get();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        senderThread.interrupt();
+        try {
+            senderThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.lock();
+        try {
+            writeChannel.force(false);
+            writeChannel.close();
+            if (readChannel != null) {
+                readChannel.close();
+            }
+        } catch (IOException e) {
+            log.warn("Could not close stats spool cleanly", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run() {
+        long backoff = minBackoffMs;
+        while (running) {
+            try {
+                forceIfDue();
+                Batch batch = nextBatch();
+                if (batch == null) {
+                    awaitAppend();
+                    continue;
+                }
+                if (batch.hits().isEmpty()) {
+                    continue;
+                }
+                checkpoint = new Checkpoint(batch.segment(), batch.start(), batch.end());
+                saveCheckpoint(checkpoint);
+                sender.accept(batch.hits(), spoolId + "-" + batch.segment() + "-" + batch.start());
+                checkpoint = new Checkpoint(batch.segment(), batch.end(), -1);
+                saveCheckpoint(checkpoint);
+                backlog.addAndGet(batch.start() - batch.end());
+                backoff = minBackoffMs;
+            } catch (RuntimeException | IOException e) {
+                log.warn("Could not send spooled hits to stats-server, retrying in {} ms: {}", backoff,
+                        e.getMessage());
+                if (!pause(backoff + ThreadLocalRandom.current().nextLong(backoff / 2 + 1))) {
+                    return;
+                }
+                backoff = Math.min(backoff * 2, maxBackoffMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private Batch nextBatch() throws IOException {
+        Checkpoint current = checkpoint;
+        long currentWriteSegment;
+        long limit;
+        lock.lock();
+        try {
+            currentWriteSegment = writeSegment;
+            limit = current.segment() == writeSegment ? writePosition : -1;
+        } finally {
+            lock.unlock();
+        }
+        FileChannel channel = openForRead(current.segment());
+        if (limit < 0) {
+            limit = channel.size();
+        }
+        if (current.pending() >= 0) {
+            limit = Math.min(limit, current.pending());
+        }
+        if (current.offset() >= limit) {
+            if (current.segment() < currentWriteSegment) {
+                readChannel.close();
+                readChannel = null;
+                readSegment = -1;
+                Files.deleteIfExists(segmentPath(current.segment()));
+                checkpoint = new Checkpoint(current.segment() + 1, 0, -1);
+                saveCheckpoint(checkpoint);
+                return new Batch(current.segment(), 0, 0, List.of());
+            }
+            return null;
+        }
+
+        List<EndpointHit> hits = new ArrayList<>();
+        long position = current.offset();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (position + HEADER_SIZE <= limit && (current.pending() >= 0 || hits.size() < batchSize)) {
+            header.clear();
+            readFully(channel, header, position);
+            int length = header.getInt(0);
+            int crc = header.getInt(4);
+            if (length < 0 || length > MAX_RECORD_SIZE || position + HEADER_SIZE + length > limit) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(channel, payload, position + HEADER_SIZE);
+            if (checksum(payload.array()) != crc) {
+                break;
+            }
+            hits.add(mapper.readValue(payload.array(), EndpointHit.class));
+            position += HEADER_SIZE + length;
+        }
+        if (hits.isEmpty()) {
+            return skipCorrupted(current, position);
+        }
+        return new Batch(current.segment(), current.offset(), position, hits);
+    }
+
+    private Batch skipCorrupted(Checkpoint current, long position) throws IOException {
+        log.error("Stats spool segment {} is corrupted at offset {}, skipping its remainder",
+                segmentPath(current.segment()), position);
+        lock.lock();
+        try {
+            if (current.segment() == writeSegment) {
+                roll();
+            }
+        } finally {
+            lock.unlock();
+        }
+        backlog.addAndGet(position - Files.size(segmentPath(current.segment())));
+        checkpoint = new Checkpoint(current.segment(), Long.MAX_VALUE, -1);
+        return new Batch(current.segment(), 0, 0, List.of());
+    }
+
+    private FileChannel openForRead(long segment) throws IOException {
+        if (readSegment != segment) {
+            if (readChannel != null) {
+                readChannel.close();
+            }
+            readChannel = FileChannel.open(segmentPath(segment), StandardOpenOption.READ);
+            readSegment = segment;
+        }
+        return readChannel;
+    }
+
+    private void awaitAppend() throws InterruptedException {
+        lock.lock();
+        try {
+            appended.await(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void forceIfDue() throws IOException {
+        long now = System.currentTimeMillis();
+        if (now - lastForce < fsyncIntervalMs) {
+            return;
+        }
+        lastForce = now;
+        lock.lock();
+        try {
+            writeChannel.force(false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void roll() throws IOException {
+        writeChannel.force(false);
+        writeChannel.close();
+        writeSegment++;
+        writeChannel = FileChannel.open(segmentPath(writeSegment), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        writePosition = 0;
+    }
+
+    private void recover() throws IOException {
+        checkpoint = loadCheckpoint();
+        List<Long> segments;
+        try (Stream<Path> files = Files.list(directory)) {
+            segments = files.map(path -> SEGMENT_NAME.matcher(path.getFileName().toString()))
+                    .filter(Matcher::matches)
+                    .map(matcher -> Long.parseLong(matcher.group(1)))
+                    .sorted()
+                    .toList();
+        }
+        long pending = 0;
+        for (long segment : segments) {
+            if (segment < checkpoint.segment()) {
+                Files.delete(segmentPath(segment));
+            } else {
+                pending += Files.size(segmentPath(segment));
+            }
+        }
+        writeSegment = segments.isEmpty() ? checkpoint.segment()
+                : Math.max(segments.getLast(), checkpoint.segment());
+        writeChannel = FileChannel.open(segmentPath(writeSegment), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = writeChannel.size();
+        writePosition = validLength(writeChannel, size);
+        if (writePosition < size) {
+            log.warn("Truncating torn tail of stats spool segment {} from {} to {} bytes",
+                    segmentPath(writeSegment), size, writePosition);
+            writeChannel.truncate(writePosition);
+            pending -= size - writePosition;
+        }
+        if (checkpoint.segment() == writeSegment && checkpoint.pending() > writePosition) {
+            checkpoint = new Checkpoint(checkpoint.segment(), checkpoint.offset(), -1);
+        }
+        backlog.set(Math.max(0, pending - checkpoint.offset()));
+        log.info("Opened stats spool {} with {} bytes waiting to be sent", directory, backlog.get());
+    }
+
+    private long validLength(FileChannel channel, long size) throws IOException {
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (position + HEADER_SIZE <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            int length = header.getInt(0);
+            if (length < 0 || length > MAX_RECORD_SIZE || position + HEADER_SIZE + length > size) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(channel, payload, position + HEADER_SIZE);
+            if (checksum(payload.array()) != header.getInt(4)) {
+                break;
+            }
+            position += HEADER_SIZE + length;
+        }
+        return position;
+    }
+
+    private String loadSpoolId() throws IOException {
+        Path path = directory.resolve("spool.id");
+        if (Files.exists(path)) {
+            return Files.readString(path, StandardCharsets.UTF_8).trim();
+        }
+        String id = UUID.randomUUID().toString();
+        writeAtomically(path, id);
+        return id;
+    }
+
+    private Checkpoint loadCheckpoint() throws IOException {
+        Path path = directory.resolve("spool.checkpoint");
+        if (!Files.exists(path)) {
+            return new Checkpoint(1, 0, -1);
+        }
+        String[] parts = Files.readString(path, StandardCharsets.UTF_8).trim().split(" ");
+        return new Checkpoint(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+    }
+
+    private void saveCheckpoint(Checkpoint value) throws IOException {
+        writeAtomically(directory.resolve("spool.checkpoint"),
+                value.segment() + " " + value.offset() + " " + value.pending());
+    }
+
+    private void writeAtomically(Path path, String content) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path segmentPath(long segment) {
+        return directory.resolve(String.format("spool-%012d.log", segment));
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of stats spool segment");
+            }
+        }
+    }
+
+    private static int checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    private static boolean pause(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private record Checkpoint(long segment, long offset, long pending) {
+    }
+
+    private record Batch(long segment, long start, long end, List<EndpointHit> hits) {
+    }
+}
@@ -1,41 +1,298 @@
 package ru.practicum;
 
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
 import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.DefaultUriBuilderFactory;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
 import java.util.stream.Collectors;
 
+@Slf4j
 @Component
 public class StatsClient {
 
     protected RestTemplate rest;
+    private final List<RestTemplate> shards;
     private final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    private final HitBatcher batcher;
+    private final HitCoalescer coalescer;
+    private final HitSpool spool;
+    private final WireFormat wireFormat;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final ExecutorService executor;
 
-    public StatsClient(@Value("${stats-server.url}") String serverUrl, RestTemplateBuilder builder) {
-        this.rest = builder
-                .uriTemplateHandler(new DefaultUriBuilderFactory(serverUrl))
-                .requestFactory(() -> new HttpComponentsClientHttpRequestFactory())
+    public StatsClient(@Value("${stats-server.url}") String serverUrl,
+                       @Value("${stats-server.shards:}") List<String> shardUrls,
+                       @Value("${stats-client.batch.enabled:false}") boolean batchEnabled,
+                       @Value("${stats-client.batch.size:200}") int batchSize,
+                       @Value("${stats-client.batch.capacity:10000}") int batchCapacity,
+                       @Value("${stats-client.batch.flush-interval-ms:1000}") long flushIntervalMs,
+                       @Value("${stats-client.coalesce.enabled:false}") boolean coalesceEnabled,
+                       @Value("${stats-client.coalesce.capacity:10000}") int coalesceCapacity,
+                       @Value("${stats-client.coalesce.stripes:16}") int coalesceStripes,
+                       @Value("${stats-client.coalesce.flush-interval-ms:1000}") long coalesceFlushIntervalMs,
+                       @Value("${stats-client.spool.enabled:false}") boolean spoolEnabled,
+                       @Value("${stats-client.spool.dir:./data/stats-spool}") Path spoolDir,
+                       @Value("${stats-client.spool.segment-bytes:16777216}") long spoolSegmentBytes,
+                       @Value("${stats-client.spool.max-bytes:268435456}") long spoolMaxBytes,
+                       @Value("${stats-client.spool.min-backoff-ms:200}") long spoolMinBackoffMs,
+                       @Value("${stats-client.spool.max-backoff-ms:30000}") long spoolMaxBackoffMs,
+                       @Value("${stats-client.spool.fsync-interval-ms:1000}") long spoolFsyncIntervalMs,
+                       @Value("${stats-client.wire-format:JSON}") WireFormat wireFormat,
+                       @Value("${stats-client.pool.max-total:50}") int poolMaxTotal,
+                       @Value("${stats-client.pool.max-per-route:50}") int poolMaxPerRoute,
+                       @Value("${stats-client.pool.connect-timeout-ms:1000}") long connectTimeoutMs,
+                       @Value("${stats-client.pool.read-timeout-ms:3000}") long readTimeoutMs,
+                       @Value("${stats-client.pool.acquire-timeout-ms:1000}") long acquireTimeoutMs,
+                       @Value("${stats-client.pool.idle-timeout-ms:30000}") long idleTimeoutMs,
+                       @Value("${stats-client.async.threads:16}") int asyncThreads,
+                       @Value("${stats-client.async.queue-capacity:1000}") int asyncQueueCapacity,
+                       @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+                       RestTemplateBuilder builder,
+                       ObjectProvider<MeterRegistry> meterRegistry) {
+        this.connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(poolMaxTotal)
+                .setMaxConnPerRoute(poolMaxPerRoute)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+                        .setSocketTimeout(Timeout.ofMilliseconds(readTimeoutMs))
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(1))
+                        .build())
                 .build();
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.ofMilliseconds(acquireTimeoutMs))
+                        .setResponseTimeout(Timeout.ofMilliseconds(readTimeoutMs))
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofMilliseconds(idleTimeoutMs))
+                .build();
+        this.rest = restTemplate(builder, serverUrl);
+        // queries may go to any shard of a cluster, hits go straight to the shard that owns their uri
+        this.shards = shardUrls.isEmpty() ? List.of(rest)
+                : shardUrls.stream().map(url -> restTemplate(builder, url.trim())).toList();
+        this.wireFormat = wireFormat;
+        this.spool = spoolEnabled ? new HitSpool(spoolDir, spoolSegmentBytes, spoolMaxBytes, batchSize,
+                spoolMinBackoffMs, spoolMaxBackoffMs, spoolFsyncIntervalMs, this::sendSpooled,
+                threads(virtualThreads).name("stats-client-spool").factory()) : null;
+        // the spool sends what it logged in batches of batch.size on its own, and coalesced hits are already sent in
+        // batches, so the batcher only runs without either of them
+        if (spoolEnabled && (batchEnabled || coalesceEnabled)) {
+            log.warn("Stats client spool is enabled, so hits are batched by the spool and batch.enabled={} and "
+                    + "coalesce.enabled={} are ignored", batchEnabled, coalesceEnabled);
+        } else if (batchEnabled && coalesceEnabled) {
+            log.warn("Stats client coalescing is enabled, so batch.enabled is ignored");
+        }
+        this.coalescer = coalesceEnabled && !spoolEnabled
+                ? new HitCoalescer(this::postWeightedHits, batchSize, coalesceCapacity, coalesceStripes,
+                coalesceFlushIntervalMs, threads(virtualThreads).name("stats-client-coalescer").factory()) : null;
+        this.batcher = batchEnabled && !spoolEnabled && !coalesceEnabled
+                ? new HitBatcher(this::postHits, batchSize, batchCapacity, flushIntervalMs,
+                threads(virtualThreads).name("stats-client-batcher").factory()) : null;
+        if (virtualThreads) {
+            // concurrency is bounded by the connection pool: callers past max-total wait up to acquire-timeout-ms
+            this.executor = Executors.newThreadPerTaskExecutor(
+                    threads(true).name("stats-client-", 1).factory());
+        } else {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(asyncThreads, asyncThreads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(asyncQueueCapacity), threads(false).name("stats-client-", 1).factory(),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+            pool.allowCoreThreadTimeOut(true);
+            this.executor = pool;
+        }
+        meterRegistry.ifAvailable(this::registerMetrics);
     }
 
     public void postHit(String app, String uri, String ip, LocalDateTime timestamp) {
+        if (coalescer != null) {
+            coalescer.add(app, uri, ip, timestamp);
+            return;
+        }
         EndpointHit hit = new EndpointHit();
         hit.setApp(app);
         hit.setUri(uri);
         hit.setIp(ip);
         hit.setTimestamp(timestamp);
-        rest.postForEntity("/hit", hit, EndpointHit.class);
+        // a hit the spool could not log (full or failing disk) is sent directly rather than lost
+        if (spool != null && spool.append(hit)) {
+            return;
+        }
+        if (batcher != null) {
+            batcher.add(hit);
+            return;
+        }
+        shards.get(StatsShards.shardOf(uri, shards.size()))
+                .postForEntity("/hit", new HttpEntity<>(hit, headers()), EndpointHit.class);
+    }
+
+    public CompletableFuture<Void> postHitAsync(String app, String uri, String ip, LocalDateTime timestamp) {
+        if (spool != null || batcher != null || coalescer != null) {
+            postHit(app, uri, ip, timestamp);
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.runAsync(() -> postHit(app, uri, ip, timestamp), executor);
+    }
+
+    public void postHits(List<EndpointHit> hits) {
+        if (hits.isEmpty()) {
+            return;
+        }
+        byShard(hits, EndpointHit::getUri).forEach((shard, part) ->
+                shards.get(shard).postForEntity("/hit/batch", new HttpEntity<>(part, headers()), Void.class));
+    }
+
+    public void postWeightedHits(List<WeightedHit> hits) {
+        if (hits.isEmpty()) {
+            return;
+        }
+        byShard(hits, WeightedHit::getUri).forEach((shard, part) ->
+                shards.get(shard).postForEntity("/hit/weighted", new HttpEntity<>(part, headers()), Void.class));
+    }
+
+    public void postWeightedHits(List<WeightedHit> hits, String batchId) {
+        byShard(hits, WeightedHit::getUri).forEach((shard, part) -> {
+            HttpHeaders headers = headers();
+            headers.set(IDEMPOTENCY_KEY_HEADER, shards.size() == 1 ? batchId : batchId + "#" + shard);
+            shards.get(shard).postForEntity("/hit/weighted", new HttpEntity<>(part, headers), Void.class);
+        });
+    }
+
+    // each shard deduplicates its own part, so a batch retried after a partial failure is stored exactly once
+    public void postHits(List<EndpointHit> hits, String batchId) {
+        byShard(hits, EndpointHit::getUri).forEach((shard, part) -> {
+            HttpHeaders headers = headers();
+            headers.set(IDEMPOTENCY_KEY_HEADER, shards.size() == 1 ? batchId : batchId + "#" + shard);
+            shards.get(shard).postForEntity("/hit/batch", new HttpEntity<>(part, headers), Void.class);
+        });
+    }
+
+    @PreDestroy
+    public void close() {
+        if (spool != null) {
+            spool.close();
+        }
+        if (batcher != null) {
+            batcher.close();
+        }
+        if (coalescer != null) {
+            coalescer.close();
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            log.warn("Failed to close stats-server connection pool", e);
+        }
+    }
+
+    private void registerMetrics(MeterRegistry registry) {
+        poolGauge(registry, "stats.client.pool.leased", PoolStats::getLeased);
+        poolGauge(registry, "stats.client.pool.available", PoolStats::getAvailable);
+        poolGauge(registry, "stats.client.pool.pending", PoolStats::getPending);
+        poolGauge(registry, "stats.client.pool.max", PoolStats::getMax);
+        if (coalescer != null) {
+            Gauge.builder("stats.client.coalesce.pending", coalescer, HitCoalescer::getPending).register(registry);
+        }
+        if (executor instanceof ThreadPoolExecutor pool) {
+            Gauge.builder("stats.client.async.queue", pool, executor -> executor.getQueue().size())
+                    .register(registry);
+            Gauge.builder("stats.client.async.active", pool, ThreadPoolExecutor::getActiveCount)
+                    .register(registry);
+        }
+    }
+
+    private <T> Map<Integer, List<T>> byShard(List<T> hits, Function<T, String> uri) {
+        if (shards.size() == 1) {
+            return Map.of(0, hits);
+        }
+        return hits.stream().collect(Collectors.groupingBy(hit -> StatsShards.shardOf(uri.apply(hit), shards.size()),
+                TreeMap::new, Collectors.toList()));
+    }
+
+    private RestTemplate restTemplate(RestTemplateBuilder builder, String url) {
+        RestTemplate template = builder
+                .uriTemplateHandler(new DefaultUriBuilderFactory(url))
+                .requestFactory(() -> new HttpComponentsClientHttpRequestFactory(httpClient))
+                .build();
+        template.getMessageConverters()
+                .removeIf(converter -> converter instanceof MappingJackson2SmileHttpMessageConverter);
+        template.getMessageConverters().add(0,
+                new MappingJackson2SmileHttpMessageConverter(StatsWireFormat.smileMapper()));
+        return template;
+    }
+
+    private static Thread.Builder threads(boolean virtual) {
+        return virtual ? Thread.ofVirtual() : Thread.ofPlatform().daemon();
+    }
+
+    private void poolGauge(MeterRegistry registry, String name, ToDoubleFunction<PoolStats> value) {
+        Gauge.builder(name, connectionManager, manager -> value.applyAsDouble(manager.getTotalStats()))
+                .register(registry);
+    }
+
+    private HttpHeaders headers() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(wireFormat.getMediaType());
+        headers.setAccept(List.of(wireFormat.getMediaType()));
+        return headers;
+    }
+
+    private void sendSpooled(List<EndpointHit> hits, String batchId) {
+        try {
+            postHits(hits, batchId);
+        } catch (HttpClientErrorException e) {
+            log.error("stats-server rejected spooled batch {} of {} hits, dropping it: {}", batchId, hits.size(),
+                    e.getMessage());
+        }
     }
 
     public List<ViewStats> getStats(LocalDateTime start, LocalDateTime end, List<Long> id, Boolean unique) {
@@ -46,10 +303,19 @@ public class StatsClient {
                 "unique", unique
         );
         return rest.exchange("/stats?start={start}&end={end}&uris={uris}&unique={unique}", HttpMethod.GET,
-                null, new ParameterizedTypeReference<List<ViewStats>>() {
+                new HttpEntity<>(headers()), new ParameterizedTypeReference<List<ViewStats>>() {
                 }, parameters).getBody();
     }
 
+    public CompletableFuture<List<ViewStats>> getStatsAsync(LocalDateTime start, LocalDateTime end, List<Long> id,
+                                                            Boolean unique) {
+        return CompletableFuture.supplyAsync(() -> getStats(start, end, id, unique), executor);
+    }
+
+    public CompletableFuture<List<ViewStats>> getStatsAsync(List<Long> id, Boolean unique) {
+        return CompletableFuture.supplyAsync(() -> getStats(id, unique), executor);
+    }
+
     public List<ViewStats> getStats(List<Long> id, Boolean unique) {
         Map<String, Object> parameters = Map.of(
                 "start", LocalDateTime.now().minusYears(5).format(formatter),
@@ -58,8 +324,8 @@ public class StatsClient {
                 "unique", unique
         );
         return rest.exchange("/stats?start={start}&end={end}&uris={uris}&unique={unique}", HttpMethod.GET,
-                null, new ParameterizedTypeReference<List<ViewStats>>() {
+                new HttpEntity<>(headers()), new ParameterizedTypeReference<List<ViewStats>>() {
                 }, parameters).getBody();
     }
 
-}
\ No newline at end of file
+}
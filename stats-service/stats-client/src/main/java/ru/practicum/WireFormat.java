@@ -0,0 +1,18 @@
+package ru.practicum;
+
+import org.springframework.http.MediaType;
+
+public enum WireFormat {
+    JSON(MediaType.APPLICATION_JSON),
+    SMILE(MediaType.parseMediaType(StatsWireFormat.SMILE_VALUE));
+
+    private final MediaType mediaType;
+
+    WireFormat(MediaType mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+}
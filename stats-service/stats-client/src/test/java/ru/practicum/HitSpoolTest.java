@@ -0,0 +1,225 @@
+package ru.practicum;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HitSpoolTest {
+
+    private static final LocalDateTime TIMESTAMP = LocalDateTime.of(2024, 1, 1, 12, 0, 0);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void deliversAppendedHitsInOrder() {
+        Sent sent = new Sent();
+        try (HitSpool spool = spool(1 << 20, 1 << 24, sent)) {
+            for (int i = 0; i < 25; i++) {
+                assertThat(spool.append(hit(i))).isTrue();
+            }
+            await(() -> sent.hits().size() == 25);
+            await(() -> spool.getBacklogBytes() == 0);
+        }
+        assertThat(sent.hits()).extracting(EndpointHit::getUri)
+                .containsExactlyElementsOf(uris(0, 25));
+        assertThat(sent.batchSizes()).allMatch(size -> size <= 10);
+    }
+
+    @Test
+    void retriesFailedBatchWithTheSameId() {
+        AtomicInteger failures = new AtomicInteger(2);
+        List<String> attempts = new CopyOnWriteArrayList<>();
+        Sent sent = new Sent();
+        try (HitSpool spool = spool(1 << 20, 1 << 24, (hits, id) -> {
+            attempts.add(id);
+            if (failures.getAndDecrement() > 0) {
+                throw new IllegalStateException("stats-server is down");
+            }
+            sent.accept(hits, id);
+        })) {
+            for (int i = 0; i < 5; i++) {
+                spool.append(hit(i));
+            }
+            await(() -> sent.hits().size() == 5);
+        }
+        assertThat(attempts).hasSizeGreaterThanOrEqualTo(3);
+        assertThat(attempts.subList(0, 3)).containsOnly(attempts.get(0));
+        assertThat(sent.hits()).extracting(EndpointHit::getUri).containsExactlyElementsOf(uris(0, 5));
+    }
+
+    @Test
+    void redeliversUnsentHitsAfterRestart() {
+        AtomicBoolean down = new AtomicBoolean(true);
+        try (HitSpool spool = spool(1 << 20, 1 << 24, (hits, id) -> {
+            if (down.get()) {
+                throw new IllegalStateException("stats-server is down");
+            }
+        })) {
+            for (int i = 0; i < 7; i++) {
+                spool.append(hit(i));
+            }
+        }
+
+        Sent sent = new Sent();
+        try (HitSpool spool = spool(1 << 20, 1 << 24, sent)) {
+            assertThat(spool.getBacklogBytes()).isPositive();
+            await(() -> sent.hits().size() == 7);
+        }
+        assertThat(sent.hits()).extracting(EndpointHit::getUri).containsExactlyElementsOf(uris(0, 7));
+    }
+
+    @Test
+    void doesNotResendDeliveredHitsAfterRestart() {
+        Sent first = new Sent();
+        try (HitSpool spool = spool(1 << 20, 1 << 24, first)) {
+            for (int i = 0; i < 4; i++) {
+                spool.append(hit(i));
+            }
+            await(() -> first.hits().size() == 4);
+            await(() -> spool.getBacklogBytes() == 0);
+        }
+
+        Sent second = new Sent();
+        try (HitSpool spool = spool(1 << 20, 1 << 24, second)) {
+            spool.append(hit(4));
+            await(() -> second.hits().size() == 1);
+        }
+        assertThat(second.hits()).extracting(EndpointHit::getUri).containsExactly("/events/4");
+    }
+
+    @Test
+    void truncatesTornTailOnRecovery() throws IOException {
+        try (HitSpool spool = spool(1 << 20, 1 << 24, (hits, id) -> {
+            throw new IllegalStateException("stats-server is down");
+        })) {
+            for (int i = 0; i < 3; i++) {
+                spool.append(hit(i));
+            }
+        }
+        Path segment = lastSegment();
+        long intact = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            // a header announcing more payload than was written before the crash
+            channel.write(ByteBuffer.allocate(12).putInt(100).putInt(42).putInt(7).flip());
+        }
+
+        Sent sent = new Sent();
+        try (HitSpool spool = spool(1 << 20, 1 << 24, sent)) {
+            assertThat(Files.size(segment)).isEqualTo(intact);
+            spool.append(hit(3));
+            await(() -> sent.hits().size() == 4);
+        }
+        assertThat(sent.hits()).extracting(EndpointHit::getUri).containsExactlyElementsOf(uris(0, 4));
+    }
+
+    @Test
+    void rollsSegmentsAndDeletesSentOnes() throws IOException {
+        Sent sent = new Sent();
+        try (HitSpool spool = spool(256, 1 << 24, sent)) {
+            for (int i = 0; i < 40; i++) {
+                spool.append(hit(i));
+            }
+            await(() -> sent.hits().size() == 40);
+            await(() -> segments().size() == 1);
+        }
+        assertThat(sent.hits()).extracting(EndpointHit::getUri).containsExactlyElementsOf(uris(0, 40));
+    }
+
+    @Test
+    void rejectsHitsOnceFull() {
+        try (HitSpool spool = spool(1 << 20, 300, (hits, id) -> {
+            throw new IllegalStateException("stats-server is down");
+        })) {
+            List<Boolean> accepted = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                accepted.add(spool.append(hit(i)));
+            }
+            assertThat(accepted).contains(true, false);
+            assertThat(spool.getBacklogBytes()).isLessThanOrEqualTo(300);
+        }
+    }
+
+    private HitSpool spool(long segmentBytes, long maxBytes, BiConsumer<List<EndpointHit>, String> sender) {
+        return new HitSpool(directory, segmentBytes, maxBytes, 10, 10, 50, 0, sender,
+                Thread.ofPlatform().daemon().factory());
+    }
+
+    private Path lastSegment() throws IOException {
+        List<Path> segments = segments();
+        return segments.get(segments.size() - 1);
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(".log")).sorted().toList();
+        }
+    }
+
+    private static EndpointHit hit(int i) {
+        return EndpointHit.builder()
+                .app("ewm-main-service")
+                .uri("/events/" + i)
+                .ip("192.168.0." + (i % 250 + 1))
+                .timestamp(TIMESTAMP.plusSeconds(i))
+                .build();
+    }
+
+    private static List<String> uris(int from, int to) {
+        List<String> uris = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            uris.add("/events/" + i);
+        }
+        return uris;
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).as("condition not met in time").isLessThan(deadline);
+            try {
+                TimeUnit.MILLISECONDS.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static class Sent implements BiConsumer<List<EndpointHit>, String> {
+        private final List<EndpointHit> hits = new CopyOnWriteArrayList<>();
+        private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void accept(List<EndpointHit> batch, String id) {
+            hits.addAll(batch);
+            batchSizes.add(batch.size());
+        }
+
+        List<EndpointHit> hits() {
+            return hits;
+        }
+
+        List<Integer> batchSizes() {
+            return batchSizes;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package ru.practicum.util;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Shared by main-service and stats-server; stats.virtual.pinned-threshold-ms is still read when the shared
+// virtual-threads.pinned-threshold-ms is not set
+@Slf4j
+@Component
+@ConditionalOnThreading(Threading.VIRTUAL)
+public class PinnedThreadMonitor {
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+    private final ObjectProvider<DataSource> dataSource;
+    private final Timer pinnedTimer;
+    private final RecordingStream stream = new RecordingStream();
+    private final Set<String> reported = ConcurrentHashMap.newKeySet();
+
+    public PinnedThreadMonitor(ObjectProvider<DataSource> dataSource,
+                               MeterRegistry meterRegistry,
+                               @Value("${virtual-threads.pinned-threshold-ms:${stats.virtual.pinned-threshold-ms:20}}")
+                               long thresholdMs) {
+        this.dataSource = dataSource;
+        this.pinnedTimer = Timer.builder("jvm.threads.virtual.pinned")
+                .register(meterRegistry);
+        stream.enable(PINNED_EVENT).withThreshold(Duration.ofMillis(thresholdMs)).withStackTrace();
+        stream.onEvent(PINNED_EVENT, this::onPinned);
+    }
+
+    @PostConstruct
+    public void start() {
+        dataSource.ifAvailable(this::checkDriver);
+        stream.startAsync();
+        log.info("Running on virtual threads, reporting carrier pinning through {}", PINNED_EVENT);
+    }
+
+    @PreDestroy
+    public void stop() {
+        stream.close();
+    }
+
+    private void onPinned(RecordedEvent event) {
+        pinnedTimer.record(event.getDuration());
+        String site = pinningSite(event.getStackTrace());
+        if (reported.add(site)) {
+            log.warn("Virtual thread pinned its carrier for {} ms at {}", event.getDuration().toMillis(), site);
+        }
+    }
+
+    private void checkDriver(DataSource source) {
+        try (Connection connection = source.getConnection()) {
+            DatabaseMetaData metaData = connection.getMetaData();
+            // before 42.6 the PostgreSQL driver holds a monitor for the whole socket round trip
+            if (metaData.getDriverName().startsWith("PostgreSQL") && (metaData.getDriverMajorVersion() < 42
+                    || metaData.getDriverMajorVersion() == 42 && metaData.getDriverMinorVersion() < 6)) {
+                log.warn("JDBC driver {} {} pins virtual threads during queries, upgrade to 42.6 or later",
+                        metaData.getDriverName(), metaData.getDriverVersion());
+            }
+        } catch (SQLException e) {
+            log.warn("Could not check JDBC driver for virtual thread pinning: {}", e.getMessage());
+        }
+    }
+
+    private static String pinningSite(RecordedStackTrace stackTrace) {
+        if (stackTrace == null) {
+            return "unknown";
+        }
+        for (RecordedFrame frame : stackTrace.getFrames()) {
+            String type = frame.getMethod().getType().getName();
+            if (!type.startsWith("java.") && !type.startsWith("jdk.") && !type.startsWith("sun.")) {
+                return type + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+            }
+        }
+        return "unknown";
+    }
+}
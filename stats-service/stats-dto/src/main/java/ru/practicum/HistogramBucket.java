@@ -0,0 +1,22 @@
+package ru.practicum;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class HistogramBucket {
+    private String app;
+    private String uri;
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime bucket;
+    private Long hits;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long unique;
+}
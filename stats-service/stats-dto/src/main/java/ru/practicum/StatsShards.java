@@ -0,0 +1,20 @@
+package ru.practicum;
+
+import java.nio.charset.StandardCharsets;
+
+public final class StatsShards {
+
+    private StatsShards() {
+    }
+
+    // FNV-1a over the UTF-8 bytes: stable across JVMs and releases, so every client and shard agrees on the owner
+    public static int shardOf(String uri, int shards) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : uri.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 32;
+        return (int) Math.floorMod(hash, (long) shards);
+    }
+}
@@ -0,0 +1,64 @@
+package ru.practicum;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+public final class StatsWireFormat {
+
+    public static final String SMILE_VALUE = "application/x-jackson-smile";
+
+    private StatsWireFormat() {
+    }
+
+    public static ObjectMapper smileMapper() {
+        SmileFactory factory = SmileFactory.builder()
+                .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+                .build();
+        SimpleModule module = new SimpleModule("stats-wire-format");
+        module.setMixInAnnotation(EndpointHit.class, EndpointHitMixIn.class);
+        module.setMixInAnnotation(WeightedHit.class, EndpointHitMixIn.class);
+        module.setMixInAnnotation(HistogramBucket.class, HistogramBucketMixIn.class);
+        return new ObjectMapper(factory).registerModule(module);
+    }
+
+    abstract static class EndpointHitMixIn {
+        @JsonSerialize(using = EpochSecondSerializer.class)
+        @JsonDeserialize(using = EpochSecondDeserializer.class)
+        private LocalDateTime timestamp;
+    }
+
+    abstract static class HistogramBucketMixIn {
+        @JsonSerialize(using = EpochSecondSerializer.class)
+        @JsonDeserialize(using = EpochSecondDeserializer.class)
+        private LocalDateTime bucket;
+    }
+
+    static class EpochSecondSerializer extends JsonSerializer<LocalDateTime> {
+        @Override
+        public void serialize(LocalDateTime value, JsonGenerator generator, SerializerProvider provider)
+                throws IOException {
+            generator.writeNumber(value.toEpochSecond(ZoneOffset.UTC));
+        }
+    }
+
+    static class EpochSecondDeserializer extends JsonDeserializer<LocalDateTime> {
+        @Override
+        public LocalDateTime deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            return LocalDateTime.ofEpochSecond(parser.getLongValue(), 0, ZoneOffset.UTC);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package ru.practicum.archive;
+
+import java.io.IOException;
+
+public class ArchiveFormatException extends IOException {
+
+    public ArchiveFormatException(String msg) {
+        super(msg);
+    }
+}
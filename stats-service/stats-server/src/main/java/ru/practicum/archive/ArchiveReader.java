@@ -0,0 +1,147 @@
+package ru.practicum.archive;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+// Reads what ArchiveWriter wrote one block at a time, so memory is bounded by the block size and the dictionaries
+public class ArchiveReader implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_IP_LENGTH = 256;
+
+    private final Inflater inflater = new Inflater();
+    private final DataInputStream in;
+    private final Map<Integer, String> apps = new HashMap<>();
+    private final Map<Integer, String> uris = new HashMap<>();
+    private final int[] appColumn = new int[ArchiveWriter.BLOCK_SIZE];
+    private final int[] uriColumn = new int[ArchiveWriter.BLOCK_SIZE];
+    private final int[] ipLengths = new int[ArchiveWriter.BLOCK_SIZE];
+    private long lastTime;
+    private long read;
+
+    public ArchiveReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(in, inflater, BUFFER_SIZE),
+                BUFFER_SIZE));
+        int magic = this.in.readInt();
+        int version = this.in.readUnsignedByte();
+        if (magic != ArchiveWriter.MAGIC) {
+            throw new ArchiveFormatException("Not a stats archive");
+        }
+        if (version != ArchiveWriter.VERSION) {
+            throw new ArchiveFormatException("Unsupported stats archive version " + version);
+        }
+    }
+
+    // false once the end marker is reached
+    public boolean readBlock(RowConsumer consumer) throws IOException {
+        int rows = readVarint();
+        if (rows == 0) {
+            return false;
+        }
+        if (rows < 0 || rows > ArchiveWriter.BLOCK_SIZE) {
+            throw new ArchiveFormatException("Invalid stats archive block of " + rows + " rows");
+        }
+        readDictionary(apps);
+        readDictionary(uris);
+        for (int i = 0; i < rows; i++) {
+            appColumn[i] = readVarint();
+        }
+        for (int i = 0; i < rows; i++) {
+            uriColumn[i] = readVarint();
+        }
+        for (int i = 0; i < rows; i++) {
+            ipLengths[i] = readVarint();
+            if (ipLengths[i] < 1 || ipLengths[i] > MAX_IP_LENGTH) {
+                throw new ArchiveFormatException("Invalid ip length " + ipLengths[i] + " in stats archive");
+            }
+        }
+        byte[][] ips = new byte[rows][];
+        for (int i = 0; i < rows; i++) {
+            ips[i] = new byte[ipLengths[i]];
+            in.readFully(ips[i]);
+        }
+        for (int i = 0; i < rows; i++) {
+            lastTime += unzigzag(readVarlong());
+            consumer.accept(lookup(apps, appColumn[i]), lookup(uris, uriColumn[i]), ips[i], fromMicros(lastTime));
+        }
+        read += rows;
+        return true;
+    }
+
+    public long getRead() {
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            in.close();
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private void readDictionary(Map<Integer, String> dictionary) throws IOException {
+        int count = readVarint();
+        for (int i = 0; i < count; i++) {
+            int id = readVarint();
+            int length = readVarint();
+            if (length < 0 || length > ArchiveWriter.MAX_STRING_LENGTH) {
+                throw new ArchiveFormatException("Invalid dictionary value length " + length + " in stats archive");
+            }
+            byte[] value = new byte[length];
+            in.readFully(value);
+            dictionary.put(id, new String(value, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String lookup(Map<Integer, String> dictionary, int id) throws IOException {
+        String value = dictionary.get(id);
+        if (value == null) {
+            throw new ArchiveFormatException("Dictionary id " + id + " is used before it is defined");
+        }
+        return value;
+    }
+
+    private int readVarint() throws IOException {
+        long value = readVarlong();
+        if (value > 0xFFFFFFFFL) {
+            throw new ArchiveFormatException("Invalid varint in stats archive");
+        }
+        return (int) value;
+    }
+
+    private long readVarlong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new ArchiveFormatException("Invalid varint in stats archive");
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static LocalDateTime fromMicros(long micros) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000),
+                (int) Math.floorMod(micros, 1_000_000) * 1000, ZoneOffset.UTC);
+    }
+
+    public interface RowConsumer {
+        void accept(String app, String uri, byte[] ip, LocalDateTime timestamp) throws IOException;
+    }
+}
@@ -0,0 +1,144 @@
+package ru.practicum.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntFunction;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+// Raw hits in blocks of up to BLOCK_SIZE rows, each laid out column by column: the app and uri ids, the binary ips
+// and the timestamps as zigzag deltas in microseconds. Dictionary entries travel in the first block that uses
+// them, and the whole stream is deflated, where the narrow columns of similar values compress well.
+public class ArchiveWriter implements AutoCloseable {
+
+    static final int MAGIC = 0x45574D41;
+    static final int VERSION = 1;
+    static final int BLOCK_SIZE = 65536;
+    static final int MAX_STRING_LENGTH = 0xFFFF;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final DataOutputStream out;
+    private final IntFunction<String> apps;
+    private final IntFunction<String> uris;
+    private final BitSet writtenApps = new BitSet();
+    private final BitSet writtenUris = new BitSet();
+    private final int[] appColumn = new int[BLOCK_SIZE];
+    private final int[] uriColumn = new int[BLOCK_SIZE];
+    private final byte[][] ipColumn = new byte[BLOCK_SIZE][];
+    private final long[] timeColumn = new long[BLOCK_SIZE];
+    private int rows;
+    private long lastTime;
+    private long written;
+
+    public ArchiveWriter(OutputStream out, IntFunction<String> apps, IntFunction<String> uris) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(
+                new DeflaterOutputStream(out, deflater, BUFFER_SIZE), BUFFER_SIZE));
+        this.apps = apps;
+        this.uris = uris;
+        this.out.writeInt(MAGIC);
+        this.out.writeByte(VERSION);
+    }
+
+    public void write(int app, int uri, byte[] ip, LocalDateTime timestamp) throws IOException {
+        appColumn[rows] = app;
+        uriColumn[rows] = uri;
+        ipColumn[rows] = ip;
+        timeColumn[rows] = toMicros(timestamp);
+        if (++rows == BLOCK_SIZE) {
+            flushBlock();
+        }
+    }
+
+    public long getWritten() {
+        return written;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBlock();
+            writeVarint(0);
+            out.close();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        if (rows == 0) {
+            return;
+        }
+        writeVarint(rows);
+        writeDictionary(appColumn, writtenApps, apps);
+        writeDictionary(uriColumn, writtenUris, uris);
+        for (int i = 0; i < rows; i++) {
+            writeVarint(appColumn[i]);
+        }
+        for (int i = 0; i < rows; i++) {
+            writeVarint(uriColumn[i]);
+        }
+        for (int i = 0; i < rows; i++) {
+            writeVarint(ipColumn[i].length);
+        }
+        for (int i = 0; i < rows; i++) {
+            out.write(ipColumn[i]);
+        }
+        for (int i = 0; i < rows; i++) {
+            writeVarlong(zigzag(timeColumn[i] - lastTime));
+            lastTime = timeColumn[i];
+        }
+        written += rows;
+        Arrays.fill(ipColumn, 0, rows, null);
+        rows = 0;
+    }
+
+    private void writeDictionary(int[] column, BitSet written, IntFunction<String> values) throws IOException {
+        int[] added = new int[rows];
+        int count = 0;
+        for (int i = 0; i < rows; i++) {
+            if (!written.get(column[i])) {
+                written.set(column[i]);
+                added[count++] = column[i];
+            }
+        }
+        writeVarint(count);
+        for (int i = 0; i < count; i++) {
+            byte[] value = values.apply(added[i]).getBytes(StandardCharsets.UTF_8);
+            if (value.length > MAX_STRING_LENGTH) {
+                throw new IOException("Dictionary value of " + value.length + " bytes is too long");
+            }
+            writeVarint(added[i]);
+            writeVarint(value.length);
+            out.write(value);
+        }
+    }
+
+    private void writeVarint(int value) throws IOException {
+        writeVarlong(value & 0xFFFFFFFFL);
+    }
+
+    private void writeVarlong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long toMicros(LocalDateTime timestamp) {
+        return timestamp.toEpochSecond(ZoneOffset.UTC) * 1_000_000 + timestamp.getNano() / 1000;
+    }
+}
@@ -0,0 +1,58 @@
+package ru.practicum.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+
+// Without Tomcat's worker limit every open request competes for the JDBC pool, and Hikari serves new arrivals
+// ahead of long waiters; a fair semaphore restores FIFO admission while waiting requests stay parked
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@ConditionalOnThreading(Threading.VIRTUAL)
+public class VirtualThreadAdmissionFilter extends OncePerRequestFilter {
+
+    private final Semaphore permits;
+
+    public VirtualThreadAdmissionFilter(MeterRegistry meterRegistry,
+                                        @Value("${stats.virtual.max-concurrent-requests:200}") int maxConcurrent) {
+        this.permits = maxConcurrent > 0 ? new Semaphore(maxConcurrent, true) : null;
+        if (permits != null) {
+            Gauge.builder("stats.virtual.admission.waiting", permits, Semaphore::getQueueLength)
+                    .register(meterRegistry);
+        }
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (permits == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            permits.release();
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package ru.practicum.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import ru.practicum.StatsWireFormat;
+
+@Configuration
+public class WireFormatConfig {
+
+    @Bean
+    public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter() {
+        return new MappingJackson2SmileHttpMessageConverter(StatsWireFormat.smileMapper());
+    }
+}
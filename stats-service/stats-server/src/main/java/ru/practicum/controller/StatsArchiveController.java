@@ -0,0 +1,65 @@
+package ru.practicum.controller;
+
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.practicum.archive.ArchiveFormatException;
+import ru.practicum.config.ConditionalOnJpaBackend;
+import ru.practicum.exception.ValidationException;
+import ru.practicum.service.StatsArchiveService;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.zip.ZipException;
+
+// moves raw stats history between environments: curl -o stats.ewma '.../stats/export' and
+// curl --data-binary @stats.ewma -H 'Content-Type: application/octet-stream' .../stats/import
+@Slf4j
+@RestController
+@ConditionalOnJpaBackend
+@RequiredArgsConstructor
+public class StatsArchiveController {
+    private final StatsArchiveService statsArchiveService;
+    private static final String FORMAT = "yyyy-MM-dd HH:mm:ss";
+    private static final String FILE_NAME = "stats.ewma";
+
+    @GetMapping(value = "/stats/export", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportStats(
+            @RequestParam(required = false) @DateTimeFormat(pattern = FORMAT) LocalDateTime start,
+            @RequestParam(required = false) @DateTimeFormat(pattern = FORMAT) LocalDateTime end) {
+        log.info("Exporting stats from {} to {}", start, end);
+        if (start != null && end != null && start.isAfter(end)) {
+            throw new ValidationException(
+                    String.format("Unexpected time interval: start %s; end %s", start, end));
+        }
+        StreamingResponseBody body = out -> statsArchiveService.exportStats(start, end, out);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.attachment().filename(FILE_NAME).build().toString())
+                .body(body);
+    }
+
+    @PostMapping(value = "/stats/import", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    @ResponseStatus(HttpStatus.CREATED)
+    public void importStats(HttpServletRequest request) throws IOException {
+        try {
+            log.info("Imported {} stats rows", statsArchiveService.importStats(request.getInputStream()));
+        } catch (ArchiveFormatException | ZipException | EOFException e) {
+            throw new ValidationException(String.format("Invalid stats archive: %s", e.getMessage()));
+        }
+    }
+}
@@ -1,18 +1,38 @@
 package ru.practicum.controller;
 
 
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ru.practicum.EndpointHit;
+import ru.practicum.StatsWireFormat;
 import ru.practicum.ViewStats;
+import ru.practicum.WeightedHit;
+import ru.practicum.enums.Granularity;
+import ru.practicum.enums.UniqueMode;
+import ru.practicum.enums.UriGrouping;
 import ru.practicum.exception.ValidationException;
+import ru.practicum.model.VisitorSketch;
 import ru.practicum.service.StatsService;
+import ru.practicum.util.IdempotencyKeys;
+import ru.practicum.util.ShardClient;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 
 
@@ -21,25 +41,291 @@ import java.util.List;
 @RequiredArgsConstructor
 public class StatsController {
     private final StatsService statsService;
+    private final ObjectMapper objectMapper;
+    private final IdempotencyKeys idempotencyKeys;
     private static final String FORMAT = "yyyy-MM-dd HH:mm:ss";
+    private static final int STREAM_CHUNK_SIZE = 1000;
+    private static final String ERROR_BOUND_HEADER = "X-Stats-Error-Bound";
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    private static final int MAX_HIT_WEIGHT = 100_000;
+    private static final int MAX_WEIGHTED_TOTAL = 100_000;
+    // leaves room in the 128 characters stored for the "#chunk" and "#shard" suffixes of keys derived from it
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 100;
 
     @PostMapping("/hit")
     @ResponseStatus(HttpStatus.CREATED)
-    public void postHit(@Validated @RequestBody EndpointHit hit) {
-        log.info("Posting hit: {}", hit);
-        statsService.postHit(hit);
+    public void postHit(@Validated @RequestBody EndpointHit hit,
+                        @RequestHeader(value = ShardClient.LOCAL_HEADER, defaultValue = "false") boolean local) {
+        service(local).postHit(hit);
+    }
+
+    @PostMapping(value = "/hit/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, StatsWireFormat.SMILE_VALUE})
+    @ResponseStatus(HttpStatus.CREATED)
+    public void postHits(@RequestBody List<EndpointHit> hits,
+                         @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String batchId,
+                         @RequestHeader(value = ShardClient.LOCAL_HEADER, defaultValue = "false") boolean local) {
+        hits.forEach(StatsController::validate);
+        postKeyed(batchId, () -> service(local).postHits(hits, batchId));
+    }
+
+    // raw stats keep one row per hit, so the service expands coalesced hits back and every aggregate stays as it was
+    @PostMapping(value = "/hit/weighted", consumes = {MediaType.APPLICATION_JSON_VALUE, StatsWireFormat.SMILE_VALUE})
+    @ResponseStatus(HttpStatus.CREATED)
+    public void postWeightedHits(@RequestBody List<WeightedHit> hits,
+                                 @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String batchId,
+                                 @RequestHeader(value = ShardClient.LOCAL_HEADER, defaultValue = "false")
+                                 boolean local) {
+        long total = 0;
+        for (WeightedHit hit : hits) {
+            if (hit == null) {
+                throw new ValidationException("Unexpected empty hit in batch");
+            }
+            validate(hit.getApp(), hit.getUri(), hit.getIp(), hit.getTimestamp());
+            if (hit.getCount() < 1 || hit.getCount() > MAX_HIT_WEIGHT) {
+                throw new ValidationException(String.format("Unexpected hit count: %d", hit.getCount()));
+            }
+            total += hit.getCount();
+        }
+        // every count becomes a stored row, so the whole request is bounded before anything is expanded
+        if (total > MAX_WEIGHTED_TOTAL) {
+            throw new ValidationException(String.format("Weighted hits are worth %d hits, at most %d are accepted",
+                    total, MAX_WEIGHTED_TOTAL));
+        }
+        postKeyed(batchId, () -> service(local).postWeightedHits(hits, batchId));
+    }
+
+    private void postKeyed(String batchId, Runnable post) {
+        checkKey(batchId);
+        // a key seen by this instance is skipped here, the service stores keys with their rows to survive restarts
+        if (batchId != null && !idempotencyKeys.register(batchId)) {
+            log.info("Batch {} was already posted, skipping it", batchId);
+            return;
+        }
+        try {
+            post.run();
+        } catch (RuntimeException e) {
+            if (batchId != null) {
+                idempotencyKeys.release(batchId);
+            }
+            throw e;
+        }
+    }
+
+    // every chunk commits on its own; with a key each one is stored under key#chunk, so resending the same stream
+    // after a failure skips the chunks that made it and stores the rest
+    @PostMapping(value = "/hit/batch", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    @ResponseStatus(HttpStatus.CREATED)
+    public void postHitStream(HttpServletRequest request,
+                              @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String batchId,
+                              @RequestHeader(value = ShardClient.LOCAL_HEADER, defaultValue = "false") boolean local)
+            throws IOException {
+        checkKey(batchId);
+        List<EndpointHit> chunk = new ArrayList<>(STREAM_CHUNK_SIZE);
+        int chunks = 0;
+        int total = 0;
+        try (MappingIterator<EndpointHit> hits = objectMapper.readerFor(EndpointHit.class)
+                .readValues(request.getInputStream())) {
+            while (hits.hasNextValue()) {
+                EndpointHit hit = hits.nextValue();
+                validate(hit);
+                chunk.add(hit);
+                if (chunk.size() == STREAM_CHUNK_SIZE) {
+                    service(local).postHits(chunk, chunkKey(batchId, chunks++));
+                    total += chunk.size();
+                    chunk = new ArrayList<>(STREAM_CHUNK_SIZE);
+                }
+            }
+        }
+        if (!chunk.isEmpty()) {
+            service(local).postHits(chunk, chunkKey(batchId, chunks++));
+            total += chunk.size();
+        }
+        log.debug("Posted stream of {} hits in {} chunks", total, chunks);
+    }
+
+    private static String chunkKey(String batchId, int chunk) {
+        return batchId == null ? null : batchId + "#" + chunk;
+    }
+
+    private static void checkKey(String batchId) {
+        if (batchId != null && batchId.length() > MAX_IDEMPOTENCY_KEY_LENGTH) {
+            throw new ValidationException(String.format("Idempotency key is longer than %d characters",
+                    MAX_IDEMPOTENCY_KEY_LENGTH));
+        }
     }
 
     @GetMapping("/stats")
     public List<ViewStats> getStats(@RequestParam @DateTimeFormat(pattern = FORMAT) LocalDateTime start,
                                     @RequestParam @DateTimeFormat(pattern = FORMAT) LocalDateTime end,
                                     @RequestParam(required = false) List<String> uris,
-                                    @RequestParam(defaultValue = "false") Boolean unique) {
+                                    @RequestParam(defaultValue = "false") Boolean unique,
+                                    @RequestParam(defaultValue = "EXACT") UniqueMode mode,
+                                    @RequestParam(defaultValue = "URI") UriGrouping groupBy,
+                                    @RequestHeader(value = ShardClient.LOCAL_HEADER, defaultValue = "false")
+                                    boolean local,
+                                    HttpServletResponse response) {
         log.info("Getting stats");
         if (start.isAfter(end)) {
             throw new ValidationException(
                     String.format("Unexpected time interval: start %s; end %s", start, end));
         }
-        return statsService.getStats(start, end, uris, unique);
+        StatsService service = service(local);
+        service.checkStats(start, end, unique, mode);
+        if (unique && mode == UniqueMode.APPROXIMATE) {
+            response.setHeader(ERROR_BOUND_HEADER, String.valueOf(statsService.getApproximationError()));
+        }
+        return service.getStats(start, end, uris, unique, mode, groupBy);
+    }
+
+    // the same stats written row by row as they leave the database, for windows with too many uris to hold in memory
+    @GetMapping(value = "/stats", params = "stream=true",
+            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<StreamingResponseBody> streamStats(
+            @RequestParam @DateTimeFormat(pattern = FORMAT) LocalDateTime start,
+            @RequestParam @DateTimeFormat(pattern = FORMAT) LocalDateTime end,
+            @RequestParam(required = false) List<String> uris,
+            @RequestParam(defaultValue = "false") Boolean unique,
+            @RequestParam(defaultValue = "EXACT") UniqueMode mode,
+            @RequestParam(defaultValue = "URI") UriGrouping groupBy,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            @RequestHeader(value = ShardClient.LOCAL_HEADER, defaultValue = "false") boolean local) {
+        log.info("Streaming stats");
+        if (start.isAfter(end)) {
+            throw new ValidationException(
+                    String.format("Unexpected time interval: start %s; end %s", start, end));
+        }
+        StatsService service = service(local);
+        service.checkStats(start, end, unique, mode);
+        boolean ndjson = accept != null && accept.contains(MediaType.APPLICATION_NDJSON_VALUE);
+        StreamingResponseBody body = out -> {
+            if (ndjson) {
+                service.streamStats(start, end, uris, unique, mode, groupBy, stats -> {
+                    try {
+                        out.write(objectMapper.writeValueAsBytes(stats));
+                        out.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                return;
+            }
+            try (SequenceWriter writer = objectMapper.writer().writeValuesAsArray(out)) {
+                service.streamStats(start, end, uris, unique, mode, groupBy, stats -> {
+                    try {
+                        writer.write(stats);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        };
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(ndjson ? MediaType.APPLICATION_NDJSON : MediaType.APPLICATION_JSON);
+        if (unique && mode == UniqueMode.APPROXIMATE) {
+            response.header(ERROR_BOUND_HEADER, String.valueOf(statsService.getApproximationError()));
+        }
+        return response.body(body);
+    }
+
+    @GetMapping("/stats/top")
+    public List<ViewStats> getTopStats(@RequestParam @DateTimeFormat(pattern = FORMAT) LocalDateTime start,
+                                       @RequestParam @DateTimeFormat(pattern = FORMAT) LocalDateTime end,
+                                       @RequestParam(defaultValue = "10") Integer limit,
+                                       @RequestParam(defaultValue = "false") Boolean exact,
+                                       @RequestHeader(value = ShardClient.LOCAL_HEADER, defaultValue = "false")
+                                       boolean local) {
+        log.info("Getting top {} stats", limit);
+        if (start.isAfter(end)) {
+            throw new ValidationException(
+                    String.format("Unexpected time interval: start %s; end %s", start, end));
+        }
+        if (limit < 1) {
+            throw new ValidationException(String.format("Unexpected limit: %d", limit));
+        }
+        return service(local).getTopHits(start, end, limit, exact);
+    }
+
+    @GetMapping("/stats/sketches")
+    public List<VisitorSketch> getVisitorSketches(@RequestParam @DateTimeFormat(pattern = FORMAT) LocalDateTime start,
+                                                  @RequestParam @DateTimeFormat(pattern = FORMAT) LocalDateTime end,
+                                                  @RequestParam List<String> uris,
+                                                  @RequestHeader(value = ShardClient.LOCAL_HEADER,
+                                                          defaultValue = "false") boolean local) {
+        log.info("Getting visitor sketches");
+        if (start.isAfter(end)) {
+            throw new ValidationException(
+                    String.format("Unexpected time interval: start %s; end %s", start, end));
+        }
+        return service(local).getVisitorSketches(start, end, uris);
+    }
+
+    @GetMapping(value = "/stats/histogram",
+            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<StreamingResponseBody> getHistogram(
+            @RequestParam @DateTimeFormat(pattern = FORMAT) LocalDateTime start,
+            @RequestParam @DateTimeFormat(pattern = FORMAT) LocalDateTime end,
+            @RequestParam(required = false) List<String> uris,
+            @RequestParam(defaultValue = "HOUR") Granularity interval,
+            @RequestParam(defaultValue = "false") Boolean unique,
+            @RequestParam(defaultValue = "EXACT") UniqueMode mode,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            @RequestHeader(value = ShardClient.LOCAL_HEADER, defaultValue = "false") boolean local) {
+        log.info("Getting histogram per {}", interval);
+        if (start.isAfter(end)) {
+            throw new ValidationException(
+                    String.format("Unexpected time interval: start %s; end %s", start, end));
+        }
+        StatsService service = service(local);
+        service.checkHistogram(start, end, interval, unique, mode);
+        boolean ndjson = accept != null && accept.contains(MediaType.APPLICATION_NDJSON_VALUE);
+        StreamingResponseBody body = out -> {
+            if (ndjson) {
+                service.streamHistogram(start, end, uris, interval, unique, mode, bucket -> {
+                    try {
+                        out.write(objectMapper.writeValueAsBytes(bucket));
+                        out.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                return;
+            }
+            try (SequenceWriter writer = objectMapper.writer().writeValuesAsArray(out)) {
+                service.streamHistogram(start, end, uris, interval, unique, mode, bucket -> {
+                    try {
+                        writer.write(bucket);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        };
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(ndjson ? MediaType.APPLICATION_NDJSON : MediaType.APPLICATION_JSON);
+        if (unique && mode == UniqueMode.APPROXIMATE) {
+            response.header(ERROR_BOUND_HEADER, String.valueOf(statsService.getApproximationError()));
+        }
+        return response.body(body);
+    }
+
+    // the dto only carries lombok null checks on its setters, so batch elements are checked here
+    private static void validate(EndpointHit hit) {
+        if (hit == null) {
+            throw new ValidationException("Unexpected empty hit in batch");
+        }
+        validate(hit.getApp(), hit.getUri(), hit.getIp(), hit.getTimestamp());
+    }
+
+    private static void validate(String app, String uri, String ip, LocalDateTime timestamp) {
+        if (app == null || app.isBlank() || uri == null || uri.isBlank() || ip == null || ip.isBlank()
+                || timestamp == null) {
+            throw new ValidationException(
+                    String.format("Unexpected hit: app %s; uri %s; ip %s; timestamp %s", app, uri, ip, timestamp));
+        }
+    }
+
+    // requests from other shards are answered with this instance's own data only
+    private StatsService service(boolean local) {
+        return local ? statsService.local() : statsService;
     }
 }
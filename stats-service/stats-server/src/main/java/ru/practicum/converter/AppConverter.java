@@ -0,0 +1,26 @@
+package ru.practicum.converter;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+import org.springframework.beans.factory.ObjectProvider;
+import ru.practicum.util.StatsDictionary;
+
+@Converter
+public class AppConverter implements AttributeConverter<String, Integer> {
+
+    private final ObjectProvider<StatsDictionary> statsDictionary;
+
+    public AppConverter(ObjectProvider<StatsDictionary> statsDictionary) {
+        this.statsDictionary = statsDictionary;
+    }
+
+    @Override
+    public Integer convertToDatabaseColumn(String app) {
+        return app == null ? null : statsDictionary.getObject().findAppId(app);
+    }
+
+    @Override
+    public String convertToEntityAttribute(Integer id) {
+        return id == null ? null : statsDictionary.getObject().getApp(id);
+    }
+}
@@ -0,0 +1,19 @@
+package ru.practicum.converter;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+import ru.practicum.util.IpAddresses;
+
+@Converter
+public class IpConverter implements AttributeConverter<String, byte[]> {
+
+    @Override
+    public byte[] convertToDatabaseColumn(String ip) {
+        return ip == null ? null : IpAddresses.toBytes(ip);
+    }
+
+    @Override
+    public String convertToEntityAttribute(byte[] ip) {
+        return ip == null ? null : IpAddresses.toString(ip);
+    }
+}
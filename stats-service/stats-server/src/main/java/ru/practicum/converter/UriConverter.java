@@ -0,0 +1,29 @@
+package ru.practicum.converter;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+import org.springframework.beans.factory.ObjectProvider;
+import ru.practicum.util.StatsDictionary;
+
+@Converter
+public class UriConverter implements AttributeConverter<String, Integer> {
+
+    private final ObjectProvider<StatsDictionary> statsDictionary;
+
+    public UriConverter(ObjectProvider<StatsDictionary> statsDictionary) {
+        this.statsDictionary = statsDictionary;
+    }
+
+    // Hibernate binds query parameters while holding a monitor on the shared query plan, so callers resolve their
+    // uris through StatsDictionary.resolveUris first and this normally answers from the cache; a uri they missed
+    // is still looked up rather than bound as unknown, and a miss is cached too
+    @Override
+    public Integer convertToDatabaseColumn(String uri) {
+        return uri == null ? null : statsDictionary.getObject().findUriId(uri);
+    }
+
+    @Override
+    public String convertToEntityAttribute(Integer id) {
+        return id == null ? null : statsDictionary.getObject().getUri(id);
+    }
+}
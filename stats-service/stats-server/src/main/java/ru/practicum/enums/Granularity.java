@@ -0,0 +1,35 @@
+package ru.practicum.enums;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+public enum Granularity {
+    MINUTE(ChronoUnit.MINUTES, "stats_minute"),
+    HOUR(ChronoUnit.HOURS, "stats_hour"),
+    DAY(ChronoUnit.DAYS, "stats_day");
+
+    private final ChronoUnit unit;
+    private final String table;
+
+    Granularity(ChronoUnit unit, String table) {
+        this.unit = unit;
+        this.table = table;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public ChronoUnit getUnit() {
+        return unit;
+    }
+
+    public LocalDateTime floor(LocalDateTime time) {
+        return time.truncatedTo(unit);
+    }
+
+    public LocalDateTime ceil(LocalDateTime time) {
+        LocalDateTime floor = floor(time);
+        return floor.equals(time) ? floor : floor.plus(1, unit);
+    }
+}
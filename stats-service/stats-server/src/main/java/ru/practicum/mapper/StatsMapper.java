@@ -1,16 +1,27 @@
 package ru.practicum.mapper;
 
 import ru.practicum.EndpointHit;
+import ru.practicum.WeightedHit;
 import ru.practicum.model.Stats;
+import ru.practicum.util.IpAddresses;
 
 public class StatsMapper {
 
     public static Stats toStats(EndpointHit endpointHit) {
         Stats stats = new Stats();
         stats.setApp(endpointHit.getApp());
-        stats.setIp(endpointHit.getIp());
+        stats.setIp(IpAddresses.normalize(endpointHit.getIp()));
         stats.setUri(endpointHit.getUri());
         stats.setTimestamp(endpointHit.getTimestamp());
         return stats;
     }
+
+    public static Stats toStats(WeightedHit weightedHit) {
+        Stats stats = new Stats();
+        stats.setApp(weightedHit.getApp());
+        stats.setIp(IpAddresses.normalize(weightedHit.getIp()));
+        stats.setUri(weightedHit.getUri());
+        stats.setTimestamp(weightedHit.getTimestamp());
+        return stats;
+    }
 }
@@ -0,0 +1,17 @@
+package ru.practicum.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import ru.practicum.enums.Granularity;
+
+import java.time.LocalDateTime;
+
+@Getter
+@ToString
+@AllArgsConstructor
+public class CompactionState {
+    private final Granularity granularity;
+    private final LocalDateTime compactedFrom;
+    private final LocalDateTime compactedBefore;
+}
@@ -0,0 +1,25 @@
+package ru.practicum.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.Comparator;
+
+@Data
+@AllArgsConstructor
+public class RollupKey implements Comparable<RollupKey> {
+
+    private static final Comparator<RollupKey> ORDER = Comparator.comparing(RollupKey::getApp)
+            .thenComparing(RollupKey::getUri)
+            .thenComparing(RollupKey::getBucket);
+
+    private String app;
+    private String uri;
+    private LocalDateTime bucket;
+
+    @Override
+    public int compareTo(RollupKey other) {
+        return ORDER.compare(this, other);
+    }
+}
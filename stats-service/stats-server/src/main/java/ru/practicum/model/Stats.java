@@ -4,6 +4,9 @@ import lombok.*;
 
 import jakarta.persistence.*;
 import org.hibernate.proxy.HibernateProxy;
+import ru.practicum.converter.AppConverter;
+import ru.practicum.converter.IpConverter;
+import ru.practicum.converter.UriConverter;
 
 import java.time.LocalDateTime;
 import java.util.Objects;
@@ -20,11 +23,14 @@ public class Stats {
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     @Column(name = "id")
     private Long id;
-    @Column(name = "app", nullable = false, length = 64)
+    @Convert(converter = AppConverter.class)
+    @Column(name = "app_id", nullable = false)
     private String app;
-    @Column(name = "uri", nullable = false, length = 256)
+    @Convert(converter = UriConverter.class)
+    @Column(name = "uri_id", nullable = false)
     private String uri;
-    @Column(name = "ip", nullable = false, length = 64)
+    @Convert(converter = IpConverter.class)
+    @Column(name = "ip", nullable = false)
     private String ip;
     @Column(name = "time_stamp", nullable = false)
     private LocalDateTime timestamp;
@@ -0,0 +1,21 @@
+package ru.practicum.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import ru.practicum.enums.Granularity;
+
+import java.time.LocalDateTime;
+
+@Getter
+@ToString
+@AllArgsConstructor
+public class TimeSegment {
+    private final Granularity granularity;
+    private final LocalDateTime from;
+    private final LocalDateTime to;
+
+    public boolean isRaw() {
+        return granularity == null;
+    }
+}
@@ -0,0 +1,12 @@
+package ru.practicum.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class VisitorKey {
+    private String app;
+    private String uri;
+    private String ip;
+}
@@ -0,0 +1,14 @@
+package ru.practicum.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class VisitorSketch {
+    private String app;
+    private String uri;
+    private byte[] sketch;
+}
@@ -0,0 +1,154 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.config.ConditionalOnJpaBackend;
+import ru.practicum.model.RollupKey;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+@Repository
+@ConditionalOnJpaBackend
+@RequiredArgsConstructor
+public class BitmapRepository {
+
+    private static final String FIND_IPS = "SELECT id, ip FROM stats_ip_dict";
+
+    private static final String INSERT_IP = "INSERT INTO stats_ip_dict (id, ip) VALUES (?, ?)";
+
+    private static final String FIND_BITMAPS = "SELECT app, uri, bucket, bitmap FROM stats_ip_bitmap";
+
+    private static final String FIND_BITMAPS_FROM = FIND_BITMAPS + " WHERE bucket >= ?";
+
+    private static final String FIND_BITMAPS_IN_RANGE = FIND_BITMAPS + " WHERE bucket >= :from AND bucket < :to %s";
+
+    private static final String FIND_BITMAP = "SELECT bitmap FROM stats_ip_bitmap " +
+            "WHERE app = ? AND uri = ? AND bucket = ?";
+
+    private static final String MERGE_BITMAP = "MERGE INTO stats_ip_bitmap AS b " +
+            "USING (VALUES (CAST(? AS VARCHAR(64)), CAST(? AS VARCHAR(256)), CAST(? AS TIMESTAMP), " +
+            "CAST(? AS BYTEA))) " +
+            "AS h (app, uri, bucket, bitmap) " +
+            "ON b.app = h.app AND b.uri = h.uri AND b.bucket = h.bucket " +
+            "WHEN MATCHED THEN UPDATE SET bitmap = h.bitmap " +
+            "WHEN NOT MATCHED THEN INSERT (app, uri, bucket, bitmap) VALUES (h.app, h.uri, h.bucket, h.bitmap)";
+
+    private static final String DELETE_BITMAPS = "DELETE FROM stats_ip_bitmap WHERE bucket >= ? AND bucket < ?";
+
+    private static final String INSERT_PENDING = "INSERT INTO stats_ip_bitmap_pending (app, uri, bucket) " +
+            "VALUES (?, ?, ?)";
+
+    private static final String FIND_LAST_PENDING = "SELECT COALESCE(MAX(id), 0) FROM stats_ip_bitmap_pending";
+
+    private static final String FIND_PENDING = "SELECT DISTINCT app, uri, bucket FROM stats_ip_bitmap_pending " +
+            "WHERE id <= ?";
+
+    private static final String DELETE_PENDING = "DELETE FROM stats_ip_bitmap_pending WHERE id <= ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    public void forEachIp(IpConsumer consumer) {
+        jdbcTemplate.query(FIND_IPS, rs -> {
+            consumer.accept(rs.getInt("id"), rs.getBytes("ip"));
+        });
+    }
+
+    public void saveIps(List<Map.Entry<Integer, byte[]>> ips) {
+        jdbcTemplate.batchUpdate(INSERT_IP, ips, ips.size(), (ps, ip) -> {
+            ps.setInt(1, ip.getKey());
+            ps.setBytes(2, ip.getValue());
+        });
+    }
+
+    // every stored bitmap when from is null
+    public void forEachBitmap(LocalDateTime from, BitmapConsumer consumer) {
+        if (from == null) {
+            jdbcTemplate.query(FIND_BITMAPS, rs -> {
+                consumer.accept(key(rs), rs.getBytes("bitmap"));
+            });
+            return;
+        }
+        jdbcTemplate.query(FIND_BITMAPS_FROM, rs -> {
+            consumer.accept(key(rs), rs.getBytes("bitmap"));
+        }, Timestamp.valueOf(from));
+    }
+
+    public void forEachBitmap(LocalDateTime from, LocalDateTime to, List<String> uris, BitmapConsumer consumer) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("from", Timestamp.valueOf(from))
+                .addValue("to", Timestamp.valueOf(to));
+        String uriFilter = "";
+        if (uris != null && !uris.isEmpty()) {
+            uriFilter = "AND uri IN (:uris)";
+            params.addValue("uris", uris);
+        }
+        namedParameterJdbcTemplate.query(String.format(FIND_BITMAPS_IN_RANGE, uriFilter), params, rs -> {
+            consumer.accept(key(rs), rs.getBytes("bitmap"));
+        });
+    }
+
+    public byte[] findBitmap(RollupKey key) {
+        List<byte[]> bitmaps = jdbcTemplate.query(FIND_BITMAP, (rs, rowNum) -> rs.getBytes("bitmap"),
+                key.getApp(), key.getUri(), Timestamp.valueOf(key.getBucket()));
+        return bitmaps.isEmpty() ? null : bitmaps.getFirst();
+    }
+
+    public void saveBitmaps(List<Map.Entry<RollupKey, byte[]>> bitmaps) {
+        jdbcTemplate.batchUpdate(MERGE_BITMAP, bitmaps, bitmaps.size(), (ps, bitmap) -> {
+            ps.setString(1, bitmap.getKey().getApp());
+            ps.setString(2, bitmap.getKey().getUri());
+            ps.setTimestamp(3, Timestamp.valueOf(bitmap.getKey().getBucket()));
+            ps.setBytes(4, bitmap.getValue());
+        });
+    }
+
+    public int deleteBitmaps(LocalDateTime from, LocalDateTime to) {
+        return jdbcTemplate.update(DELETE_BITMAPS, Timestamp.valueOf(from), Timestamp.valueOf(to));
+    }
+
+    // one row per bitmap a transaction changes, without a key, so concurrent transactions never wait on each other
+    public void savePending(List<RollupKey> keys) {
+        jdbcTemplate.batchUpdate(INSERT_PENDING, keys, keys.size(), (ps, key) -> {
+            ps.setString(1, key.getApp());
+            ps.setString(2, key.getUri());
+            ps.setTimestamp(3, Timestamp.valueOf(key.getBucket()));
+        });
+    }
+
+    public long findLastPendingId() {
+        Long id = jdbcTemplate.queryForObject(FIND_LAST_PENDING, Long.class);
+        return id == null ? 0 : id;
+    }
+
+    public void forEachPending(long upToId, Consumer<RollupKey> consumer) {
+        jdbcTemplate.query(FIND_PENDING, rs -> {
+            consumer.accept(key(rs));
+        }, upToId);
+    }
+
+    public int deletePending(long upToId) {
+        return jdbcTemplate.update(DELETE_PENDING, upToId);
+    }
+
+    private static RollupKey key(ResultSet rs) throws SQLException {
+        return new RollupKey(rs.getString("app"), rs.getString("uri"), rs.getTimestamp("bucket").toLocalDateTime());
+    }
+
+    public interface IpConsumer {
+        void accept(int id, byte[] ip);
+    }
+
+    public interface BitmapConsumer {
+        void accept(RollupKey key, byte[] bitmap);
+    }
+}
@@ -0,0 +1,114 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.config.ConditionalOnJpaBackend;
+import ru.practicum.enums.Granularity;
+import ru.practicum.model.CompactionState;
+import ru.practicum.model.Stats;
+import ru.practicum.util.IpAddresses;
+import ru.practicum.util.StatsDictionary;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+@Repository
+@ConditionalOnJpaBackend
+@RequiredArgsConstructor
+public class CompactionRepository {
+
+    private static final String FIND_STATE = "SELECT granularity, compacted_from, compacted_before " +
+            "FROM stats_compaction WHERE id = 1";
+
+    private static final String MERGE_STATE = "MERGE INTO stats_compaction AS c " +
+            "USING (VALUES (1, CAST(? AS VARCHAR(8)), CAST(? AS TIMESTAMP), CAST(? AS TIMESTAMP))) " +
+            "AS s (id, granularity, compacted_from, compacted_before) " +
+            "ON c.id = s.id " +
+            "WHEN MATCHED THEN UPDATE SET granularity = s.granularity, compacted_from = s.compacted_from, " +
+            "compacted_before = s.compacted_before " +
+            "WHEN NOT MATCHED THEN INSERT (id, granularity, compacted_from, compacted_before) " +
+            "VALUES (s.id, s.granularity, s.compacted_from, s.compacted_before)";
+
+    private static final String FIND_RAW = "SELECT app_id, uri_id, ip, time_stamp FROM stats " +
+            "WHERE time_stamp >= ? AND time_stamp < ?";
+
+    private static final String DELETE_RAW_CHUNK = "DELETE FROM stats WHERE (id, time_stamp) IN (" +
+            "SELECT id, time_stamp FROM stats WHERE time_stamp >= ? AND time_stamp < ? LIMIT ?)";
+
+    private static final String DELETE_ROLLUP_CHUNK = "DELETE FROM %1$s WHERE (app, uri, bucket) IN (" +
+            "SELECT app, uri, bucket FROM %1$s WHERE bucket >= ? AND bucket < ? LIMIT ?)";
+
+    private static final String DELETE_SKETCH_CHUNK = "DELETE FROM stats_hll " +
+            "WHERE (granularity, app, uri, bucket) IN (SELECT granularity, app, uri, bucket FROM stats_hll " +
+            "WHERE granularity = ? AND bucket >= ? AND bucket < ? LIMIT ?)";
+
+    private static final String DELETE_SUMMARIES = "DELETE FROM stats_top " +
+            "WHERE granularity = ? AND bucket >= ? AND bucket < ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final StatsDictionary statsDictionary;
+
+    public Optional<CompactionState> findState() {
+        List<CompactionState> states = jdbcTemplate.query(FIND_STATE, (rs, rowNum) -> new CompactionState(
+                Granularity.valueOf(rs.getString("granularity")),
+                rs.getTimestamp("compacted_from").toLocalDateTime(),
+                rs.getTimestamp("compacted_before").toLocalDateTime()));
+        return states.stream().findFirst();
+    }
+
+    public void saveState(CompactionState state) {
+        jdbcTemplate.update(MERGE_STATE, state.getGranularity().name(),
+                Timestamp.valueOf(state.getCompactedFrom()), Timestamp.valueOf(state.getCompactedBefore()));
+    }
+
+    // needs a surrounding transaction for the PostgreSQL driver to honour the fetch size instead of buffering
+    public void forEachRawChunk(LocalDateTime from, LocalDateTime to, int chunkSize, Consumer<List<Stats>> consumer) {
+        List<Stats> chunk = new ArrayList<>(chunkSize);
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(FIND_RAW);
+            statement.setFetchSize(chunkSize);
+            statement.setTimestamp(1, Timestamp.valueOf(from));
+            statement.setTimestamp(2, Timestamp.valueOf(to));
+            return statement;
+        }, rs -> {
+            chunk.add(Stats.builder()
+                    .app(statsDictionary.getApp(rs.getInt("app_id")))
+                    .uri(statsDictionary.getUri(rs.getInt("uri_id")))
+                    .ip(IpAddresses.toString(rs.getBytes("ip")))
+                    .timestamp(rs.getTimestamp("time_stamp").toLocalDateTime())
+                    .build());
+            if (chunk.size() == chunkSize) {
+                consumer.accept(new ArrayList<>(chunk));
+                chunk.clear();
+            }
+        });
+        if (!chunk.isEmpty()) {
+            consumer.accept(chunk);
+        }
+    }
+
+    public int deleteRawChunk(LocalDateTime from, LocalDateTime to, int limit) {
+        return jdbcTemplate.update(DELETE_RAW_CHUNK, Timestamp.valueOf(from), Timestamp.valueOf(to), limit);
+    }
+
+    public int deleteRollupChunk(Granularity granularity, LocalDateTime from, LocalDateTime to, int limit) {
+        return jdbcTemplate.update(String.format(DELETE_ROLLUP_CHUNK, granularity.getTable()),
+                Timestamp.valueOf(from), Timestamp.valueOf(to), limit);
+    }
+
+    public int deleteSketchChunk(Granularity granularity, LocalDateTime from, LocalDateTime to, int limit) {
+        return jdbcTemplate.update(DELETE_SKETCH_CHUNK, granularity.name(),
+                Timestamp.valueOf(from), Timestamp.valueOf(to), limit);
+    }
+
+    public int deleteSummaries(Granularity granularity, LocalDateTime from, LocalDateTime to) {
+        return jdbcTemplate.update(DELETE_SUMMARIES, granularity.name(),
+                Timestamp.valueOf(from), Timestamp.valueOf(to));
+    }
+}
@@ -0,0 +1,59 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Repository;
+import ru.practicum.config.ConditionalOnJpaBackend;
+
+import java.sql.PreparedStatement;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+@ConditionalOnJpaBackend
+@RequiredArgsConstructor
+public class DictionaryRepository {
+
+    private static final String FIND_ALL = "SELECT id, %s FROM %s";
+
+    private static final String FIND_ID = "SELECT id FROM %s WHERE %s = ?";
+
+    private static final String FIND_VALUE = "SELECT %s FROM %s WHERE id = ?";
+
+    private static final String INSERT = "INSERT INTO %s (%s) VALUES (?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public void forEach(String table, String column, EntryConsumer consumer) {
+        jdbcTemplate.query(String.format(FIND_ALL, column, table), rs -> {
+            consumer.accept(rs.getInt("id"), rs.getString(column));
+        });
+    }
+
+    public Optional<Integer> findId(String table, String column, String value) {
+        List<Integer> ids = jdbcTemplate.queryForList(String.format(FIND_ID, table, column), Integer.class, value);
+        return ids.stream().findFirst();
+    }
+
+    public Optional<String> findValue(String table, String column, int id) {
+        List<String> values = jdbcTemplate.queryForList(String.format(FIND_VALUE, column, table), String.class, id);
+        return values.stream().findFirst();
+    }
+
+    public int insert(String table, String column, String value) {
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.update(connection -> {
+            PreparedStatement ps = connection.prepareStatement(String.format(INSERT, table, column),
+                    new String[]{"id"});
+            ps.setString(1, value);
+            return ps;
+        }, keyHolder);
+        return keyHolder.getKey().intValue();
+    }
+
+    public interface EntryConsumer {
+        void accept(int id, String value);
+    }
+}
@@ -0,0 +1,50 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.config.ConditionalOnJpaBackend;
+import ru.practicum.enums.Granularity;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+@ConditionalOnJpaBackend
+@RequiredArgsConstructor
+public class HistogramRepository {
+
+    private static final String FIND_RAW_BUCKETS = "SELECT a.name AS app, u.uri AS uri, " +
+            "DATE_TRUNC('%1$s', s.time_stamp) AS bucket, COUNT(*) AS hits, %2$s AS visitors " +
+            "FROM stats AS s " +
+            "JOIN stats_app AS a ON a.id = s.app_id " +
+            "JOIN stats_uri AS u ON u.id = s.uri_id " +
+            "WHERE s.time_stamp >= :from AND s.time_stamp < :to %3$s" +
+            "GROUP BY a.name, u.uri, DATE_TRUNC('%1$s', s.time_stamp)";
+
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    public void forEachRawBucket(Granularity granularity, LocalDateTime from, LocalDateTime to, List<String> uris,
+                                 boolean unique, RawBucketConsumer consumer) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("from", Timestamp.valueOf(from))
+                .addValue("to", Timestamp.valueOf(to));
+        String uriFilter = "";
+        if (uris != null && !uris.isEmpty()) {
+            uriFilter = "AND u.uri IN (:uris) ";
+            params.addValue("uris", uris);
+        }
+        String sql = String.format(FIND_RAW_BUCKETS, granularity.name(),
+                unique ? "COUNT(DISTINCT s.ip)" : "0", uriFilter);
+        namedParameterJdbcTemplate.query(sql, params, rs -> {
+            consumer.accept(rs.getString("app"), rs.getString("uri"), rs.getTimestamp("bucket").toLocalDateTime(),
+                    rs.getLong("hits"), rs.getLong("visitors"));
+        });
+    }
+
+    public interface RawBucketConsumer {
+        void accept(String app, String uri, LocalDateTime bucket, long hits, long visitors);
+    }
+}
@@ -0,0 +1,37 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.config.ConditionalOnJpaBackend;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+
+// Keys of stored batches, written in the same transaction as their rows so a retry after a restart is still skipped
+@Repository
+@ConditionalOnJpaBackend
+@RequiredArgsConstructor
+public class IdempotencyRepository {
+
+    private static final String INSERT_KEY = "INSERT INTO stats_idempotency (batch_key, created) VALUES (?, ?)";
+
+    private static final String DELETE_BEFORE = "DELETE FROM stats_idempotency WHERE created < ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // false when the key is already stored; a concurrent insert of the same key waits for the first to commit
+    public boolean register(String key, LocalDateTime created) {
+        try {
+            jdbcTemplate.update(INSERT_KEY, key, Timestamp.valueOf(created));
+            return true;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    public int deleteBefore(LocalDateTime cutoff) {
+        return jdbcTemplate.update(DELETE_BEFORE, Timestamp.valueOf(cutoff));
+    }
+}
@@ -0,0 +1,57 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.config.ConditionalOnJpaBackend;
+import ru.practicum.model.Stats;
+
+import java.util.List;
+
+@Repository
+@ConditionalOnJpaBackend
+@RequiredArgsConstructor
+public class LegacyStatsRepository {
+
+    private static final String FIND_TABLE = "SELECT COUNT(*) FROM information_schema.tables " +
+            "WHERE LOWER(table_name) = LOWER(?)";
+
+    private static final String FIND_CHUNK = "SELECT id, app, uri, ip, time_stamp FROM %s " +
+            "WHERE id > ? ORDER BY id LIMIT ?";
+
+    private static final String FIND_LAST_ID = "SELECT last_id FROM stats_migration WHERE legacy_table = ?";
+
+    private static final String UPDATE_LAST_ID = "UPDATE stats_migration SET last_id = ? WHERE legacy_table = ?";
+
+    private static final String INSERT_LAST_ID = "INSERT INTO stats_migration (legacy_table, last_id) VALUES (?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public boolean exists(String table) {
+        Integer count = jdbcTemplate.queryForObject(FIND_TABLE, Integer.class, table);
+        return count != null && count > 0;
+    }
+
+    // the last legacy id already migrated, 0 before the first chunk
+    public long findLastId(String table) {
+        List<Long> ids = jdbcTemplate.queryForList(FIND_LAST_ID, Long.class, table.toLowerCase());
+        return ids.isEmpty() ? 0 : ids.getFirst();
+    }
+
+    // called in the transaction that stores the chunk, so the resume point never runs ahead of or behind the rows
+    public void saveLastId(String table, long lastId) {
+        if (jdbcTemplate.update(UPDATE_LAST_ID, lastId, table.toLowerCase()) == 0) {
+            jdbcTemplate.update(INSERT_LAST_ID, table.toLowerCase(), lastId);
+        }
+    }
+
+    public List<Stats> findChunk(String table, long afterId, int limit) {
+        return jdbcTemplate.query(String.format(FIND_CHUNK, table), (rs, rowNum) -> Stats.builder()
+                .id(rs.getLong("id"))
+                .app(rs.getString("app"))
+                .uri(rs.getString("uri"))
+                .ip(rs.getString("ip"))
+                .timestamp(rs.getTimestamp("time_stamp").toLocalDateTime())
+                .build(), afterId, limit);
+    }
+}
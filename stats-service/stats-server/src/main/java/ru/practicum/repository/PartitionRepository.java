@@ -0,0 +1,87 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.config.ConditionalOnJpaBackend;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+@ConditionalOnJpaBackend
+@RequiredArgsConstructor
+public class PartitionRepository {
+
+    private static final String FIND_PARTITIONS = "SELECT c.relname FROM pg_inherits AS i " +
+            "JOIN pg_class AS c ON c.oid = i.inhrelid " +
+            "JOIN pg_class AS p ON p.oid = i.inhparent " +
+            "WHERE p.relname = 'stats'";
+
+    private static final String CREATE_PARTITION = "CREATE TABLE IF NOT EXISTS %s PARTITION OF stats " +
+            "FOR VALUES FROM ('%s') TO ('%s')";
+
+    private static final String DROP_PARTITION = "DROP TABLE IF EXISTS %s";
+
+    private static final String DETACH_PARTITION = "ALTER TABLE stats DETACH PARTITION %s";
+
+    private static final String FIND_EARLIEST_DEFAULT = "SELECT MIN(time_stamp) FROM stats_default";
+
+    private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS %s " +
+            "(LIKE stats INCLUDING DEFAULTS INCLUDING CONSTRAINTS)";
+
+    private static final String MOVE_DEFAULT_ROWS = "WITH moved AS (DELETE FROM stats_default " +
+            "WHERE time_stamp >= ? AND time_stamp < ? RETURNING id, app_id, uri_id, ip, time_stamp) " +
+            "INSERT INTO %s (id, app_id, uri_id, ip, time_stamp) " +
+            "SELECT id, app_id, uri_id, ip, time_stamp FROM moved";
+
+    private static final String DELETE_DEFAULT_ROWS = "DELETE FROM stats_default " +
+            "WHERE time_stamp >= ? AND time_stamp < ?";
+
+    private static final String ATTACH_PARTITION = "ALTER TABLE stats ATTACH PARTITION %s " +
+            "FOR VALUES FROM ('%s') TO ('%s')";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public List<String> findPartitions() {
+        return jdbcTemplate.queryForList(FIND_PARTITIONS, String.class);
+    }
+
+    public void createPartition(String name, LocalDate from, LocalDate to) {
+        jdbcTemplate.execute(String.format(CREATE_PARTITION, name, from, to));
+    }
+
+    public LocalDateTime findEarliestDefault() {
+        Timestamp earliest = jdbcTemplate.queryForObject(FIND_EARLIEST_DEFAULT, Timestamp.class);
+        return earliest == null ? null : earliest.toLocalDateTime();
+    }
+
+    // a standalone table shaped like stats, attached afterwards or kept detached for archiving
+    public void createTable(String name) {
+        jdbcTemplate.execute(String.format(CREATE_TABLE, name));
+    }
+
+    public int moveDefaultRows(String name, LocalDate from, LocalDate to) {
+        return jdbcTemplate.update(String.format(MOVE_DEFAULT_ROWS, name),
+                Timestamp.valueOf(from.atStartOfDay()), Timestamp.valueOf(to.atStartOfDay()));
+    }
+
+    public int deleteDefaultRows(LocalDate from, LocalDate to) {
+        return jdbcTemplate.update(DELETE_DEFAULT_ROWS,
+                Timestamp.valueOf(from.atStartOfDay()), Timestamp.valueOf(to.atStartOfDay()));
+    }
+
+    public void attachPartition(String name, LocalDate from, LocalDate to) {
+        jdbcTemplate.execute(String.format(ATTACH_PARTITION, name, from, to));
+    }
+
+    public void dropPartition(String name) {
+        jdbcTemplate.execute(String.format(DROP_PARTITION, name));
+    }
+
+    public void detachPartition(String name) {
+        jdbcTemplate.execute(String.format(DETACH_PARTITION, name));
+    }
+}
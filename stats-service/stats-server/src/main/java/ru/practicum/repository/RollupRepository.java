@@ -0,0 +1,86 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.ViewStats;
+import ru.practicum.config.ConditionalOnJpaBackend;
+import ru.practicum.enums.Granularity;
+import ru.practicum.model.RollupKey;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+@Repository
+@ConditionalOnJpaBackend
+@RequiredArgsConstructor
+public class RollupRepository {
+
+    private static final String MERGE_HITS = "MERGE INTO %s AS r " +
+            "USING (VALUES (CAST(? AS VARCHAR(64)), CAST(? AS VARCHAR(256)), CAST(? AS TIMESTAMP), CAST(? AS BIGINT))) " +
+            "AS h (app, uri, bucket, hits) " +
+            "ON r.app = h.app AND r.uri = h.uri AND r.bucket = h.bucket " +
+            "WHEN MATCHED THEN UPDATE SET hits = r.hits + h.hits " +
+            "WHEN NOT MATCHED THEN INSERT (app, uri, bucket, hits) VALUES (h.app, h.uri, h.bucket, h.hits)";
+
+    private static final String SUM_HITS = "SELECT r.app, r.uri, SUM(r.hits) AS hits " +
+            "FROM %s AS r " +
+            "WHERE r.bucket >= :from AND r.bucket < :to %s" +
+            "GROUP BY r.app, r.uri";
+
+    private static final String FIND_BUCKETS = "SELECT r.app, r.uri, r.bucket, r.hits " +
+            "FROM %s AS r " +
+            "WHERE r.bucket >= :from AND r.bucket < :to %s";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    public void addHits(Granularity granularity, Map<RollupKey, Long> hits) {
+        List<Map.Entry<RollupKey, Long>> rows = new ArrayList<>(hits.entrySet());
+        jdbcTemplate.batchUpdate(String.format(MERGE_HITS, granularity.getTable()), rows, rows.size(), (ps, row) -> {
+            ps.setString(1, row.getKey().getApp());
+            ps.setString(2, row.getKey().getUri());
+            ps.setTimestamp(3, Timestamp.valueOf(row.getKey().getBucket()));
+            ps.setLong(4, row.getValue());
+        });
+    }
+
+    public List<ViewStats> sumHits(Granularity granularity, LocalDateTime from, LocalDateTime to, List<String> uris) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("from", Timestamp.valueOf(from))
+                .addValue("to", Timestamp.valueOf(to));
+        String uriFilter = "";
+        if (uris != null && !uris.isEmpty()) {
+            uriFilter = "AND r.uri IN (:uris) ";
+            params.addValue("uris", uris);
+        }
+        return namedParameterJdbcTemplate.query(String.format(SUM_HITS, granularity.getTable(), uriFilter), params,
+                (rs, rowNum) -> new ViewStats(rs.getString("app"), rs.getString("uri"), rs.getLong("hits")));
+    }
+
+    public void forEachBucket(Granularity granularity, LocalDateTime from, LocalDateTime to, List<String> uris,
+                              BucketConsumer consumer) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("from", Timestamp.valueOf(from))
+                .addValue("to", Timestamp.valueOf(to));
+        String uriFilter = "";
+        if (uris != null && !uris.isEmpty()) {
+            uriFilter = "AND r.uri IN (:uris)";
+            params.addValue("uris", uris);
+        }
+        namedParameterJdbcTemplate.query(String.format(FIND_BUCKETS, granularity.getTable(), uriFilter), params,
+                rs -> {
+                    consumer.accept(rs.getString("app"), rs.getString("uri"),
+                            rs.getTimestamp("bucket").toLocalDateTime(), rs.getLong("hits"));
+                });
+    }
+
+    public interface BucketConsumer {
+        void accept(String app, String uri, LocalDateTime bucket, long hits);
+    }
+}
@@ -0,0 +1,97 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.config.ConditionalOnJpaBackend;
+import ru.practicum.enums.Granularity;
+import ru.practicum.model.RollupKey;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+@ConditionalOnJpaBackend
+@RequiredArgsConstructor
+public class SketchRepository {
+
+    private static final String FIND_SKETCH = "SELECT sketch FROM stats_hll " +
+            "WHERE granularity = ? AND app = ? AND uri = ? AND bucket = ?";
+
+    private static final String MERGE_SKETCH = "MERGE INTO stats_hll AS s " +
+            "USING (VALUES (CAST(? AS VARCHAR(8)), CAST(? AS VARCHAR(64)), CAST(? AS VARCHAR(256)), " +
+            "CAST(? AS TIMESTAMP), CAST(? AS BYTEA))) " +
+            "AS h (granularity, app, uri, bucket, sketch) " +
+            "ON s.granularity = h.granularity AND s.app = h.app AND s.uri = h.uri AND s.bucket = h.bucket " +
+            "WHEN MATCHED THEN UPDATE SET sketch = h.sketch " +
+            "WHEN NOT MATCHED THEN INSERT (granularity, app, uri, bucket, sketch) " +
+            "VALUES (h.granularity, h.app, h.uri, h.bucket, h.sketch)";
+
+    private static final String FIND_SKETCHES = "SELECT s.app, s.uri, s.sketch FROM stats_hll AS s " +
+            "WHERE s.granularity = :granularity AND s.bucket >= :from AND s.bucket < :to %s";
+
+    private static final String FIND_BUCKET_SKETCHES = "SELECT s.app, s.uri, s.bucket, s.sketch FROM stats_hll AS s " +
+            "WHERE s.granularity = :granularity AND s.bucket >= :from AND s.bucket < :to %s";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    public Optional<byte[]> findSketch(Granularity granularity, RollupKey key) {
+        List<byte[]> sketches = jdbcTemplate.query(FIND_SKETCH, (rs, rowNum) -> rs.getBytes("sketch"),
+                granularity.name(), key.getApp(), key.getUri(), Timestamp.valueOf(key.getBucket()));
+        return sketches.stream().findFirst();
+    }
+
+    public void saveSketch(Granularity granularity, RollupKey key, byte[] sketch) {
+        jdbcTemplate.update(MERGE_SKETCH, granularity.name(), key.getApp(), key.getUri(),
+                Timestamp.valueOf(key.getBucket()), sketch);
+    }
+
+    public void forEachSketch(Granularity granularity, LocalDateTime from, LocalDateTime to,
+                              Collection<String> uris, SketchConsumer consumer) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("granularity", granularity.name())
+                .addValue("from", Timestamp.valueOf(from))
+                .addValue("to", Timestamp.valueOf(to));
+        String uriFilter = "";
+        if (uris != null && !uris.isEmpty()) {
+            uriFilter = "AND s.uri IN (:uris)";
+            params.addValue("uris", uris);
+        }
+        namedParameterJdbcTemplate.query(String.format(FIND_SKETCHES, uriFilter), params,
+                rs -> {
+                    consumer.accept(rs.getString("app"), rs.getString("uri"), rs.getBytes("sketch"));
+                });
+    }
+
+    public void forEachBucketSketch(Granularity granularity, LocalDateTime from, LocalDateTime to,
+                                    Collection<String> uris, BucketSketchConsumer consumer) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("granularity", granularity.name())
+                .addValue("from", Timestamp.valueOf(from))
+                .addValue("to", Timestamp.valueOf(to));
+        String uriFilter = "";
+        if (uris != null && !uris.isEmpty()) {
+            uriFilter = "AND s.uri IN (:uris)";
+            params.addValue("uris", uris);
+        }
+        namedParameterJdbcTemplate.query(String.format(FIND_BUCKET_SKETCHES, uriFilter), params,
+                rs -> {
+                    consumer.accept(new RollupKey(rs.getString("app"), rs.getString("uri"),
+                            rs.getTimestamp("bucket").toLocalDateTime()), rs.getBytes("sketch"));
+                });
+    }
+
+    public interface BucketSketchConsumer {
+        void accept(RollupKey key, byte[] sketch);
+    }
+
+    public interface SketchConsumer {
+        void accept(String app, String uri, byte[] sketch);
+    }
+}
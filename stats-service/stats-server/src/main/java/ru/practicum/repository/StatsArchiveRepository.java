@@ -0,0 +1,80 @@
+package ru.practicum.repository;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.config.ConditionalOnJpaBackend;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+// Raw rows in time order through a forward-only cursor, with the dictionary ids as they are stored; like
+// StatsStreamRepository it runs in its own read-only transaction so the PostgreSQL driver honours the fetch size
+@Repository
+@ConditionalOnJpaBackend
+public class StatsArchiveRepository {
+
+    private static final String FIND_RAW = "SELECT app_id, uri_id, ip, time_stamp FROM stats %s" +
+            "ORDER BY time_stamp";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnly;
+    private final int fetchSize;
+
+    public StatsArchiveRepository(JdbcTemplate jdbcTemplate,
+                                  PlatformTransactionManager transactionManager,
+                                  @Value("${stats.archive.fetch-size:10000}") int fetchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.readOnly = new TransactionTemplate(transactionManager);
+        this.readOnly.setReadOnly(true);
+        this.fetchSize = fetchSize;
+    }
+
+    // either bound may be null for an open range, and to is exclusive
+    public void forEachRaw(LocalDateTime from, LocalDateTime to, RawRowConsumer consumer) throws IOException {
+        List<String> conditions = new ArrayList<>(2);
+        List<Timestamp> bounds = new ArrayList<>(2);
+        if (from != null) {
+            conditions.add("time_stamp >= ?");
+            bounds.add(Timestamp.valueOf(from));
+        }
+        if (to != null) {
+            conditions.add("time_stamp < ?");
+            bounds.add(Timestamp.valueOf(to));
+        }
+        String sql = String.format(FIND_RAW,
+                conditions.isEmpty() ? "" : "WHERE " + String.join(" AND ", conditions) + " ");
+        try {
+            readOnly.executeWithoutResult(status -> jdbcTemplate.query(connection -> {
+                PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+                        ResultSet.CONCUR_READ_ONLY);
+                statement.setFetchSize(fetchSize);
+                for (int i = 0; i < bounds.size(); i++) {
+                    statement.setTimestamp(i + 1, bounds.get(i));
+                }
+                return statement;
+            }, rs -> {
+                try {
+                    consumer.accept(rs.getInt("app_id"), rs.getInt("uri_id"), rs.getBytes("ip"),
+                            rs.getTimestamp("time_stamp").toLocalDateTime());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    public interface RawRowConsumer {
+        void accept(int app, int uri, byte[] ip, LocalDateTime timestamp) throws IOException;
+    }
+}
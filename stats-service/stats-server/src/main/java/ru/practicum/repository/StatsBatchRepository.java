@@ -0,0 +1,59 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.config.ConditionalOnJpaBackend;
+import ru.practicum.model.Stats;
+import ru.practicum.util.IpAddresses;
+import ru.practicum.util.StatsDictionary;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+
+@Repository
+@ConditionalOnJpaBackend
+@RequiredArgsConstructor
+public class StatsBatchRepository {
+
+    private static final String INSERT_STATS = "INSERT INTO stats (app_id, uri_id, ip, time_stamp) VALUES (?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final StatsDictionary statsDictionary;
+
+    // call outside any transaction: a dictionary miss commits in its own REQUIRES_NEW transaction, which from
+    // inside the batch transaction would hold a second pooled connection and can exhaust the pool under load
+    public Rows resolve(List<Stats> stats) {
+        int[] appIds = new int[stats.size()];
+        int[] uriIds = new int[stats.size()];
+        for (int i = 0; i < stats.size(); i++) {
+            appIds[i] = statsDictionary.internApp(stats.get(i).getApp());
+            uriIds[i] = statsDictionary.internUri(stats.get(i).getUri());
+        }
+        return new Rows(stats, appIds, uriIds);
+    }
+
+    public void saveAll(Rows rows) {
+        jdbcTemplate.batchUpdate(INSERT_STATS, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                Stats hit = rows.stats().get(i);
+                ps.setInt(1, rows.appIds()[i]);
+                ps.setInt(2, rows.uriIds()[i]);
+                ps.setBytes(3, IpAddresses.toBytes(hit.getIp()));
+                ps.setTimestamp(4, Timestamp.valueOf(hit.getTimestamp()));
+            }
+
+            @Override
+            public int getBatchSize() {
+                return rows.stats().size();
+            }
+        });
+    }
+
+    public record Rows(List<Stats> stats, int[] appIds, int[] uriIds) {
+    }
+}
@@ -5,6 +5,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 import ru.practicum.ViewStats;
 import ru.practicum.model.Stats;
+import ru.practicum.model.VisitorKey;
 
 
 import java.time.LocalDateTime;
@@ -43,4 +44,30 @@ public interface StatsRepository extends JpaRepository<Stats, Long> {
             "ORDER BY COUNT(st.ip) DESC")
     List<ViewStats> getAllStats(LocalDateTime start, LocalDateTime end);
 
+    @Query("SELECT new ru.practicum.ViewStats(st.app, st.uri, COUNT(st.ip)) " +
+            "FROM Stats AS st " +
+            "WHERE st.timestamp >= :from AND st.timestamp < :to " +
+            "AND st.uri IN :uris " +
+            "GROUP BY st.app, st.uri")
+    List<ViewStats> getStatsInRangeByUris(LocalDateTime from, LocalDateTime to, List<String> uris);
+
+    @Query("SELECT new ru.practicum.ViewStats(st.app, st.uri, COUNT(st.ip)) " +
+            "FROM Stats AS st " +
+            "WHERE st.timestamp >= :from AND st.timestamp < :to " +
+            "GROUP BY st.app, st.uri")
+    List<ViewStats> getStatsInRange(LocalDateTime from, LocalDateTime to);
+
+    @Query("SELECT DISTINCT new ru.practicum.model.VisitorKey(st.app, st.uri, st.ip) " +
+            "FROM Stats AS st " +
+            "WHERE st.timestamp >= :from AND st.timestamp < :to " +
+            "AND st.uri IN :uris")
+    List<VisitorKey> getVisitorsInRangeByUris(LocalDateTime from, LocalDateTime to, List<String> uris);
+
+    @Query("SELECT DISTINCT new ru.practicum.model.VisitorKey(st.app, st.uri, st.ip) " +
+            "FROM Stats AS st " +
+            "WHERE st.timestamp >= :from AND st.timestamp < :to")
+    List<VisitorKey> getVisitorsInRange(LocalDateTime from, LocalDateTime to);
+
+    @Query("SELECT MIN(st.timestamp) FROM Stats AS st")
+    LocalDateTime getEarliestTimestamp();
 }
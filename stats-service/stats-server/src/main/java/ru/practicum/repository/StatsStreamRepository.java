@@ -0,0 +1,97 @@
+package ru.practicum.repository;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.ViewStats;
+import ru.practicum.config.ConditionalOnJpaBackend;
+import ru.practicum.model.TimeSegment;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Stats over the whole dictionary read through a forward-only cursor, so rows reach the consumer while the
+// database is still sending them; the cursor runs in its own read-only transaction because the PostgreSQL
+// driver ignores the fetch size and buffers the whole result in autocommit mode
+@Repository
+@ConditionalOnJpaBackend
+public class StatsStreamRepository {
+
+    private static final String RAW_HITS = "SELECT a.name AS app, u.uri AS uri, COUNT(*) AS hits " +
+            "FROM stats AS s " +
+            "JOIN stats_app AS a ON a.id = s.app_id " +
+            "JOIN stats_uri AS u ON u.id = s.uri_id " +
+            "WHERE s.time_stamp >= ? AND s.time_stamp < ? " +
+            "GROUP BY a.name, u.uri";
+
+    private static final String ROLLUP_HITS = "SELECT r.app AS app, r.uri AS uri, SUM(r.hits) AS hits " +
+            "FROM %s AS r " +
+            "WHERE r.bucket >= ? AND r.bucket < ? " +
+            "GROUP BY r.app, r.uri";
+
+    private static final String SUM_HITS = "SELECT p.app, p.uri, SUM(p.hits) AS hits " +
+            "FROM (%s) AS p " +
+            "GROUP BY p.app, p.uri " +
+            "ORDER BY hits DESC";
+
+    private static final String UNIQUE_HITS = "SELECT a.name AS app, u.uri AS uri, COUNT(DISTINCT s.ip) AS hits " +
+            "FROM stats AS s " +
+            "JOIN stats_app AS a ON a.id = s.app_id " +
+            "JOIN stats_uri AS u ON u.id = s.uri_id " +
+            "WHERE s.time_stamp >= ? AND s.time_stamp < ? " +
+            "GROUP BY a.name, u.uri " +
+            "ORDER BY hits DESC";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnly;
+    private final int fetchSize;
+
+    public StatsStreamRepository(JdbcTemplate jdbcTemplate,
+                                 PlatformTransactionManager transactionManager,
+                                 @Value("${stats.stream.fetch-size:1000}") int fetchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.readOnly = new TransactionTemplate(transactionManager);
+        this.readOnly.setReadOnly(true);
+        this.fetchSize = fetchSize;
+    }
+
+    // every segment becomes one branch of a single query, so the totals are summed and sorted by the database
+    public void forEachHits(List<TimeSegment> segments, Consumer<ViewStats> consumer) {
+        if (segments.isEmpty()) {
+            return;
+        }
+        List<String> parts = new ArrayList<>(segments.size());
+        List<LocalDateTime> bounds = new ArrayList<>(segments.size() * 2);
+        for (TimeSegment segment : segments) {
+            parts.add(segment.isRaw() ? RAW_HITS : String.format(ROLLUP_HITS, segment.getGranularity().getTable()));
+            bounds.add(segment.getFrom());
+            bounds.add(segment.getTo());
+        }
+        query(String.format(SUM_HITS, String.join(" UNION ALL ", parts)), bounds, consumer);
+    }
+
+    public void forEachUniqueHits(LocalDateTime from, LocalDateTime to, Consumer<ViewStats> consumer) {
+        query(UNIQUE_HITS, List.of(from, to), consumer);
+    }
+
+    private void query(String sql, List<LocalDateTime> bounds, Consumer<ViewStats> consumer) {
+        readOnly.executeWithoutResult(status -> jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(fetchSize);
+            for (int i = 0; i < bounds.size(); i++) {
+                statement.setTimestamp(i + 1, Timestamp.valueOf(bounds.get(i)));
+            }
+            return statement;
+        }, rs -> {
+            consumer.accept(new ViewStats(rs.getString("app"), rs.getString("uri"), rs.getLong("hits")));
+        }));
+    }
+}
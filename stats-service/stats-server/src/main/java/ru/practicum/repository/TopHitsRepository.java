@@ -0,0 +1,54 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.config.ConditionalOnJpaBackend;
+import ru.practicum.enums.Granularity;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+@ConditionalOnJpaBackend
+@RequiredArgsConstructor
+public class TopHitsRepository {
+
+    private static final String FIND_SUMMARY = "SELECT summary FROM stats_top WHERE granularity = ? AND bucket = ?";
+
+    private static final String MERGE_SUMMARY = "MERGE INTO stats_top AS s " +
+            "USING (VALUES (CAST(? AS VARCHAR(8)), CAST(? AS TIMESTAMP), CAST(? AS BYTEA))) " +
+            "AS t (granularity, bucket, summary) " +
+            "ON s.granularity = t.granularity AND s.bucket = t.bucket " +
+            "WHEN MATCHED THEN UPDATE SET summary = t.summary " +
+            "WHEN NOT MATCHED THEN INSERT (granularity, bucket, summary) " +
+            "VALUES (t.granularity, t.bucket, t.summary)";
+
+    private static final String FIND_SUMMARIES = "SELECT summary FROM stats_top " +
+            "WHERE granularity = ? AND bucket >= ? AND bucket < ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public Optional<byte[]> findSummary(Granularity granularity, LocalDateTime bucket) {
+        List<byte[]> summaries = jdbcTemplate.query(FIND_SUMMARY, (rs, rowNum) -> rs.getBytes("summary"),
+                granularity.name(), Timestamp.valueOf(bucket));
+        return summaries.stream().findFirst();
+    }
+
+    public void saveSummary(Granularity granularity, LocalDateTime bucket, byte[] summary) {
+        jdbcTemplate.update(MERGE_SUMMARY, granularity.name(), Timestamp.valueOf(bucket), summary);
+    }
+
+    public void forEachSummary(Granularity granularity, LocalDateTime from, LocalDateTime to,
+                               SummaryConsumer consumer) {
+        jdbcTemplate.query(FIND_SUMMARIES, rs -> {
+            consumer.accept(rs.getBytes("summary"));
+        }, granularity.name(), Timestamp.valueOf(from), Timestamp.valueOf(to));
+    }
+
+    public interface SummaryConsumer {
+        void accept(byte[] summary);
+    }
+}
@@ -0,0 +1,165 @@
+package ru.practicum.segment;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.zip.CRC32;
+
+@Slf4j
+@Getter
+public class Segment implements AutoCloseable {
+
+    public static final int RECORD_SIZE = 36;
+
+    private static final int PAYLOAD_SIZE = 32;
+
+    private final long id;
+    private final Path path;
+    private final int capacity;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final BitSet uriIds = new BitSet();
+    private volatile int count;
+    private long minTimestamp = Long.MAX_VALUE;
+    private long maxTimestamp = Long.MIN_VALUE;
+    private int corrupted;
+
+    private Segment(long id, Path path, int capacity, FileChannel channel, MappedByteBuffer buffer) {
+        this.id = id;
+        this.path = path;
+        this.capacity = capacity;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    public static Segment create(long id, Path path, int capacity) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) capacity * RECORD_SIZE);
+        return new Segment(id, path, capacity, channel, buffer);
+    }
+
+    public static Segment open(long id, Path path, SegmentDictionary dictionary) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        int capacity = (int) (channel.size() / RECORD_SIZE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) capacity * RECORD_SIZE);
+        Segment segment = new Segment(id, path, capacity, channel, buffer);
+        segment.recover(dictionary);
+        return segment;
+    }
+
+    public boolean isFull() {
+        return count == capacity;
+    }
+
+    public boolean overlaps(long from, long to) {
+        return count > 0 && minTimestamp <= to && maxTimestamp >= from;
+    }
+
+    public void append(long timestamp, int appId, int uriId, byte[] ip) {
+        int offset = count * RECORD_SIZE;
+        buffer.putLong(offset, timestamp);
+        buffer.putInt(offset + 8, appId);
+        buffer.putInt(offset + 12, uriId);
+        buffer.put(offset + 16, ip, 0, 16);
+        buffer.putInt(offset + PAYLOAD_SIZE, checksum(buffer, offset));
+        minTimestamp = Math.min(minTimestamp, timestamp);
+        maxTimestamp = Math.max(maxTimestamp, timestamp);
+        uriIds.set(uriId);
+        count++;
+    }
+
+    public void scan(int limit, long from, long to, BitSet uris, RecordConsumer consumer) {
+        ByteBuffer view = buffer.duplicate();
+        for (int i = 0; i < limit; i++) {
+            int offset = i * RECORD_SIZE;
+            long timestamp = view.getLong(offset);
+            if (timestamp < from || timestamp > to) {
+                continue;
+            }
+            int uriId = view.getInt(offset + 12);
+            if (uris != null && !uris.get(uriId)) {
+                continue;
+            }
+            if (view.getInt(offset + PAYLOAD_SIZE) != checksum(view, offset)) {
+                continue;
+            }
+            consumer.accept(timestamp, view.getInt(offset + 8), uriId, view.getLong(offset + 16), view.getLong(offset + 24));
+        }
+    }
+
+    public void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    private void recover(SegmentDictionary dictionary) {
+        int end = 0;
+        while (end < capacity && !isEmpty(end)) {
+            end++;
+        }
+        for (int i = 0; i < end; i++) {
+            int offset = i * RECORD_SIZE;
+            int appId = buffer.getInt(offset + 8);
+            int uriId = buffer.getInt(offset + 12);
+            if (buffer.getInt(offset + PAYLOAD_SIZE) != checksum(buffer, offset)
+                    || !dictionary.containsApp(appId) || !dictionary.containsUri(uriId)) {
+                corrupted++;
+                continue;
+            }
+            long timestamp = buffer.getLong(offset);
+            minTimestamp = Math.min(minTimestamp, timestamp);
+            maxTimestamp = Math.max(maxTimestamp, timestamp);
+            uriIds.set(uriId);
+        }
+        if (end > 0 && end < capacity && corrupted > 0 && !isValid(end - 1, dictionary)) {
+            log.warn("Truncating torn record {} at the tail of segment {}", end - 1, path);
+            buffer.put((end - 1) * RECORD_SIZE, new byte[RECORD_SIZE]);
+            corrupted--;
+            end--;
+        }
+        if (corrupted > 0) {
+            log.warn("Segment {} contains {} corrupted records, they will be skipped", path, corrupted);
+        }
+        count = end;
+    }
+
+    private boolean isEmpty(int index) {
+        int offset = index * RECORD_SIZE;
+        for (int i = 0; i < RECORD_SIZE; i += 4) {
+            if (buffer.getInt(offset + i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isValid(int index, SegmentDictionary dictionary) {
+        int offset = index * RECORD_SIZE;
+        return buffer.getInt(offset + PAYLOAD_SIZE) == checksum(buffer, offset)
+                && dictionary.containsApp(buffer.getInt(offset + 8))
+                && dictionary.containsUri(buffer.getInt(offset + 12));
+    }
+
+    private static int checksum(ByteBuffer buffer, int offset) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(offset, PAYLOAD_SIZE));
+        return (int) crc.getValue();
+    }
+
+    public interface RecordConsumer {
+        void accept(long timestamp, int appId, int uriId, long ipHigh, long ipLow);
+    }
+}
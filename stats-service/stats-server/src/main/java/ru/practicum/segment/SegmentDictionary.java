@@ -0,0 +1,187 @@
+package ru.practicum.segment;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+@Slf4j
+public class SegmentDictionary implements AutoCloseable {
+
+    private static final byte APP = 1;
+    private static final byte URI = 2;
+    private static final int HEADER_SIZE = 7;
+    private static final int CHECKSUM_SIZE = 4;
+    private static final int MAX_LENGTH = 0xFFFF;
+
+    private final FileChannel channel;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, Integer> appIds = new ConcurrentHashMap<>();
+    private final Map<String, Integer> uriIds = new ConcurrentHashMap<>();
+    private final List<String> apps = new ArrayList<>();
+    private final List<String> uris = new ArrayList<>();
+    private final NavigableSet<String> sortedUris = new ConcurrentSkipListSet<>();
+
+    public SegmentDictionary(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        apps.add(null);
+        uris.add(null);
+        recover();
+    }
+
+    public int internApp(String app) {
+        Integer id = appIds.get(app);
+        return id != null ? id : append(APP, app);
+    }
+
+    public int internUri(String uri) {
+        Integer id = uriIds.get(uri);
+        return id != null ? id : append(URI, uri);
+    }
+
+    public int findUri(String uri) {
+        return uriIds.getOrDefault(uri, 0);
+    }
+
+    public List<String> findUrisByPrefix(String prefix) {
+        return List.copyOf(sortedUris.subSet(prefix, true, prefix + Character.MAX_VALUE, false));
+    }
+
+    public boolean containsApp(int id) {
+        return id > 0 && id < apps.size();
+    }
+
+    public boolean containsUri(int id) {
+        return id > 0 && id < uris.size();
+    }
+
+    public String getApp(int id) {
+        lock.lock();
+        try {
+            return apps.get(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String getUri(int id) {
+        lock.lock();
+        try {
+            return uris.get(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void force() {
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.force(true);
+        channel.close();
+    }
+
+    private int append(byte kind, String value) {
+        lock.lock();
+        try {
+            Map<String, Integer> ids = kind == APP ? appIds : uriIds;
+            List<String> values = kind == APP ? apps : uris;
+            Integer existing = ids.get(value);
+            if (existing != null) {
+                return existing;
+            }
+            int id = values.size();
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > MAX_LENGTH) {
+                throw new IllegalArgumentException("Dictionary value is too long: " + bytes.length + " bytes");
+            }
+            ByteBuffer entry = ByteBuffer.allocate(HEADER_SIZE + bytes.length + CHECKSUM_SIZE);
+            entry.put(kind).putInt(id).putShort((short) bytes.length).put(bytes);
+            entry.putInt(checksum(entry.array(), entry.position()));
+            entry.flip();
+            while (entry.hasRemaining()) {
+                channel.write(entry, channel.size());
+            }
+            values.add(value);
+            ids.put(value, id);
+            if (kind == URI) {
+                sortedUris.add(value);
+            }
+            return id;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void recover() throws IOException {
+        long size = channel.size();
+        ByteBuffer content = ByteBuffer.allocate((int) size);
+        while (content.hasRemaining()) {
+            if (channel.read(content, content.position()) < 0) {
+                break;
+            }
+        }
+        content.flip();
+        int valid = 0;
+        while (content.remaining() >= HEADER_SIZE) {
+            int start = content.position();
+            byte kind = content.get();
+            int id = content.getInt();
+            int length = Short.toUnsignedInt(content.getShort());
+            if (content.remaining() < length + CHECKSUM_SIZE) {
+                break;
+            }
+            byte[] bytes = new byte[length];
+            content.get(bytes);
+            int crc = content.getInt();
+            List<String> values = kind == APP ? apps : uris;
+            if (crc != checksum(content.array(), start, HEADER_SIZE + length) || (kind != APP && kind != URI)
+                    || id != values.size()) {
+                break;
+            }
+            String value = new String(bytes, StandardCharsets.UTF_8);
+            values.add(value);
+            (kind == APP ? appIds : uriIds).put(value, id);
+            if (kind == URI) {
+                sortedUris.add(value);
+            }
+            valid = content.position();
+        }
+        if (valid < size) {
+            log.warn("Truncating segment dictionary from {} to {} bytes after an incomplete write", size, valid);
+            channel.truncate(valid);
+        }
+    }
+
+    private static int checksum(byte[] bytes, int length) {
+        return checksum(bytes, 0, length);
+    }
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,188 @@
+package ru.practicum.segment;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.practicum.sketch.Hashing;
+import ru.practicum.util.IpAddresses;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+@Slf4j
+public class SegmentStore implements AutoCloseable {
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d{12})\\.dat");
+    private static final LocalDateTime EPOCH = LocalDateTime.of(1970, 1, 1, 0, 0);
+    // high half of a non-IP value, whose low half is the hash of its text
+    private static final long HASHED = 0xFEFEFEFEFEFEFEFEL;
+
+    private final Path directory;
+    private final int recordsPerSegment;
+    private final SegmentDictionary dictionary;
+    private final List<Segment> segments = new ArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private Segment active;
+
+    public SegmentStore(Path directory, int recordsPerSegment) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.recordsPerSegment = recordsPerSegment;
+        this.dictionary = new SegmentDictionary(directory.resolve("dictionary.dat"));
+        recover();
+    }
+
+    public SegmentDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public void append(String app, String uri, String ip, LocalDateTime timestamp) {
+        int appId = dictionary.internApp(app);
+        int uriId = dictionary.internUri(uri);
+        byte[] address = toFixedWidth(ip);
+        long micros = toMicros(timestamp);
+        lock.lock();
+        try {
+            if (active == null || active.isFull()) {
+                roll();
+            }
+            active.append(micros, appId, uriId, address);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void scan(LocalDateTime start, LocalDateTime end, BitSet uriIds, Segment.RecordConsumer consumer) {
+        long from = toMicros(start);
+        long to = toMicros(end);
+        for (SegmentView view : snapshot()) {
+            if (view.count() == 0 || view.minTimestamp() > to || view.maxTimestamp() < from
+                    || (uriIds != null && !view.uriIds().intersects(uriIds))) {
+                continue;
+            }
+            view.segment().scan(view.count(), from, to, uriIds, consumer);
+        }
+    }
+
+    public void force() {
+        dictionary.force();
+        lock.lock();
+        try {
+            if (active != null) {
+                active.force();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            dictionary.close();
+            for (Segment segment : segments) {
+                segment.close();
+            }
+            segments.clear();
+            active = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<SegmentView> snapshot() {
+        lock.lock();
+        try {
+            List<SegmentView> views = new ArrayList<>(segments.size());
+            for (Segment segment : segments) {
+                BitSet uriIds = segment == active ? (BitSet) segment.getUriIds().clone() : segment.getUriIds();
+                views.add(new SegmentView(segment, segment.getCount(), segment.getMinTimestamp(),
+                        segment.getMaxTimestamp(), uriIds));
+            }
+            return views;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void roll() {
+        try {
+            if (active != null) {
+                active.force();
+            }
+            long id = active == null ? 1 : active.getId() + 1;
+            Path path = directory.resolve(String.format("segment-%012d.dat", id));
+            active = Segment.create(id, path, recordsPerSegment);
+            segments.add(active);
+            log.info("Started stats segment {}", path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Path> paths;
+        try (Stream<Path> files = Files.list(directory)) {
+            paths = files.filter(path -> SEGMENT_NAME.matcher(path.getFileName().toString()).matches())
+                    .sorted(Comparator.comparing(path -> path.getFileName().toString()))
+                    .toList();
+        }
+        long records = 0;
+        for (Path path : paths) {
+            Matcher matcher = SEGMENT_NAME.matcher(path.getFileName().toString());
+            matcher.matches();
+            Segment segment = Segment.open(Long.parseLong(matcher.group(1)), path, dictionary);
+            segments.add(segment);
+            records += segment.getCount();
+        }
+        if (!segments.isEmpty()) {
+            active = segments.getLast();
+        }
+        log.info("Recovered {} stats segments with {} records from {}", segments.size(), records, directory);
+    }
+
+    public static long toMicros(LocalDateTime timestamp) {
+        return ChronoUnit.MICROS.between(EPOCH, timestamp);
+    }
+
+    public static LocalDateTime toTimestamp(long micros) {
+        return EPOCH.plus(micros, ChronoUnit.MICROS);
+    }
+
+    // the address as IpAddresses prints it, or null for a value the segments only keep as a hash
+    public static String toIp(long high, long low) {
+        if (high == HASHED) {
+            return null;
+        }
+        return IpAddresses.toString(ByteBuffer.allocate(16).putLong(high).putLong(low).array());
+    }
+
+    private static byte[] toFixedWidth(String ip) {
+        byte[] address = IpAddresses.toBytes(ip);
+        if (address.length == 16) {
+            return address;
+        }
+        byte[] fixed = new byte[16];
+        if (address.length == 4) {
+            fixed[10] = (byte) 0xFF;
+            fixed[11] = (byte) 0xFF;
+            System.arraycopy(address, 0, fixed, 12, 4);
+            return fixed;
+        }
+        return ByteBuffer.allocate(16).putLong(HASHED).putLong(Hashing.murmur64(address)).array();
+    }
+
+    private record SegmentView(Segment segment, int count, long minTimestamp, long maxTimestamp, BitSet uriIds) {
+    }
+}
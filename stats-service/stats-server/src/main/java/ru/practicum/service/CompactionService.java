@@ -0,0 +1,6 @@
+package ru.practicum.service;
+
+public interface CompactionService {
+
+    long compact();
+}
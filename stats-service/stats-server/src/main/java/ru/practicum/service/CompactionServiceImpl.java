@@ -0,0 +1,195 @@
+package ru.practicum.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.config.ConditionalOnJpaBackend;
+import ru.practicum.enums.Granularity;
+import ru.practicum.model.CompactionState;
+import ru.practicum.model.RollupKey;
+import ru.practicum.repository.CompactionRepository;
+import ru.practicum.repository.HistogramRepository;
+import ru.practicum.repository.RollupRepository;
+import ru.practicum.repository.StatsRepository;
+import ru.practicum.util.CompactionWatermark;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+
+@Slf4j
+@Service
+@ConditionalOnJpaBackend
+public class CompactionServiceImpl implements CompactionService {
+
+    private final CompactionRepository compactionRepository;
+    private final StatsRepository statsRepository;
+    private final RollupRepository rollupRepository;
+    private final HistogramRepository histogramRepository;
+    private final RollupService rollupService;
+    private final UniqueSketchService uniqueSketchService;
+    private final VisitorBitmapService visitorBitmapService;
+    private final StatsCacheService statsCacheService;
+    private final CompactionWatermark compactionWatermark;
+    private final TransactionTemplate readOnly;
+    private final TransactionTemplate repeatableRead;
+    private final boolean enabled;
+    private final Granularity granularity;
+    private final int ageDays;
+    private final int chunkSize;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public CompactionServiceImpl(CompactionRepository compactionRepository,
+                                 StatsRepository statsRepository,
+                                 RollupRepository rollupRepository,
+                                 HistogramRepository histogramRepository,
+                                 RollupService rollupService,
+                                 UniqueSketchService uniqueSketchService,
+                                 VisitorBitmapService visitorBitmapService,
+                                 StatsCacheService statsCacheService,
+                                 CompactionWatermark compactionWatermark,
+                                 PlatformTransactionManager transactionManager,
+                                 @Value("${stats.compaction.enabled:false}") boolean enabled,
+                                 @Value("${stats.compaction.granularity:DAY}") Granularity granularity,
+                                 @Value("${stats.compaction.age-days:90}") int ageDays,
+                                 @Value("${stats.compaction.chunk-size:5000}") int chunkSize) {
+        this.compactionRepository = compactionRepository;
+        this.statsRepository = statsRepository;
+        this.rollupRepository = rollupRepository;
+        this.histogramRepository = histogramRepository;
+        this.rollupService = rollupService;
+        this.uniqueSketchService = uniqueSketchService;
+        this.visitorBitmapService = visitorBitmapService;
+        this.statsCacheService = statsCacheService;
+        this.compactionWatermark = compactionWatermark;
+        this.readOnly = new TransactionTemplate(transactionManager);
+        this.readOnly.setReadOnly(true);
+        this.repeatableRead = new TransactionTemplate(transactionManager);
+        this.repeatableRead.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.enabled = enabled;
+        this.granularity = granularity;
+        this.ageDays = ageDays;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    @Scheduled(cron = "${stats.compaction.cron:0 30 * * * *}")
+    public long compact() {
+        if (!enabled || !lock.tryLock()) {
+            return 0;
+        }
+        try {
+            return compactBefore(Granularity.DAY.floor(LocalDateTime.now()).minusDays(ageDays));
+        } catch (RuntimeException e) {
+            log.error("Failed to compact raw stats", e);
+            return 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long compactBefore(LocalDateTime cutoff) {
+        if (granularity == Granularity.MINUTE) {
+            log.error("Raw stats can only be compacted per HOUR or DAY");
+            return 0;
+        }
+        if (!rollupService.isEnabled() || !uniqueSketchService.isEnabled()) {
+            log.warn("Raw stats compaction needs rollups and HyperLogLog sketches to be enabled");
+            return 0;
+        }
+        CompactionState state = compactionWatermark.getState();
+        if (state != null && state.getGranularity() != granularity) {
+            log.error("Raw stats are already compacted per {}, refusing to compact per {}",
+                    state.getGranularity(), granularity);
+            return 0;
+        }
+        long removed = 0;
+        int days = 0;
+        for (LocalDateTime earliest = statsRepository.getEarliestTimestamp();
+             earliest != null && earliest.isBefore(cutoff);
+             earliest = statsRepository.getEarliestTimestamp()) {
+            removed += compactDay(Granularity.DAY.floor(earliest));
+            days++;
+        }
+        if (days > 0) {
+            log.info("Compacted {} days of raw stats before {} per {}, {} rows removed", days, cutoff, granularity,
+                    removed);
+        }
+        return removed;
+    }
+
+    private long compactDay(LocalDateTime day) {
+        LocalDateTime next = day.plusDays(1);
+        // sketch and bitmap merges are unions, so folding visitors they already hold changes nothing
+        readOnly.executeWithoutResult(status -> compactionRepository.forEachRawChunk(day, next, chunkSize, chunk -> {
+            uniqueSketchService.record(chunk);
+            visitorBitmapService.record(chunk);
+        }));
+        uniqueSketchService.flush();
+        visitorBitmapService.flush();
+
+        // the fold runs with every rollup merge settled and none in flight, so one snapshot sees raw rows and
+        // rollups consistently; hits missing from a rollup bucket (e.g. ingested while rollups were off) are added
+        // before the raw rows go, and a concurrent update of the same bucket fails this transaction instead
+        CompactionState current = compactionWatermark.getState();
+        CompactionState advanced = current != null && day.isBefore(current.getCompactedBefore()) ? current
+                : new CompactionState(granularity, current == null ? day : current.getCompactedFrom(), next);
+        Long folded = rollupService.settled(() -> repeatableRead.execute(status -> {
+            long hits = foldHits(granularity, day, next);
+            if (granularity != Granularity.DAY) {
+                foldHits(Granularity.DAY, day, next);
+            }
+            if (advanced != current) {
+                compactionRepository.saveState(advanced);
+            }
+            return hits;
+        }));
+        compactionWatermark.update(advanced);
+        if (advanced != current || folded != null && folded > 0) {
+            statsCacheService.clear();
+        }
+        if (folded != null && folded > 0) {
+            log.warn("Folded {} hits of {} that were missing from rollups", folded, day.toLocalDate());
+        }
+
+        long removed = deleteInChunks(() -> compactionRepository.deleteRawChunk(day, next, chunkSize));
+        for (Granularity finer : Granularity.values()) {
+            if (finer.compareTo(granularity) < 0) {
+                deleteInChunks(() -> compactionRepository.deleteRollupChunk(finer, day, next, chunkSize));
+                deleteInChunks(() -> compactionRepository.deleteSketchChunk(finer, day, next, chunkSize));
+                compactionRepository.deleteSummaries(finer, day, next);
+            }
+        }
+        log.debug("Compacted raw stats of {}: {} rows removed", day.toLocalDate(), removed);
+        return removed;
+    }
+
+    private long foldHits(Granularity level, LocalDateTime from, LocalDateTime to) {
+        Map<RollupKey, Long> missing = new HashMap<>();
+        histogramRepository.forEachRawBucket(level, from, to, null, false, (app, uri, bucket, hits, visitors) ->
+                missing.put(new RollupKey(app, uri, bucket), hits));
+        rollupRepository.forEachBucket(level, from, to, null, (app, uri, bucket, hits) ->
+                missing.computeIfPresent(new RollupKey(app, uri, bucket), (key, raw) -> raw > hits ? raw - hits : null));
+        if (missing.isEmpty()) {
+            return 0;
+        }
+        rollupRepository.addHits(level, new TreeMap<>(missing));
+        return missing.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    // each chunk commits on its own, so no lock on the raw table outlives a single short delete
+    private static long deleteInChunks(IntSupplier chunk) {
+        long deleted = 0;
+        for (int count = chunk.getAsInt(); count > 0; count = chunk.getAsInt()) {
+            deleted += count;
+        }
+        return deleted;
+    }
+}
@@ -0,0 +1,15 @@
+package ru.practicum.service;
+
+import ru.practicum.HistogramBucket;
+import ru.practicum.enums.Granularity;
+import ru.practicum.enums.UniqueMode;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Consumer;
+
+public interface HistogramService {
+
+    void streamHistogram(LocalDateTime start, LocalDateTime end, List<String> uris, Granularity interval,
+                         boolean unique, UniqueMode mode, Consumer<HistogramBucket> consumer);
+}
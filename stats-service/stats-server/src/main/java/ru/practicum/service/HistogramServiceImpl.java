@@ -0,0 +1,133 @@
+package ru.practicum.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ru.practicum.HistogramBucket;
+import ru.practicum.config.ConditionalOnJpaBackend;
+import ru.practicum.enums.Granularity;
+import ru.practicum.enums.UniqueMode;
+import ru.practicum.model.CompactionState;
+import ru.practicum.model.RollupKey;
+import ru.practicum.repository.HistogramRepository;
+import ru.practicum.repository.RollupRepository;
+import ru.practicum.util.CompactionWatermark;
+import ru.practicum.util.SegmentPlanner;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+@Slf4j
+@Service
+@ConditionalOnJpaBackend
+public class HistogramServiceImpl implements HistogramService {
+
+    private static final Comparator<HistogramBucket> ORDER = Comparator.comparing(HistogramBucket::getBucket)
+            .thenComparing(HistogramBucket::getApp)
+            .thenComparing(HistogramBucket::getUri);
+
+    private final HistogramRepository histogramRepository;
+    private final RollupRepository rollupRepository;
+    private final RollupService rollupService;
+    private final UniqueSketchService uniqueSketchService;
+    private final CompactionWatermark compactionWatermark;
+    private final int chunkBuckets;
+
+    public HistogramServiceImpl(HistogramRepository histogramRepository,
+                                RollupRepository rollupRepository,
+                                RollupService rollupService,
+                                UniqueSketchService uniqueSketchService,
+                                CompactionWatermark compactionWatermark,
+                                @Value("${stats.histogram.chunk-buckets:1440}") int chunkBuckets) {
+        this.histogramRepository = histogramRepository;
+        this.rollupRepository = rollupRepository;
+        this.rollupService = rollupService;
+        this.uniqueSketchService = uniqueSketchService;
+        this.compactionWatermark = compactionWatermark;
+        this.chunkBuckets = chunkBuckets;
+    }
+
+    @Override
+    public void streamHistogram(LocalDateTime start, LocalDateTime end, List<String> uris, Granularity interval,
+                                boolean unique, UniqueMode mode, Consumer<HistogramBucket> consumer) {
+        LocalDateTime to = SegmentPlanner.toExclusive(end);
+        int chunks = 0;
+        CompactionState compaction = compactionWatermark.getState();
+        if (compaction != null && start.isBefore(compaction.getCompactedBefore())) {
+            // compacted days only keep buckets of the compaction granularity and coarser, and unique visitors
+            // only in sketches; checkHistogram has already refused ranges that cut a bucket or ask for exact counts
+            Granularity coarse = interval.compareTo(compaction.getGranularity()) < 0
+                    ? compaction.getGranularity() : interval;
+            LocalDateTime before = compaction.getCompactedBefore();
+            chunks += emitAligned(coarse, coarse.ceil(start), to.isAfter(before) ? before : coarse.ceil(to), uris,
+                    unique, UniqueMode.APPROXIMATE, consumer);
+            if (!to.isAfter(before)) {
+                return;
+            }
+            start = before;
+        }
+        LocalDateTime alignedFrom = interval.ceil(start);
+        LocalDateTime alignedTo = interval.floor(to);
+        if (!alignedFrom.isBefore(alignedTo)) {
+            emit(getRawBuckets(interval, start, to, uris, unique), consumer);
+            return;
+        }
+        if (start.isBefore(alignedFrom)) {
+            emit(getRawBuckets(interval, start, alignedFrom, uris, unique), consumer);
+        }
+        chunks += emitAligned(interval, alignedFrom, alignedTo, uris, unique, mode, consumer);
+        if (alignedTo.isBefore(to)) {
+            emit(getRawBuckets(interval, alignedTo, to, uris, unique), consumer);
+        }
+        log.debug("Histogram from {} to {} per {} answered in {} chunks", start, end, interval, chunks);
+    }
+
+    private int emitAligned(Granularity interval, LocalDateTime alignedFrom, LocalDateTime alignedTo,
+                            List<String> uris, boolean unique, UniqueMode mode, Consumer<HistogramBucket> consumer) {
+        int chunks = 0;
+        for (LocalDateTime from = alignedFrom; from.isBefore(alignedTo); chunks++) {
+            LocalDateTime chunkTo = from.plus(chunkBuckets, interval.getUnit());
+            if (chunkTo.isAfter(alignedTo)) {
+                chunkTo = alignedTo;
+            }
+            emit(getAlignedBuckets(interval, from, chunkTo, uris, unique, mode), consumer);
+            from = chunkTo;
+        }
+        return chunks;
+    }
+
+    private List<HistogramBucket> getAlignedBuckets(Granularity interval, LocalDateTime from, LocalDateTime to,
+                                                    List<String> uris, boolean unique, UniqueMode mode) {
+        boolean sketches = unique && mode == UniqueMode.APPROXIMATE && interval != Granularity.MINUTE
+                && uniqueSketchService.isEnabled();
+        if (!rollupService.isEnabled() || unique && !sketches) {
+            return getRawBuckets(interval, from, to, uris, unique);
+        }
+        Map<RollupKey, HistogramBucket> buckets = new HashMap<>();
+        rollupRepository.forEachBucket(interval, from, to, uris, (app, uri, bucket, hits) ->
+                buckets.put(new RollupKey(app, uri, bucket), new HistogramBucket(app, uri, bucket, hits, null)));
+        if (sketches) {
+            Map<RollupKey, Long> visitors = uniqueSketchService.getUniqueHitsByBucket(interval, from, to, uris);
+            buckets.forEach((key, bucket) -> bucket.setUnique(visitors.getOrDefault(key, 0L)));
+        }
+        return new ArrayList<>(buckets.values());
+    }
+
+    private List<HistogramBucket> getRawBuckets(Granularity interval, LocalDateTime from, LocalDateTime to,
+                                                List<String> uris, boolean unique) {
+        List<HistogramBucket> buckets = new ArrayList<>();
+        histogramRepository.forEachRawBucket(interval, from, to, uris, unique, (app, uri, bucket, hits, visitors) ->
+                buckets.add(new HistogramBucket(app, uri, bucket, hits, unique ? visitors : null)));
+        return buckets;
+    }
+
+    private static void emit(List<HistogramBucket> buckets, Consumer<HistogramBucket> consumer) {
+        buckets.sort(ORDER);
+        buckets.forEach(consumer);
+    }
+}
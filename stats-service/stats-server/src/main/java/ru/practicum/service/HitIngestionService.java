@@ -0,0 +1,20 @@
+package ru.practicum.service;
+
+import ru.practicum.model.Stats;
+
+import java.util.List;
+
+public interface HitIngestionService {
+
+    void ingest(Stats stats);
+
+    void ingestAll(List<Stats> stats);
+
+    // written at once, in one transaction with batchId, and skipped when batchId was stored before
+    void ingestAll(List<Stats> stats, String batchId);
+
+    // written at once, with withRows committed in the same transaction as the rows
+    void ingestAll(List<Stats> stats, Runnable withRows);
+
+    int getQueueDepth();
+}
@@ -0,0 +1,270 @@
+package ru.practicum.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.config.ConditionalOnJpaBackend;
+import ru.practicum.model.Stats;
+import ru.practicum.repository.IdempotencyRepository;
+import ru.practicum.repository.StatsBatchRepository;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+@Slf4j
+@Service
+@ConditionalOnJpaBackend
+public class HitIngestionServiceImpl implements HitIngestionService {
+
+    private final StatsBatchRepository statsBatchRepository;
+    private final IdempotencyRepository idempotencyRepository;
+    private final RollupService rollupService;
+    private final UniqueSketchService uniqueSketchService;
+    private final VisitorBitmapService visitorBitmapService;
+    private final TopHitsService topHitsService;
+    private final StatsCacheService statsCacheService;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean async;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final long offerTimeoutMs;
+    private final boolean virtualThreads;
+    private final int idempotencyRetentionHours;
+    private final BlockingQueue<Stats> queue;
+    private final DistributionSummary batchSizeSummary;
+    private final Timer flushTimer;
+    private final Timer insertTimer;
+    private final Counter hitsCounter;
+    private final Counter overflowCounter;
+    private final Counter droppedCounter;
+
+    private volatile boolean running;
+    private Thread writer;
+
+    public HitIngestionServiceImpl(StatsBatchRepository statsBatchRepository,
+                                   IdempotencyRepository idempotencyRepository,
+                                   RollupService rollupService,
+                                   UniqueSketchService uniqueSketchService,
+                                   VisitorBitmapService visitorBitmapService,
+                                   TopHitsService topHitsService,
+                                   StatsCacheService statsCacheService,
+                                   TransactionTemplate transactionTemplate,
+                                   MeterRegistry meterRegistry,
+                                   @Value("${stats.ingest.async:false}") boolean async,
+                                   @Value("${stats.ingest.queue-capacity:100000}") int queueCapacity,
+                                   @Value("${stats.ingest.batch-size:500}") int batchSize,
+                                   @Value("${stats.ingest.flush-interval-ms:200}") long flushIntervalMs,
+                                   @Value("${stats.ingest.offer-timeout-ms:50}") long offerTimeoutMs,
+                                   @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+                                   @Value("${stats.idempotency.retention-hours:168}") int idempotencyRetentionHours) {
+        this.statsBatchRepository = statsBatchRepository;
+        this.idempotencyRepository = idempotencyRepository;
+        this.rollupService = rollupService;
+        this.uniqueSketchService = uniqueSketchService;
+        this.visitorBitmapService = visitorBitmapService;
+        this.topHitsService = topHitsService;
+        this.statsCacheService = statsCacheService;
+        this.transactionTemplate = transactionTemplate;
+        this.async = async;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        this.offerTimeoutMs = offerTimeoutMs;
+        this.virtualThreads = virtualThreads;
+        this.idempotencyRetentionHours = idempotencyRetentionHours;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        Gauge.builder("stats.ingest.queue.depth", queue, BlockingQueue::size)
+                .register(meterRegistry);
+        this.batchSizeSummary = DistributionSummary.builder("stats.ingest.batch.size")
+                .register(meterRegistry);
+        this.flushTimer = Timer.builder("stats.ingest.flush.latency")
+                .register(meterRegistry);
+        this.insertTimer = Timer.builder("stats.ingest.insert.latency")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.hitsCounter = Counter.builder("stats.ingest.hits")
+                .register(meterRegistry);
+        this.overflowCounter = Counter.builder("stats.ingest.overflow")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("stats.ingest.dropped")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!async) {
+            return;
+        }
+        running = true;
+        Thread.Builder threads = virtualThreads ? Thread.ofVirtual() : Thread.ofPlatform().daemon();
+        writer = threads.name("stats-hit-writer").start(this::drainLoop);
+        log.info("Asynchronous hit ingestion started: batch size {}, flush interval {} ms",
+                batchSize, TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos));
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (writer == null) {
+            return;
+        }
+        running = false;
+        writer.join(TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos) * 10 + 1000);
+        log.info("Asynchronous hit ingestion stopped, {} hits left in queue", queue.size());
+    }
+
+    @Override
+    public void ingest(Stats stats) {
+        if (!async) {
+            write(List.of(stats), null, null);
+            return;
+        }
+        try {
+            if (!queue.offer(stats, offerTimeoutMs, TimeUnit.MILLISECONDS)) {
+                overflowCounter.increment();
+                write(List.of(stats), null, null);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            write(List.of(stats), null, null);
+        }
+    }
+
+    @Override
+    public void ingestAll(List<Stats> stats) {
+        if (!async) {
+            write(stats, null, null);
+            return;
+        }
+        for (Stats hit : stats) {
+            ingest(hit);
+        }
+    }
+
+    @Override
+    public void ingestAll(List<Stats> stats, String batchId) {
+        if (batchId == null) {
+            ingestAll(stats);
+            return;
+        }
+        write(stats, batchId, null);
+    }
+
+    @Override
+    public void ingestAll(List<Stats> stats, Runnable withRows) {
+        write(stats, null, withRows);
+    }
+
+    @Scheduled(cron = "${stats.idempotency.cleanup-cron:0 15 * * * *}")
+    public void expireIdempotencyKeys() {
+        try {
+            int expired = idempotencyRepository.deleteBefore(LocalDateTime.now().minusHours(idempotencyRetentionHours));
+            if (expired > 0) {
+                log.debug("Expired {} idempotency keys", expired);
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to expire idempotency keys", e);
+        }
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    private void drainLoop() {
+        List<Stats> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                collectBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void collectBatch(List<Stats> batch) throws InterruptedException {
+        Stats first = queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + flushIntervalNanos;
+        while (batch.size() < batchSize) {
+            queue.drainTo(batch, batchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= batchSize || remaining <= 0) {
+                return;
+            }
+            Stats next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void flush(List<Stats> batch) {
+        try {
+            write(batch, null, null);
+        } catch (RuntimeException e) {
+            droppedCounter.increment(batch.size());
+            log.error("Failed to write batch of {} hits", batch.size(), e);
+        }
+    }
+
+    private void write(List<Stats> batch, String batchId, Runnable withRows) {
+        long startedAt = System.nanoTime();
+        try {
+            statsCacheService.beginWrite(batch);
+            boolean committed = false;
+            boolean written;
+            try {
+                StatsBatchRepository.Rows rows = statsBatchRepository.resolve(batch);
+                BooleanSupplier insert = () -> Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+                    if (batchId != null && !idempotencyRepository.register(batchId, LocalDateTime.now())) {
+                        status.setRollbackOnly();
+                        return false;
+                    }
+                    insertTimer.record(() -> statsBatchRepository.saveAll(rows));
+                    visitorBitmapService.markPending(batch);
+                    if (withRows != null) {
+                        withRows.run();
+                    }
+                    return true;
+                }));
+                written = rollupService.record(batch, () -> visitorBitmapService.record(batch, insert));
+                committed = true;
+            } finally {
+                statsCacheService.completeWrite(batch, committed);
+            }
+            if (!written) {
+                log.info("Batch {} was already stored, skipping it", batchId);
+                return;
+            }
+            uniqueSketchService.record(batch);
+            topHitsService.record(batch);
+            batchSizeSummary.record(batch.size());
+            hitsCounter.increment(batch.size());
+        } finally {
+            flushTimer.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+        }
+    }
+}
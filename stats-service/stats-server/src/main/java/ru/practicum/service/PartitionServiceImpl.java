@@ -0,0 +1,193 @@
+package ru.practicum.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.config.ConditionalOnJpaBackend;
+import ru.practicum.enums.Granularity;
+import ru.practicum.enums.PartitionInterval;
+import ru.practicum.repository.CompactionRepository;
+import ru.practicum.repository.PartitionRepository;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.IntSupplier;
+
+// Hits outside every partition, e.g. backfilled or imported ones, land in stats_default. Each maintenance run moves
+// them into the partition of their interval before creating new ones, since PostgreSQL refuses to create a partition
+// whose range still has rows in the default one, and retention then covers those rows like any others. Whatever
+// retention removes takes the rollups, sketches, visitor bitmaps and top-hits summaries of its range along with it.
+@Slf4j
+@Service
+@ConditionalOnJpaBackend
+public class PartitionServiceImpl implements PartitionService {
+
+    private static final String PREFIX = "stats_p";
+
+    private final PartitionRepository partitionRepository;
+    private final CompactionRepository compactionRepository;
+    private final VisitorBitmapService visitorBitmapService;
+    private final StatsCacheService statsCacheService;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final PartitionInterval interval;
+    private final int premake;
+    private final int retentionDays;
+    private final boolean archive;
+    private final int chunkSize;
+
+    public PartitionServiceImpl(PartitionRepository partitionRepository,
+                                CompactionRepository compactionRepository,
+                                VisitorBitmapService visitorBitmapService,
+                                StatsCacheService statsCacheService,
+                                TransactionTemplate transactionTemplate,
+                                @Value("${stats.partition.enabled:false}") boolean enabled,
+                                @Value("${stats.partition.interval:DAY}") PartitionInterval interval,
+                                @Value("${stats.partition.premake:7}") int premake,
+                                @Value("${stats.partition.retention-days:0}") int retentionDays,
+                                @Value("${stats.partition.archive:false}") boolean archive,
+                                @Value("${stats.partition.chunk-size:5000}") int chunkSize) {
+        this.partitionRepository = partitionRepository;
+        this.compactionRepository = compactionRepository;
+        this.visitorBitmapService = visitorBitmapService;
+        this.statsCacheService = statsCacheService;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+        this.interval = interval;
+        this.premake = premake;
+        this.retentionDays = retentionDays;
+        this.archive = archive;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(cron = "${stats.partition.cron:0 0 * * * *}")
+    public void maintainPartitions() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            drainDefaultPartition();
+            Set<String> existing = new HashSet<>(partitionRepository.findPartitions());
+            createFuturePartitions(existing);
+            if (retentionDays > 0) {
+                expirePartitions(existing);
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to maintain stats partitions", e);
+        }
+    }
+
+    // one interval per round, the earliest left in stats_default; the rows move and the partition is attached in one
+    // transaction, so a concurrent insert either lands before the move or is routed to the new partition
+    private void drainDefaultPartition() {
+        boolean deleted = false;
+        for (LocalDateTime earliest = partitionRepository.findEarliestDefault(); earliest != null;
+             earliest = partitionRepository.findEarliestDefault()) {
+            LocalDate from = interval.floor(earliest.toLocalDate());
+            LocalDate to = interval.next(from);
+            String name = PREFIX + interval.suffix(from);
+            if (isExpired(from)) {
+                deleteAggregates(from, to);
+                deleted = true;
+            }
+            if (isExpired(from) && !archive) {
+                int rows = partitionRepository.deleteDefaultRows(from, to);
+                log.info("Deleted {} expired rows for [{}, {}) from the default stats partition", rows, from, to);
+                continue;
+            }
+            Integer rows = transactionTemplate.execute(status -> {
+                partitionRepository.createTable(name);
+                int moved = partitionRepository.moveDefaultRows(name, from, to);
+                if (!isExpired(from)) {
+                    partitionRepository.attachPartition(name, from, to);
+                }
+                return moved;
+            });
+            log.info("Moved {} rows for [{}, {}) from the default stats partition into {}", rows, from, to, name);
+        }
+        if (deleted) {
+            statsCacheService.clear();
+        }
+    }
+
+    private void createFuturePartitions(Set<String> existing) {
+        LocalDate from = interval.floor(LocalDate.now());
+        for (int i = 0; i <= premake; i++) {
+            LocalDate to = interval.next(from);
+            String name = PREFIX + interval.suffix(from);
+            if (!existing.contains(name)) {
+                try {
+                    partitionRepository.createPartition(name, from, to);
+                    log.info("Created stats partition {} for [{}, {})", name, from, to);
+                } catch (RuntimeException e) {
+                    log.warn("Could not create stats partition {}: {}", name, e.getMessage());
+                }
+            }
+            from = to;
+        }
+    }
+
+    private void expirePartitions(Set<String> existing) {
+        boolean expired = false;
+        for (String name : existing) {
+            if (!name.startsWith(PREFIX)) {
+                continue;
+            }
+            LocalDate start;
+            try {
+                start = interval.parseSuffix(name.substring(PREFIX.length()));
+            } catch (DateTimeParseException e) {
+                continue;
+            }
+            if (!isExpired(start)) {
+                continue;
+            }
+            deleteAggregates(start, interval.next(start));
+            if (archive) {
+                partitionRepository.detachPartition(name);
+                log.info("Detached expired stats partition {} for archiving", name);
+            } else {
+                partitionRepository.dropPartition(name);
+                log.info("Dropped expired stats partition {}", name);
+            }
+            expired = true;
+        }
+        if (expired) {
+            statsCacheService.clear();
+        }
+    }
+
+    // runs before the raw rows go, so a failure in between leaves the partition in place and the next run retries
+    // both; as in compaction, each chunk commits on its own
+    private void deleteAggregates(LocalDate from, LocalDate to) {
+        LocalDateTime start = from.atStartOfDay();
+        LocalDateTime end = to.atStartOfDay();
+        for (Granularity granularity : Granularity.values()) {
+            deleteInChunks(() -> compactionRepository.deleteRollupChunk(granularity, start, end, chunkSize));
+            deleteInChunks(() -> compactionRepository.deleteSketchChunk(granularity, start, end, chunkSize));
+            compactionRepository.deleteSummaries(granularity, start, end);
+        }
+        visitorBitmapService.delete(start, end);
+    }
+
+    private static long deleteInChunks(IntSupplier chunk) {
+        long deleted = 0;
+        for (int count = chunk.getAsInt(); count > 0; count = chunk.getAsInt()) {
+            deleted += count;
+        }
+        return deleted;
+    }
+
+    private boolean isExpired(LocalDate start) {
+        return retentionDays > 0 && !interval.next(start).isAfter(LocalDate.now().minusDays(retentionDays));
+    }
+}
@@ -0,0 +1,28 @@
+package ru.practicum.service;
+
+import ru.practicum.ViewStats;
+import ru.practicum.model.Stats;
+import ru.practicum.model.TimeSegment;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+public interface RollupService {
+
+    boolean isEnabled();
+
+    // insert commits the raw rows on its own and returns false when it stored nothing, e.g. for a batch posted
+    // before; otherwise the rollup merge follows in a separate transaction
+    boolean record(List<Stats> stats, BooleanSupplier insert);
+
+    void flush();
+
+    // runs action with every rollup merge written and none in flight, so rollups and raw rows agree
+    <T> T settled(Supplier<T> action);
+
+    List<TimeSegment> plan(LocalDateTime start, LocalDateTime end);
+
+    List<ViewStats> getHits(LocalDateTime start, LocalDateTime end, List<String> uris);
+}
@@ -0,0 +1,182 @@
+package ru.practicum.service;
+
+import lombok.extern.slf4j.Slf4j;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.ViewStats;
+import ru.practicum.config.ConditionalOnJpaBackend;
+import ru.practicum.enums.Granularity;
+import ru.practicum.model.RollupKey;
+import ru.practicum.model.Stats;
+import ru.practicum.model.TimeSegment;
+import ru.practicum.repository.RollupRepository;
+import ru.practicum.repository.StatsRepository;
+import ru.practicum.util.CompactionWatermark;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+// Rollup merges run after the raw insert has committed, so hot rollup rows are locked only for their own short
+// transaction. A merge that fails keeps its counts in memory and is retried by the scheduled flush; until then
+// those buckets lag behind the raw rows, and compaction settles them before it folds a day.
+@Slf4j
+@Service
+@ConditionalOnJpaBackend
+public class RollupServiceImpl implements RollupService {
+
+    private static final List<Granularity> LEVELS = List.of(Granularity.values());
+
+    private final RollupRepository rollupRepository;
+    private final StatsRepository statsRepository;
+    private final CompactionWatermark compactionWatermark;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final Map<Granularity, Map<RollupKey, Long>> failed = new EnumMap<>(Granularity.class);
+    private final ReadWriteLock settleLock = new ReentrantReadWriteLock();
+
+    public RollupServiceImpl(RollupRepository rollupRepository,
+                             StatsRepository statsRepository,
+                             CompactionWatermark compactionWatermark,
+                             TransactionTemplate transactionTemplate,
+                             @Value("${stats.rollup.enabled:true}") boolean enabled) {
+        this.rollupRepository = rollupRepository;
+        this.statsRepository = statsRepository;
+        this.compactionWatermark = compactionWatermark;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public boolean record(List<Stats> stats, BooleanSupplier insert) {
+        settleLock.readLock().lock();
+        try {
+            if (!insert.getAsBoolean()) {
+                return false;
+            }
+            if (!enabled) {
+                return true;
+            }
+            Map<Granularity, Map<RollupKey, Long>> hits = new EnumMap<>(Granularity.class);
+            for (Granularity granularity : LEVELS) {
+                Map<RollupKey, Long> buckets = new TreeMap<>();
+                for (Stats hit : stats) {
+                    buckets.merge(new RollupKey(hit.getApp(), hit.getUri(), granularity.floor(hit.getTimestamp())),
+                            1L, Long::sum);
+                }
+                hits.put(granularity, buckets);
+            }
+            if (!write(hits)) {
+                keep(hits);
+            }
+            return true;
+        } finally {
+            settleLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    @PreDestroy
+    @Scheduled(fixedDelayString = "${stats.rollup.retry-interval-ms:5000}")
+    public void flush() {
+        Map<Granularity, Map<RollupKey, Long>> hits = takeFailed();
+        if (hits.isEmpty()) {
+            return;
+        }
+        if (write(hits)) {
+            log.info("Merged {} rollup buckets that had failed before",
+                    hits.values().stream().mapToInt(Map::size).sum());
+        } else {
+            keep(hits);
+        }
+    }
+
+    @Override
+    public <T> T settled(Supplier<T> action) {
+        settleLock.writeLock().lock();
+        try {
+            flush();
+            synchronized (failed) {
+                if (!failed.isEmpty()) {
+                    throw new IllegalStateException("Rollup merges are still failing, raw stats and rollups disagree");
+                }
+            }
+            return action.get();
+        } finally {
+            settleLock.writeLock().unlock();
+        }
+    }
+
+    private boolean write(Map<Granularity, Map<RollupKey, Long>> hits) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> hits.forEach(rollupRepository::addHits));
+            return true;
+        } catch (RuntimeException e) {
+            log.warn("Failed to merge rollups, keeping them for the next flush: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private void keep(Map<Granularity, Map<RollupKey, Long>> hits) {
+        synchronized (failed) {
+            hits.forEach((granularity, buckets) -> {
+                Map<RollupKey, Long> kept = failed.computeIfAbsent(granularity, g -> new TreeMap<>());
+                buckets.forEach((key, count) -> kept.merge(key, count, Long::sum));
+            });
+        }
+    }
+
+    private Map<Granularity, Map<RollupKey, Long>> takeFailed() {
+        synchronized (failed) {
+            Map<Granularity, Map<RollupKey, Long>> taken = new EnumMap<>(failed);
+            failed.clear();
+            return taken;
+        }
+    }
+
+    @Override
+    public List<TimeSegment> plan(LocalDateTime start, LocalDateTime end) {
+        return compactionWatermark.plan(start, end, LEVELS);
+    }
+
+    @Override
+    public List<ViewStats> getHits(LocalDateTime start, LocalDateTime end, List<String> uris) {
+        Map<String, ViewStats> totals = new LinkedHashMap<>();
+        List<TimeSegment> segments = plan(start, end);
+        for (TimeSegment segment : segments) {
+            List<ViewStats> partial;
+            if (segment.isRaw()) {
+                partial = uris == null || uris.isEmpty()
+                        ? statsRepository.getStatsInRange(segment.getFrom(), segment.getTo())
+                        : statsRepository.getStatsInRangeByUris(segment.getFrom(), segment.getTo(), uris);
+            } else {
+                partial = rollupRepository.sumHits(segment.getGranularity(), segment.getFrom(), segment.getTo(), uris);
+            }
+            for (ViewStats viewStats : partial) {
+                totals.merge(viewStats.getApp() + '\n' + viewStats.getUri(), viewStats,
+                        (total, next) -> new ViewStats(total.getApp(), total.getUri(), total.getHits() + next.getHits()));
+            }
+        }
+        log.debug("Stats from {} to {} answered from {} segments", start, end, segments.size());
+        List<ViewStats> result = new ArrayList<>(totals.values());
+        result.sort(Comparator.comparing(ViewStats::getHits).reversed());
+        return result;
+    }
+}
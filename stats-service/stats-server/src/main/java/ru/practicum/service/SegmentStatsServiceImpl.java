@@ -0,0 +1,293 @@
+package ru.practicum.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ru.practicum.EndpointHit;
+import ru.practicum.HistogramBucket;
+import ru.practicum.ViewStats;
+import ru.practicum.WeightedHit;
+import ru.practicum.config.ConditionalOnSegmentBackend;
+import ru.practicum.enums.Granularity;
+import ru.practicum.enums.UniqueMode;
+import ru.practicum.enums.UriGrouping;
+import ru.practicum.model.VisitorSketch;
+import ru.practicum.segment.SegmentDictionary;
+import ru.practicum.segment.SegmentStore;
+import ru.practicum.sketch.HyperLogLog;
+import ru.practicum.util.HitDeduplicator;
+import ru.practicum.util.HitLogSampler;
+import ru.practicum.util.IpAddresses;
+import ru.practicum.util.SegmentPlanner;
+import ru.practicum.util.UriPatterns;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+@Slf4j
+@Service
+@ConditionalOnSegmentBackend
+public class SegmentStatsServiceImpl implements StatsService {
+
+    private final SegmentStore segmentStore;
+    private final int histogramChunkBuckets;
+    private final int hllPrecision;
+    private final HitLogSampler hitLogSampler;
+    private final HitDeduplicator hitDeduplicator;
+
+    public SegmentStatsServiceImpl(HitLogSampler hitLogSampler,
+                                   HitDeduplicator hitDeduplicator,
+                                   @Value("${stats.segment.dir:./data/segments}") Path directory,
+                                   @Value("${stats.segment.records-per-segment:1048576}") int recordsPerSegment,
+                                   @Value("${stats.histogram.chunk-buckets:1440}") int histogramChunkBuckets,
+                                   @Value("${stats.hll.precision:12}") int hllPrecision)
+            throws IOException {
+        this.segmentStore = new SegmentStore(directory, recordsPerSegment);
+        this.histogramChunkBuckets = histogramChunkBuckets;
+        this.hllPrecision = hllPrecision;
+        this.hitLogSampler = hitLogSampler;
+        this.hitDeduplicator = hitDeduplicator;
+    }
+
+    @Override
+    public void postHit(EndpointHit hit) {
+        if (log.isDebugEnabled() && hitLogSampler.sample()) {
+            log.debug("Posting hit to segment store: {}", hit);
+        }
+        append(hit);
+    }
+
+    @Override
+    public void postHits(List<EndpointHit> hits) {
+        if (log.isDebugEnabled() && hitLogSampler.sample()) {
+            log.debug("Posting batch of {} hits to segment store", hits.size());
+        }
+        for (EndpointHit hit : hits) {
+            append(hit);
+        }
+    }
+
+    @Override
+    public void postWeightedHits(List<WeightedHit> hits, String batchId) {
+        if (log.isDebugEnabled() && hitLogSampler.sample()) {
+            log.debug("Posting batch of {} weighted hits to segment store", hits.size());
+        }
+        for (WeightedHit hit : hits) {
+            append(hit.getApp(), hit.getUri(), hit.getIp(), hit.getTimestamp(), hit.getCount());
+        }
+    }
+
+    private void append(EndpointHit hit) {
+        append(hit.getApp(), hit.getUri(), hit.getIp(), hit.getTimestamp(), 1);
+    }
+
+    // the copies of a weighted hit are one hit to the deduplicator, so only the first of them is checked
+    private void append(String app, String uri, String ip, LocalDateTime timestamp, int count) {
+        if (hitDeduplicator.isEnabled() && hitDeduplicator.isDuplicate(app, uri, IpAddresses.normalize(ip),
+                timestamp)) {
+            return;
+        }
+        try {
+            for (int i = 0; i < count; i++) {
+                segmentStore.append(app, uri, ip, timestamp);
+            }
+        } catch (RuntimeException e) {
+            hitDeduplicator.release(app, uri, IpAddresses.normalize(ip), timestamp);
+            throw e;
+        }
+    }
+
+    @Override
+    public List<ViewStats> getStats(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                                    UniqueMode mode, UriGrouping groupBy) {
+        SegmentDictionary dictionary = segmentStore.getDictionary();
+        BitSet uriIds = null;
+        Map<Integer, Integer> groups = new HashMap<>();
+        List<String> groupNames = new ArrayList<>();
+        if (uris != null && !uris.isEmpty()) {
+            uriIds = new BitSet();
+            for (String uri : uris) {
+                boolean pattern = UriPatterns.isPattern(uri);
+                List<String> matches = pattern ? dictionary.findUrisByPrefix(UriPatterns.prefix(uri)) : List.of(uri);
+                if (pattern && groupBy == UriGrouping.PREFIX) {
+                    groupNames.add(uri);
+                }
+                for (String match : matches) {
+                    int id = dictionary.findUri(match);
+                    if (id > 0) {
+                        uriIds.set(id);
+                        if (pattern && groupBy == UriGrouping.PREFIX) {
+                            groups.putIfAbsent(id, -groupNames.size());
+                        }
+                    }
+                }
+            }
+            if (uriIds.isEmpty()) {
+                return List.of();
+            }
+        }
+
+        Map<Long, Long> hits = new HashMap<>();
+        Map<Long, Set<Visitor>> visitors = new HashMap<>();
+        segmentStore.scan(start, end, uriIds, (timestamp, appId, uriId, ipHigh, ipLow) -> {
+            long key = ((long) appId << 32) | (groups.getOrDefault(uriId, uriId) & 0xFFFFFFFFL);
+            if (unique) {
+                visitors.computeIfAbsent(key, k -> new HashSet<>()).add(new Visitor(ipHigh, ipLow));
+            } else {
+                hits.merge(key, 1L, Long::sum);
+            }
+        });
+        if (unique) {
+            visitors.forEach((key, ips) -> hits.put(key, (long) ips.size()));
+        }
+
+        List<ViewStats> result = new ArrayList<>(hits.size());
+        hits.forEach((key, count) -> {
+            int uriId = key.intValue();
+            String uri = uriId < 0 ? groupNames.get(-uriId - 1) : dictionary.getUri(uriId);
+            result.add(new ViewStats(dictionary.getApp((int) (key >>> 32)), uri, count));
+        });
+        result.sort(Comparator.comparing(ViewStats::getHits).reversed());
+        log.debug("Stats for {} uris is found in segments", result.size());
+        return result;
+    }
+
+    // the segment store keeps no top-hits summaries, every answer comes from a scan of the raw records and is
+    // exact whether or not exact was asked for
+    @Override
+    public List<ViewStats> getTopHits(LocalDateTime start, LocalDateTime end, int limit, boolean exact) {
+        List<ViewStats> stats = getStats(start, end, null, false, UniqueMode.EXACT, UriGrouping.URI);
+        return stats.subList(0, Math.min(limit, stats.size()));
+    }
+
+    @Override
+    public void streamHistogram(LocalDateTime start, LocalDateTime end, List<String> uris, Granularity interval,
+                                boolean unique, UniqueMode mode, Consumer<HistogramBucket> consumer) {
+        SegmentDictionary dictionary = segmentStore.getDictionary();
+        BitSet uriIds = null;
+        if (uris != null && !uris.isEmpty()) {
+            uriIds = new BitSet();
+            for (String uri : uris) {
+                List<String> matches = UriPatterns.isPattern(uri)
+                        ? dictionary.findUrisByPrefix(UriPatterns.prefix(uri))
+                        : List.of(uri);
+                for (String match : matches) {
+                    int id = dictionary.findUri(match);
+                    if (id > 0) {
+                        uriIds.set(id);
+                    }
+                }
+            }
+            if (uriIds.isEmpty()) {
+                return;
+            }
+        }
+
+        long width = interval.getUnit().getDuration().toNanos() / 1000;
+        LocalDateTime to = SegmentPlanner.toExclusive(end);
+        for (LocalDateTime from = start; from.isBefore(to); ) {
+            LocalDateTime chunkTo = interval.floor(from).plus(histogramChunkBuckets, interval.getUnit());
+            if (chunkTo.isAfter(to)) {
+                chunkTo = to;
+            }
+            TreeMap<Long, Map<Long, BucketCounter>> buckets = new TreeMap<>();
+            segmentStore.scan(from, chunkTo.minus(1, ChronoUnit.MICROS), uriIds,
+                    (timestamp, appId, uriId, ipHigh, ipLow) -> {
+                        BucketCounter counter = buckets
+                                .computeIfAbsent(Math.floorDiv(timestamp, width) * width, k -> new TreeMap<>())
+                                .computeIfAbsent(((long) appId << 32) | (uriId & 0xFFFFFFFFL),
+                                        k -> new BucketCounter(unique ? new HashSet<>() : null));
+                        counter.hits++;
+                        if (unique) {
+                            counter.visitors.add(new Visitor(ipHigh, ipLow));
+                        }
+                    });
+            buckets.forEach((bucket, counters) -> counters.forEach((key, counter) -> consumer.accept(
+                    new HistogramBucket(dictionary.getApp((int) (key >>> 32)), dictionary.getUri(key.intValue()),
+                            SegmentStore.toTimestamp(bucket), counter.hits,
+                            unique ? (long) counter.visitors.size() : null))));
+            from = chunkTo;
+        }
+    }
+
+    // ips are sketched by their text like the JPA backend does, so these merge with other shards' sketches; only
+    // non-IP values, which the segments keep as hashes, would be counted twice if they also reach another shard
+    @Override
+    public List<VisitorSketch> getVisitorSketches(LocalDateTime start, LocalDateTime end, List<String> uris) {
+        SegmentDictionary dictionary = segmentStore.getDictionary();
+        List<VisitorSketch> result = new ArrayList<>();
+        for (String uri : uris) {
+            List<String> matches = UriPatterns.isPattern(uri)
+                    ? dictionary.findUrisByPrefix(UriPatterns.prefix(uri))
+                    : List.of(uri);
+            BitSet uriIds = new BitSet();
+            for (String match : matches) {
+                int id = dictionary.findUri(match);
+                if (id > 0) {
+                    uriIds.set(id);
+                }
+            }
+            if (uriIds.isEmpty()) {
+                continue;
+            }
+            Map<Integer, Set<Visitor>> visitors = new HashMap<>();
+            segmentStore.scan(start, end, uriIds, (timestamp, appId, uriId, ipHigh, ipLow) ->
+                    visitors.computeIfAbsent(appId, k -> new HashSet<>()).add(new Visitor(ipHigh, ipLow)));
+            visitors.forEach((appId, ips) -> {
+                HyperLogLog sketch = new HyperLogLog(hllPrecision);
+                for (Visitor visitor : ips) {
+                    String ip = SegmentStore.toIp(visitor.high(), visitor.low());
+                    if (ip == null) {
+                        sketch.addHash(visitor.low());
+                    } else {
+                        sketch.add(ip);
+                    }
+                }
+                result.add(new VisitorSketch(dictionary.getApp(appId), uri, sketch.toBytes()));
+            });
+        }
+        log.debug("Visitor sketches for {} uri groups are found in segments", uris.size());
+        return result;
+    }
+
+    @Override
+    public double getApproximationError() {
+        return 0;
+    }
+
+    @Scheduled(fixedDelayString = "${stats.segment.force-interval-ms:1000}")
+    public void force() {
+        segmentStore.force();
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        segmentStore.close();
+    }
+
+    private record Visitor(long high, long low) {
+    }
+
+    private static final class BucketCounter {
+        private final Set<Visitor> visitors;
+        private long hits;
+
+        BucketCounter(Set<Visitor> visitors) {
+            this.visitors = visitors;
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package ru.practicum.service;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+import ru.practicum.EndpointHit;
+import ru.practicum.HistogramBucket;
+import ru.practicum.StatsShards;
+import ru.practicum.ViewStats;
+import ru.practicum.WeightedHit;
+import ru.practicum.config.ConditionalOnCluster;
+import ru.practicum.enums.Granularity;
+import ru.practicum.enums.UniqueMode;
+import ru.practicum.enums.UriGrouping;
+import ru.practicum.model.VisitorSketch;
+import ru.practicum.sketch.HyperLogLog;
+import ru.practicum.util.ShardClient;
+import ru.practicum.util.UriPatterns;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// Hits are owned by the shard their uri hashes to, so per-uri rows never overlap between shards and merging
+// them is a plain sum; only unique counts over prefix groups span shards and are merged through sketches
+@Slf4j
+@Service
+@Primary
+@ConditionalOnCluster
+public class ShardedStatsServiceImpl implements StatsService {
+
+    private static final Comparator<HistogramBucket> ORDER = Comparator.comparing(HistogramBucket::getBucket)
+            .thenComparing(HistogramBucket::getApp)
+            .thenComparing(HistogramBucket::getUri);
+
+    private final StatsService local;
+    private final ShardClient shardClient;
+    private final List<String> shards;
+    private final int shardIndex;
+
+    public ShardedStatsServiceImpl(StatsService local,
+                                   ShardClient shardClient,
+                                   @Value("${stats.cluster.shards:}") List<String> shards,
+                                   @Value("${stats.cluster.shard-index:0}") int shardIndex) {
+        if (shardIndex < 0 || shardIndex >= shards.size()) {
+            throw new IllegalStateException(String.format("Shard index %d is outside of the %d configured shards",
+                    shardIndex, shards.size()));
+        }
+        this.local = local;
+        this.shardClient = shardClient;
+        this.shards = shards.stream()
+                .map(String::trim)
+                .map(url -> url.endsWith("/") ? url.substring(0, url.length() - 1) : url)
+                .toList();
+        this.shardIndex = shardIndex;
+        log.info("Running as shard {} of {}", shardIndex, shards.size());
+    }
+
+    @Override
+    public List<ViewStats> getStats(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                                    UniqueMode mode, UriGrouping groupBy) {
+        if (unique && groupBy == UriGrouping.PREFIX && uris != null && UriPatterns.containsPattern(uris)) {
+            return getGroupUniqueStats(start, end, uris);
+        }
+        return sum(gather(
+                shard -> shardClient.getStats(shard, start, end, uris, unique, mode, groupBy),
+                () -> local.getStats(start, end, uris, unique, mode, groupBy)));
+    }
+
+    // shards share the compaction settings, so the local watermark stands for all of them
+    @Override
+    public void checkStats(LocalDateTime start, LocalDateTime end, boolean unique, UniqueMode mode) {
+        local.checkStats(start, end, unique, mode);
+    }
+
+    @Override
+    public void checkHistogram(LocalDateTime start, LocalDateTime end, Granularity interval, boolean unique,
+                               UniqueMode mode) {
+        local.checkHistogram(start, end, interval, unique, mode);
+    }
+
+    @Override
+    public List<ViewStats> getTopHits(LocalDateTime start, LocalDateTime end, int limit, boolean exact) {
+        List<ViewStats> merged = sum(gather(
+                shard -> shardClient.getTopHits(shard, start, end, limit, exact),
+                () -> local.getTopHits(start, end, limit, exact)));
+        return merged.size() > limit ? merged.subList(0, limit) : merged;
+    }
+
+    // this shard is read over HTTP like the others, so every part arrives as an ordered stream to merge
+    @Override
+    public void streamHistogram(LocalDateTime start, LocalDateTime end, List<String> uris, Granularity interval,
+                                boolean unique, UniqueMode mode, Consumer<HistogramBucket> consumer) {
+        List<CompletableFuture<MappingIterator<HistogramBucket>>> opened = shards.stream()
+                .map(shard -> shardClient.openHistogram(shard, start, end, uris, interval, unique, mode))
+                .toList();
+        List<MappingIterator<HistogramBucket>> streams = new ArrayList<>(opened.size());
+        try {
+            for (CompletableFuture<MappingIterator<HistogramBucket>> stream : opened) {
+                streams.add(stream.join());
+            }
+            PriorityQueue<Head> heads = new PriorityQueue<>(Comparator.comparing(Head::bucket, ORDER));
+            for (MappingIterator<HistogramBucket> stream : streams) {
+                advance(stream, heads);
+            }
+            while (!heads.isEmpty()) {
+                Head head = heads.poll();
+                consumer.accept(head.bucket());
+                advance(head.stream(), heads);
+            }
+        } finally {
+            opened.forEach(stream -> stream.thenAccept(ShardedStatsServiceImpl::close));
+        }
+    }
+
+    @Override
+    public List<VisitorSketch> getVisitorSketches(LocalDateTime start, LocalDateTime end, List<String> uris) {
+        Map<String, Map<String, HyperLogLog>> merged = mergeSketches(start, end, uris);
+        List<VisitorSketch> sketches = new ArrayList<>();
+        merged.forEach((app, groups) -> groups.forEach((group, sketch) ->
+                sketches.add(new VisitorSketch(app, group, sketch.toBytes()))));
+        return sketches;
+    }
+
+    @Override
+    public double getApproximationError() {
+        return local.getApproximationError();
+    }
+
+    // a forward that failed may still have been stored by the shard, so the one retry carries the same key
+    @Override
+    public void postHit(EndpointHit hit) {
+        int shard = StatsShards.shardOf(hit.getUri(), shards.size());
+        if (shard == shardIndex) {
+            local.postHit(hit);
+        } else {
+            String key = UUID.randomUUID() + "#" + shard;
+            try {
+                shardClient.postHits(shards.get(shard), List.of(hit), key).join();
+            } catch (CompletionException e) {
+                log.warn("Failed to forward a hit to shard {}, retrying: {}", shard, e.getMessage());
+                shardClient.postHits(shards.get(shard), List.of(hit), key).join();
+            }
+        }
+    }
+
+    @Override
+    public void postHits(List<EndpointHit> hits) {
+        postHits(hits, null);
+    }
+
+    // the other shards' parts are forwarded first: if that fails nothing is stored here and the whole batch can
+    // be retried, while shards that already took their part skip it by the derived idempotency key
+    @Override
+    public void postHits(List<EndpointHit> hits, String batchId) {
+        Map<Integer, List<EndpointHit>> parts = new TreeMap<>();
+        for (EndpointHit hit : hits) {
+            parts.computeIfAbsent(StatsShards.shardOf(hit.getUri(), shards.size()), shard -> new ArrayList<>())
+                    .add(hit);
+        }
+        List<EndpointHit> own = parts.remove(shardIndex);
+        List<CompletableFuture<Void>> forwarded = new ArrayList<>(parts.size());
+        parts.forEach((shard, part) -> forwarded.add(shardClient.postHits(shards.get(shard), part,
+                key(batchId, shard))));
+        if (!forwarded.isEmpty()) {
+            CompletableFuture.allOf(forwarded.toArray(CompletableFuture[]::new)).join();
+            log.debug("Forwarded {} hits to {} shards", hits.size() - (own == null ? 0 : own.size()), parts.size());
+        }
+        if (own != null) {
+            local.postHits(own, key(batchId, shardIndex));
+        }
+    }
+
+    // same split as postHits, each part going to its shard's own weighted endpoint so it is deduplicated there
+    @Override
+    public void postWeightedHits(List<WeightedHit> hits, String batchId) {
+        Map<Integer, List<WeightedHit>> parts = new TreeMap<>();
+        for (WeightedHit hit : hits) {
+            parts.computeIfAbsent(StatsShards.shardOf(hit.getUri(), shards.size()), shard -> new ArrayList<>())
+                    .add(hit);
+        }
+        List<WeightedHit> own = parts.remove(shardIndex);
+        List<CompletableFuture<Void>> forwarded = new ArrayList<>(parts.size());
+        parts.forEach((shard, part) -> forwarded.add(shardClient.postWeightedHits(shards.get(shard), part,
+                key(batchId, shard))));
+        if (!forwarded.isEmpty()) {
+            CompletableFuture.allOf(forwarded.toArray(CompletableFuture[]::new)).join();
+            log.debug("Forwarded {} weighted hits to {} shards", hits.size() - (own == null ? 0 : own.size()),
+                    parts.size());
+        }
+        if (own != null) {
+            local.postWeightedHits(own, key(batchId, shardIndex));
+        }
+    }
+
+    // every shard's part is keyed the same way, this one's included, whichever shard coordinates the batch
+    private static String key(String batchId, int shard) {
+        return batchId == null ? null : batchId + "#" + shard;
+    }
+
+    @Override
+    public StatsService local() {
+        return local;
+    }
+
+    private List<ViewStats> getGroupUniqueStats(LocalDateTime start, LocalDateTime end, List<String> uris) {
+        List<ViewStats> stats = new ArrayList<>();
+        mergeSketches(start, end, uris).forEach((app, groups) -> groups.forEach((group, sketch) ->
+                stats.add(new ViewStats(app, group, sketch.estimate()))));
+        stats.sort(Comparator.comparing(ViewStats::getHits).reversed());
+        return stats;
+    }
+
+    private Map<String, Map<String, HyperLogLog>> mergeSketches(LocalDateTime start, LocalDateTime end,
+                                                                List<String> uris) {
+        Map<String, Map<String, HyperLogLog>> merged = new LinkedHashMap<>();
+        for (List<VisitorSketch> part : gather(
+                shard -> shardClient.getVisitorSketches(shard, start, end, uris),
+                () -> local.getVisitorSketches(start, end, uris))) {
+            for (VisitorSketch sketch : part) {
+                merged.computeIfAbsent(sketch.getApp(), app -> new LinkedHashMap<>())
+                        .merge(sketch.getUri(), HyperLogLog.fromBytes(sketch.getSketch()), (left, right) -> {
+                            left.merge(right);
+                            return left;
+                        });
+            }
+        }
+        return merged;
+    }
+
+    // remote shards are queried in parallel while this one answers directly; any failed shard fails the query
+    private <T> List<T> gather(Function<String, CompletableFuture<T>> remote, Supplier<T> own) {
+        List<CompletableFuture<T>> pending = new ArrayList<>(shards.size() - 1);
+        for (int shard = 0; shard < shards.size(); shard++) {
+            if (shard != shardIndex) {
+                pending.add(remote.apply(shards.get(shard)));
+            }
+        }
+        List<T> parts = new ArrayList<>(shards.size());
+        parts.add(own.get());
+        for (CompletableFuture<T> part : pending) {
+            parts.add(part.join());
+        }
+        return parts;
+    }
+
+    private static List<ViewStats> sum(List<List<ViewStats>> parts) {
+        Map<String, Map<String, ViewStats>> totals = new LinkedHashMap<>();
+        for (List<ViewStats> part : parts) {
+            for (ViewStats stats : part) {
+                totals.computeIfAbsent(stats.getApp(), app -> new LinkedHashMap<>())
+                        .merge(stats.getUri(), new ViewStats(stats.getApp(), stats.getUri(), stats.getHits()),
+                                (left, right) -> {
+                                    left.setHits(left.getHits() + right.getHits());
+                                    return left;
+                                });
+            }
+        }
+        List<ViewStats> merged = new ArrayList<>();
+        totals.values().forEach(byUri -> merged.addAll(byUri.values()));
+        merged.sort(Comparator.comparing(ViewStats::getHits).reversed());
+        return merged;
+    }
+
+    private static void advance(MappingIterator<HistogramBucket> stream, PriorityQueue<Head> heads) {
+        if (stream.hasNext()) {
+            heads.add(new Head(stream.next(), stream));
+        }
+    }
+
+    private static void close(MappingIterator<HistogramBucket> stream) {
+        try {
+            stream.close();
+        } catch (IOException e) {
+            log.warn("Failed to close shard histogram stream", e);
+        }
+    }
+
+    private record Head(HistogramBucket bucket, MappingIterator<HistogramBucket> stream) {
+    }
+}
@@ -0,0 +1,13 @@
+package ru.practicum.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.LocalDateTime;
+
+public interface StatsArchiveService {
+
+    long exportStats(LocalDateTime start, LocalDateTime end, OutputStream out) throws IOException;
+
+    long importStats(InputStream in) throws IOException;
+}
@@ -0,0 +1,115 @@
+package ru.practicum.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ru.practicum.EndpointHit;
+import ru.practicum.archive.ArchiveReader;
+import ru.practicum.archive.ArchiveWriter;
+import ru.practicum.config.ConditionalOnJpaBackend;
+import ru.practicum.repository.StatsArchiveRepository;
+import ru.practicum.util.IpAddresses;
+import ru.practicum.util.SegmentPlanner;
+import ru.practicum.util.StatsDictionary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+// Only raw rows are exported, so history already compacted into aggregates stays behind. Imported hits go through
+// the regular ingestion path in chunks, which keeps rollups, sketches and bitmaps in step and, in a cluster,
+// routes every hit to the shard that owns its uri. An upload is read through once before anything is stored, so
+// a corrupt archive is refused whole, and every chunk is keyed by the archive digest, so importing the same
+// archive again after a failure only stores the chunks that are missing.
+@Slf4j
+@Service
+@ConditionalOnJpaBackend
+public class StatsArchiveServiceImpl implements StatsArchiveService {
+
+    private static final String ARCHIVE_KEY_PREFIX = "archive-";
+
+    private final StatsArchiveRepository statsArchiveRepository;
+    private final StatsDictionary statsDictionary;
+    private final StatsService statsService;
+    private final int chunkSize;
+
+    public StatsArchiveServiceImpl(StatsArchiveRepository statsArchiveRepository,
+                                   StatsDictionary statsDictionary,
+                                   StatsService statsService,
+                                   @Value("${stats.archive.chunk-size:5000}") int chunkSize) {
+        this.statsArchiveRepository = statsArchiveRepository;
+        this.statsDictionary = statsDictionary;
+        this.statsService = statsService;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public long exportStats(LocalDateTime start, LocalDateTime end, OutputStream out) throws IOException {
+        long startedAt = System.nanoTime();
+        ArchiveWriter writer = new ArchiveWriter(out, statsDictionary::getApp, statsDictionary::getUri);
+        try (writer) {
+            statsArchiveRepository.forEachRaw(start, end == null ? null : SegmentPlanner.toExclusive(end),
+                    writer::write);
+        }
+        log.info("Exported {} stats rows in {} ms", writer.getWritten(), (System.nanoTime() - startedAt) / 1_000_000);
+        return writer.getWritten();
+    }
+
+    @Override
+    public long importStats(InputStream in) throws IOException {
+        long startedAt = System.nanoTime();
+        Path copy = Files.createTempFile("stats-import-", ".ewma");
+        try {
+            String archiveId = copy(in, copy);
+            read(copy, (app, uri, ip, timestamp) -> IpAddresses.toString(ip));
+            List<EndpointHit> chunk = new ArrayList<>(chunkSize);
+            int[] chunks = new int[1];
+            long imported = read(copy, (app, uri, ip, timestamp) -> {
+                chunk.add(new EndpointHit(0, app, uri, IpAddresses.toString(ip), timestamp));
+                if (chunk.size() == chunkSize) {
+                    statsService.postHits(new ArrayList<>(chunk), archiveId + "#" + chunks[0]++);
+                    chunk.clear();
+                }
+            });
+            if (!chunk.isEmpty()) {
+                statsService.postHits(chunk, archiveId + "#" + chunks[0]);
+            }
+            log.info("Imported {} stats rows in {} ms", imported, (System.nanoTime() - startedAt) / 1_000_000);
+            return imported;
+        } finally {
+            Files.deleteIfExists(copy);
+        }
+    }
+
+    private static String copy(InputStream in, Path target) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (OutputStream out = Files.newOutputStream(target)) {
+            new DigestInputStream(in, digest).transferTo(out);
+        }
+        return ARCHIVE_KEY_PREFIX + HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static long read(Path archive, ArchiveReader.RowConsumer consumer) throws IOException {
+        try (ArchiveReader reader = new ArchiveReader(Files.newInputStream(archive))) {
+            boolean more = true;
+            while (more) {
+                more = reader.readBlock(consumer);
+            }
+            return reader.getRead();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package ru.practicum.service;
+
+import ru.practicum.ViewStats;
+import ru.practicum.enums.UniqueMode;
+import ru.practicum.model.Stats;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Supplier;
+
+public interface StatsCacheService {
+
+    List<ViewStats> getStats(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                             UniqueMode mode, Supplier<List<ViewStats>> loader);
+
+    void beginWrite(List<Stats> batch);
+
+    void completeWrite(List<Stats> batch, boolean committed);
+
+    void clear();
+}
@@ -0,0 +1,352 @@
+package ru.practicum.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import ru.practicum.ViewStats;
+import ru.practicum.config.ConditionalOnJpaBackend;
+import ru.practicum.enums.UniqueMode;
+import ru.practicum.model.Stats;
+import ru.practicum.repository.StatsRepository;
+import ru.practicum.util.CompactionWatermark;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+@Slf4j
+@Service
+@ConditionalOnJpaBackend
+public class StatsCacheServiceImpl implements StatsCacheService {
+
+    private static final char SEPARATOR = '\n';
+
+    private final StatsRepository statsRepository;
+    private final CompactionWatermark compactionWatermark;
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long maxRows;
+    private final LinkedHashMap<CacheKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Set<CacheKey>> byUri = new HashMap<>();
+    private final Set<CacheKey> allUris = new HashSet<>();
+    private final Set<Load> loads = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<List<Stats>> inFlight = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter bypassCounter;
+    private final Counter evictionCounter;
+    private long rows;
+    private boolean earliestKnown;
+    private LocalDateTime earliest;
+
+    public StatsCacheServiceImpl(StatsRepository statsRepository,
+                                 CompactionWatermark compactionWatermark,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${stats.cache.enabled:true}") boolean enabled,
+                                 @Value("${stats.cache.max-entries:10000}") int maxEntries,
+                                 @Value("${stats.cache.max-rows:1000000}") long maxRows) {
+        this.statsRepository = statsRepository;
+        this.compactionWatermark = compactionWatermark;
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.maxRows = maxRows;
+        this.hitCounter = Counter.builder("stats.cache.requests").tag("result", "hit")
+                .register(meterRegistry);
+        this.missCounter = Counter.builder("stats.cache.requests").tag("result", "miss")
+                .register(meterRegistry);
+        this.bypassCounter = Counter.builder("stats.cache.requests").tag("result", "bypass")
+                .register(meterRegistry);
+        this.evictionCounter = Counter.builder("stats.cache.evictions")
+                .register(meterRegistry);
+        Gauge.builder("stats.cache.entries", this, cache -> cache.size(() -> cache.entries.size()))
+                .register(meterRegistry);
+        Gauge.builder("stats.cache.rows", this, cache -> cache.size(() -> cache.rows))
+                .register(meterRegistry);
+        Gauge.builder("stats.cache.hit.ratio", this, cache -> {
+            double lookups = cache.hitCounter.count() + cache.missCounter.count();
+            return lookups == 0 ? 0 : cache.hitCounter.count() / lookups;
+        }).register(meterRegistry);
+    }
+
+    @Override
+    public List<ViewStats> getStats(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                                    UniqueMode mode, Supplier<List<ViewStats>> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        List<String> uriSet = uris == null || uris.isEmpty() ? null : List.copyOf(new TreeSet<>(uris));
+        LocalDateTime openEnd = end.isBefore(LocalDateTime.now()) ? end : null;
+        Load load;
+        lock.lock();
+        try {
+            if (!earliestKnown) {
+                earliest = compactionWatermark.earliest(statsRepository.getEarliestTimestamp());
+                earliestKnown = true;
+            }
+            CacheKey key = new CacheKey(earliest == null || !start.isAfter(earliest) ? null : start, openEnd,
+                    uriSet, unique, unique ? mode : null);
+            load = new Load(key);
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hitCounter.increment();
+                return entry.toViewStats();
+            }
+            missCounter.increment();
+            for (List<Stats> batch : inFlight) {
+                load.dirty |= affects(key, batch);
+            }
+            loads.add(load);
+        } finally {
+            lock.unlock();
+        }
+
+        List<ViewStats> result;
+        try {
+            result = loader.get();
+        } finally {
+            lock.lock();
+            try {
+                loads.remove(load);
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (load.dirty || result.size() > maxRows) {
+            bypassCounter.increment();
+            return result;
+        }
+        lock.lock();
+        try {
+            if (!load.dirty && !entries.containsKey(load.key)) {
+                put(load.key, new Entry(result, unique));
+            }
+        } finally {
+            lock.unlock();
+        }
+        return result;
+    }
+
+    @Override
+    public void beginWrite(List<Stats> batch) {
+        if (!enabled) {
+            return;
+        }
+        lock.lock();
+        try {
+            inFlight.add(batch);
+            for (Load load : loads) {
+                load.dirty |= affects(load.key, batch);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void completeWrite(List<Stats> batch, boolean committed) {
+        if (!enabled) {
+            return;
+        }
+        lock.lock();
+        try {
+            inFlight.remove(batch);
+            if (!committed) {
+                return;
+            }
+            for (Stats hit : batch) {
+                if (earliestKnown && (earliest == null || hit.getTimestamp().isBefore(earliest))) {
+                    earliest = hit.getTimestamp();
+                }
+                apply(hit, byUri.get(hit.getUri()));
+                apply(hit, allUris);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            int cleared = entries.size();
+            entries.clear();
+            byUri.clear();
+            allUris.clear();
+            rows = 0;
+            earliestKnown = false;
+            for (Load load : loads) {
+                load.dirty = true;
+            }
+            log.info("Cleared {} cached stats results", cleared);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void apply(Stats hit, Set<CacheKey> keys) {
+        if (keys == null || keys.isEmpty()) {
+            return;
+        }
+        for (CacheKey key : new ArrayList<>(keys)) {
+            if (!key.contains(hit.getTimestamp())) {
+                continue;
+            }
+            if (key.unique()) {
+                remove(key);
+                continue;
+            }
+            Entry entry = entries.get(key);
+            if (entry.add(hit.getApp(), hit.getUri())) {
+                rows++;
+            }
+        }
+    }
+
+    private boolean affects(CacheKey key, List<Stats> batch) {
+        for (Stats hit : batch) {
+            if (key.contains(hit.getTimestamp()) && (key.uris() == null || key.uris().contains(hit.getUri()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void put(CacheKey key, Entry entry) {
+        entries.put(key, entry);
+        rows += entry.size();
+        if (key.uris() == null) {
+            allUris.add(key);
+        } else {
+            for (String uri : key.uris()) {
+                byUri.computeIfAbsent(uri, k -> new HashSet<>()).add(key);
+            }
+        }
+        Iterator<Map.Entry<CacheKey, Entry>> eldest = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || rows > maxRows) && eldest.hasNext()) {
+            Map.Entry<CacheKey, Entry> victim = eldest.next();
+            if (victim.getKey().equals(key)) {
+                break;
+            }
+            rows -= victim.getValue().size();
+            eldest.remove();
+            unindex(victim.getKey());
+            evictionCounter.increment();
+        }
+    }
+
+    private void remove(CacheKey key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            rows -= entry.size();
+            unindex(key);
+        }
+    }
+
+    private void unindex(CacheKey key) {
+        if (key.uris() == null) {
+            allUris.remove(key);
+        } else {
+            for (String uri : key.uris()) {
+                Set<CacheKey> keys = byUri.get(uri);
+                if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                    byUri.remove(uri);
+                }
+            }
+        }
+    }
+
+    private double size(Supplier<Number> size) {
+        lock.lock();
+        try {
+            return size.get().doubleValue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private record CacheKey(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                            UniqueMode mode) {
+
+        boolean contains(LocalDateTime timestamp) {
+            return (start == null || !timestamp.isBefore(start)) && (end == null || !timestamp.isAfter(end));
+        }
+    }
+
+    private static final class Load {
+        private final CacheKey key;
+        private boolean dirty;
+
+        Load(CacheKey key) {
+            this.key = key;
+        }
+    }
+
+    private static final class Entry {
+        private final List<ViewStats> snapshot;
+        private final Map<String, long[]> counts;
+
+        Entry(List<ViewStats> stats, boolean unique) {
+            if (unique) {
+                snapshot = new ArrayList<>(stats.size());
+                for (ViewStats viewStats : stats) {
+                    snapshot.add(new ViewStats(viewStats.getApp(), viewStats.getUri(), viewStats.getHits()));
+                }
+                counts = null;
+                return;
+            }
+            snapshot = null;
+            counts = new HashMap<>(stats.size() * 2);
+            for (ViewStats viewStats : stats) {
+                counts.merge(viewStats.getApp() + SEPARATOR + viewStats.getUri(), new long[]{viewStats.getHits()},
+                        (count, next) -> new long[]{count[0] + next[0]});
+            }
+        }
+
+        int size() {
+            return snapshot != null ? snapshot.size() : counts.size();
+        }
+
+        boolean add(String app, String uri) {
+            long[] count = counts.get(app + SEPARATOR + uri);
+            if (count != null) {
+                count[0]++;
+                return false;
+            }
+            counts.put(app + SEPARATOR + uri, new long[]{1});
+            return true;
+        }
+
+        List<ViewStats> toViewStats() {
+            List<ViewStats> result = new ArrayList<>(size());
+            if (snapshot != null) {
+                for (ViewStats viewStats : snapshot) {
+                    result.add(new ViewStats(viewStats.getApp(), viewStats.getUri(), viewStats.getHits()));
+                }
+                return result;
+            }
+            counts.forEach((item, count) -> {
+                int separator = item.indexOf(SEPARATOR);
+                result.add(new ViewStats(item.substring(0, separator), item.substring(separator + 1), count[0]));
+            });
+            result.sort(Comparator.comparing(ViewStats::getHits).reversed());
+            return result;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package ru.practicum.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import ru.practicum.config.ConditionalOnJpaBackend;
+import ru.practicum.model.Stats;
+import ru.practicum.repository.LegacyStatsRepository;
+import ru.practicum.util.IpAddresses;
+
+import java.util.List;
+
+@Slf4j
+@Service
+@ConditionalOnJpaBackend
+public class StatsMigrationServiceImpl implements StatsMigrationService {
+
+    private final LegacyStatsRepository legacyStatsRepository;
+    private final HitIngestionService hitIngestionService;
+    private final String legacyTable;
+    private final int chunkSize;
+
+    public StatsMigrationServiceImpl(LegacyStatsRepository legacyStatsRepository,
+                                     HitIngestionService hitIngestionService,
+                                     @Value("${stats.migration.legacy-table:}") String legacyTable,
+                                     @Value("${stats.migration.chunk-size:5000}") int chunkSize) {
+        this.legacyStatsRepository = legacyStatsRepository;
+        this.hitIngestionService = hitIngestionService;
+        this.legacyTable = legacyTable;
+        this.chunkSize = chunkSize;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        if (legacyTable.isBlank()) {
+            return;
+        }
+        if (!legacyTable.matches("[A-Za-z_][A-Za-z0-9_]*")) {
+            log.error("Invalid legacy stats table name: {}", legacyTable);
+            return;
+        }
+        if (!legacyStatsRepository.exists(legacyTable)) {
+            log.warn("Legacy stats table {} not found, nothing to migrate", legacyTable);
+            return;
+        }
+        migrateLegacyStats();
+    }
+
+    // every chunk is written synchronously together with its resume point, so a restart or a second run with the
+    // table still configured continues after the last stored chunk instead of ingesting the table again
+    @Override
+    public long migrateLegacyStats() {
+        long lastId = legacyStatsRepository.findLastId(legacyTable);
+        if (lastId > 0) {
+            log.info("Resuming migration from legacy table {} after id {}", legacyTable, lastId);
+        } else {
+            log.info("Migrating stats from legacy table {}", legacyTable);
+        }
+        long migrated = 0;
+        List<Stats> chunk = legacyStatsRepository.findChunk(legacyTable, lastId, chunkSize);
+        while (!chunk.isEmpty()) {
+            long chunkLastId = chunk.getLast().getId();
+            for (Stats stats : chunk) {
+                stats.setId(null);
+                stats.setIp(IpAddresses.normalize(stats.getIp()));
+            }
+            hitIngestionService.ingestAll(chunk, () -> legacyStatsRepository.saveLastId(legacyTable, chunkLastId));
+            lastId = chunkLastId;
+            migrated += chunk.size();
+            log.info("Migrated {} stats rows, last legacy id {}", migrated, lastId);
+            chunk = legacyStatsRepository.findChunk(legacyTable, lastId, chunkSize);
+        }
+        log.info("Migration from {} finished: {} rows. The legacy table can now be dropped", legacyTable, migrated);
+        return migrated;
+    }
+}
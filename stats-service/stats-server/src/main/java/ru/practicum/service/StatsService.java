@@ -1,14 +1,59 @@
 package ru.practicum.service;
 
 import ru.practicum.EndpointHit;
+import ru.practicum.HistogramBucket;
 import ru.practicum.ViewStats;
+import ru.practicum.WeightedHit;
+import ru.practicum.enums.Granularity;
+import ru.practicum.enums.UniqueMode;
+import ru.practicum.enums.UriGrouping;
+import ru.practicum.model.VisitorSketch;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface StatsService {
 
-    List<ViewStats> getStats(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique);
+    List<ViewStats> getStats(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                             UniqueMode mode, UriGrouping groupBy);
+
+    // rows are handed to the consumer as they are produced where the backend can do it, otherwise after getStats
+    default void streamStats(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                             UniqueMode mode, UriGrouping groupBy, Consumer<ViewStats> consumer) {
+        getStats(start, end, uris, unique, mode, groupBy).forEach(consumer);
+    }
+
+    // refuses a query the stored data can not answer as asked, before any of the response is written
+    default void checkStats(LocalDateTime start, LocalDateTime end, boolean unique, UniqueMode mode) {
+    }
+
+    default void checkHistogram(LocalDateTime start, LocalDateTime end, Granularity interval, boolean unique,
+                                UniqueMode mode) {
+    }
+
+    List<ViewStats> getTopHits(LocalDateTime start, LocalDateTime end, int limit, boolean exact);
+
+    void streamHistogram(LocalDateTime start, LocalDateTime end, List<String> uris, Granularity interval,
+                         boolean unique, UniqueMode mode, Consumer<HistogramBucket> consumer);
+
+    List<VisitorSketch> getVisitorSketches(LocalDateTime start, LocalDateTime end, List<String> uris);
+
+    double getApproximationError();
 
     void postHit(EndpointHit hit);
+
+    void postHits(List<EndpointHit> hits);
+
+    default void postHits(List<EndpointHit> hits, String batchId) {
+        postHits(hits);
+    }
+
+    // each weighted hit is stored as count hits, but deduplicated as the single hit it stands for
+    void postWeightedHits(List<WeightedHit> hits, String batchId);
+
+    // the part of the data this instance stores itself, which is all of it unless it is a cluster shard
+    default StatsService local() {
+        return this;
+    }
 }
@@ -5,46 +5,373 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 import ru.practicum.EndpointHit;
+import ru.practicum.HistogramBucket;
 import ru.practicum.ViewStats;
+import ru.practicum.WeightedHit;
+import ru.practicum.config.ConditionalOnJpaBackend;
+import ru.practicum.enums.Granularity;
+import ru.practicum.enums.UniqueMode;
+import ru.practicum.enums.UriGrouping;
 import ru.practicum.mapper.StatsMapper;
 import ru.practicum.model.Stats;
+import ru.practicum.model.TimeSegment;
+import ru.practicum.model.VisitorKey;
+import ru.practicum.model.VisitorSketch;
 import ru.practicum.repository.StatsRepository;
+import ru.practicum.repository.StatsStreamRepository;
+import ru.practicum.util.CompactionWatermark;
+import ru.practicum.util.HitDeduplicator;
+import ru.practicum.util.HitLogSampler;
+import ru.practicum.util.SegmentPlanner;
+import ru.practicum.util.StatsDictionary;
+import ru.practicum.util.StatsQueryMetrics;
+import ru.practicum.util.UriPatterns;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
+@ConditionalOnJpaBackend
 @RequiredArgsConstructor
 public class StatsServiceImpl implements StatsService {
 
     private final StatsRepository statsRepository;
+    private final StatsStreamRepository statsStreamRepository;
+    private final HitIngestionService hitIngestionService;
+    private final RollupService rollupService;
+    private final UniqueSketchService uniqueSketchService;
+    private final VisitorBitmapService visitorBitmapService;
+    private final TopHitsService topHitsService;
+    private final HistogramService histogramService;
+    private final StatsCacheService statsCacheService;
+    private final StatsDictionary statsDictionary;
+    private final CompactionWatermark compactionWatermark;
+    private final StatsQueryMetrics statsQueryMetrics;
+    private final HitLogSampler hitLogSampler;
+    private final HitDeduplicator hitDeduplicator;
+
+    private static final int URI_CHUNK_SIZE = 1000;
 
     private static final Logger log = LoggerFactory.getLogger(StatsServiceImpl.class);
 
     @Override
     public void postHit(EndpointHit hit) {
-        log.info("Posting hit: {}", hit);
+        if (log.isDebugEnabled() && hitLogSampler.sample()) {
+            log.debug("Posting hit: {}", hit);
+        }
         Stats stats = StatsMapper.toStats(hit);
-        log.info("New hit was created");
-        statsRepository.save(stats);
+        if (isDuplicate(stats)) {
+            return;
+        }
+        try {
+            hitIngestionService.ingest(stats);
+        } catch (RuntimeException e) {
+            release(List.of(stats));
+            throw e;
+        }
+    }
+
+    @Override
+    public void postHits(List<EndpointHit> hits) {
+        postHits(hits, null);
+    }
+
+    @Override
+    public void postHits(List<EndpointHit> hits, String batchId) {
+        if (log.isDebugEnabled() && hitLogSampler.sample()) {
+            log.debug("Posting batch of {} hits", hits.size());
+        }
+        List<Stats> stats = hits.stream()
+                .map(StatsMapper::toStats)
+                .filter(hit -> !isDuplicate(hit))
+                .collect(Collectors.toList());
+        if (stats.size() < hits.size()) {
+            log.debug("Dropped {} duplicate hits from batch", hits.size() - stats.size());
+        }
+        if (stats.isEmpty()) {
+            return;
+        }
+        try {
+            hitIngestionService.ingestAll(stats, batchId);
+        } catch (RuntimeException e) {
+            release(stats);
+            throw e;
+        }
+    }
+
+    @Override
+    public void postWeightedHits(List<WeightedHit> hits, String batchId) {
+        if (log.isDebugEnabled() && hitLogSampler.sample()) {
+            log.debug("Posting batch of {} weighted hits", hits.size());
+        }
+        List<Stats> kept = new ArrayList<>(hits.size());
+        List<Stats> stats = new ArrayList<>();
+        for (WeightedHit hit : hits) {
+            Stats first = StatsMapper.toStats(hit);
+            if (isDuplicate(first)) {
+                continue;
+            }
+            kept.add(first);
+            stats.add(first);
+            for (int i = 1; i < hit.getCount(); i++) {
+                stats.add(Stats.builder()
+                        .app(first.getApp())
+                        .uri(first.getUri())
+                        .ip(first.getIp())
+                        .timestamp(first.getTimestamp())
+                        .build());
+            }
+        }
+        if (kept.size() < hits.size()) {
+            log.debug("Dropped {} duplicate weighted hits from batch", hits.size() - kept.size());
+        }
+        if (stats.isEmpty()) {
+            return;
+        }
+        try {
+            hitIngestionService.ingestAll(stats, batchId);
+        } catch (RuntimeException e) {
+            release(kept);
+            throw e;
+        }
+    }
+
+    private boolean isDuplicate(Stats stats) {
+        return hitDeduplicator.isDuplicate(stats.getApp(), stats.getUri(), stats.getIp(), stats.getTimestamp());
+    }
+
+    // hits are marked as seen before they are stored, so a failed write unmarks them for the client's retry
+    private void release(List<Stats> stats) {
+        for (Stats hit : stats) {
+            hitDeduplicator.release(hit.getApp(), hit.getUri(), hit.getIp(), hit.getTimestamp());
+        }
+    }
+
+    @Override
+    public List<ViewStats> getStats(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                                    UniqueMode mode, UriGrouping groupBy) {
+        if (!UriPatterns.containsPattern(uris)) {
+            return statsCacheService.getStats(start, end, uris, unique, mode,
+                    () -> getStatsForUris(start, end, uris, unique, mode));
+        }
+
+        Map<String, List<String>> groups = new LinkedHashMap<>();
+        for (String uri : uris) {
+            groups.computeIfAbsent(uri, key -> UriPatterns.isPattern(key)
+                    ? statsDictionary.findUrisByPrefix(UriPatterns.prefix(key))
+                    : List.of(key));
+        }
+        log.debug("Uri patterns {} are expanded to {} uris", uris,
+                groups.values().stream().mapToInt(List::size).sum());
+
+        List<ViewStats> result = new ArrayList<>();
+        if (groupBy == UriGrouping.PREFIX) {
+            groups.forEach((group, matches) -> result.addAll(getGroupStats(start, end, group, matches, unique, mode)));
+        } else {
+            List<String> expanded = groups.values().stream()
+                    .flatMap(List::stream)
+                    .distinct()
+                    .collect(Collectors.toList());
+            for (List<String> chunk : chunks(expanded)) {
+                result.addAll(getStatsForUris(start, end, chunk, unique, mode));
+            }
+        }
+        result.sort(Comparator.comparing(ViewStats::getHits).reversed());
+        return result;
     }
 
+    // Without uris the result grows with the dictionary, so it goes through a database cursor and is never held
+    // in memory; uri lists, patterns and aggregates before the compaction watermark keep the bounded list path
     @Override
-    public List<ViewStats> getStats(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique) {
+    public void streamStats(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                            UniqueMode mode, UriGrouping groupBy, Consumer<ViewStats> consumer) {
+        if (uris != null && !uris.isEmpty()) {
+            StatsService.super.streamStats(start, end, uris, unique, mode, groupBy, consumer);
+            return;
+        }
+        long startedAt = System.nanoTime();
+        long[] rows = new long[1];
+        Consumer<ViewStats> counted = stats -> {
+            rows[0]++;
+            consumer.accept(stats);
+        };
+        if (!unique) {
+            List<TimeSegment> segments = rollupService.isEnabled()
+                    ? rollupService.plan(start, end)
+                    : List.of(new TimeSegment(null, start, SegmentPlanner.toExclusive(end)));
+            log.debug("Stats are streamed from {} segments", segments.size());
+            statsStreamRepository.forEachHits(segments, counted);
+            statsQueryMetrics.record("stream", false, uris, startedAt, rows[0]);
+            return;
+        }
+        if (compactionWatermark.uniqueMode(start, mode, visitorBitmapService.isEnabled()) == UniqueMode.EXACT) {
+            log.debug("Stats with unique ip are streamed");
+            statsStreamRepository.forEachUniqueHits(start, SegmentPlanner.toExclusive(end), counted);
+            statsQueryMetrics.record("stream", true, uris, startedAt, rows[0]);
+            return;
+        }
+        StatsService.super.streamStats(start, end, uris, unique, mode, groupBy, consumer);
+    }
+
+    private List<ViewStats> getGroupStats(LocalDateTime start, LocalDateTime end, String group, List<String> matches,
+                                          boolean unique, UniqueMode mode) {
+        Map<String, Long> hits = new HashMap<>();
+        statsDictionary.resolveUris(matches);
+        if (unique) {
+            Map<String, Set<String>> visitors = new HashMap<>();
+            LocalDateTime to = SegmentPlanner.toExclusive(end);
+            for (List<String> chunk : chunks(matches)) {
+                for (VisitorKey visitor : statsQueryMetrics.record("visitors", true, chunk,
+                        () -> statsRepository.getVisitorsInRangeByUris(start, to, chunk))) {
+                    visitors.computeIfAbsent(visitor.getApp(), app -> new HashSet<>()).add(visitor.getIp());
+                }
+            }
+            visitors.forEach((app, ips) -> hits.put(app, (long) ips.size()));
+        } else {
+            for (List<String> chunk : chunks(matches)) {
+                for (ViewStats stats : getStatsForUris(start, end, chunk, false, mode)) {
+                    hits.merge(stats.getApp(), stats.getHits(), Long::sum);
+                }
+            }
+        }
+        List<ViewStats> result = new ArrayList<>(hits.size());
+        hits.forEach((app, count) -> result.add(new ViewStats(app, group, count)));
+        return result;
+    }
+
+    private static List<List<String>> chunks(List<String> uris) {
+        List<List<String>> chunks = new ArrayList<>();
+        for (int from = 0; from < uris.size(); from += URI_CHUNK_SIZE) {
+            chunks.add(uris.subList(from, Math.min(uris.size(), from + URI_CHUNK_SIZE)));
+        }
+        return chunks;
+    }
+
+    private List<ViewStats> getStatsForUris(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                                            UniqueMode mode) {
+        statsDictionary.resolveUris(uris);
+        if (unique) {
+            mode = compactionWatermark.uniqueMode(start, mode, visitorBitmapService.isEnabled());
+        }
+
+        if (unique && mode == UniqueMode.APPROXIMATE && uniqueSketchService.isEnabled()) {
+            log.debug("Approximate stats with unique ip is found in sketches");
+            return statsQueryMetrics.record("sketch", true, uris,
+                    () -> uniqueSketchService.getUniqueHits(start, end, uris));
+        }
+
+        if (unique && mode == UniqueMode.BITMAP && visitorBitmapService.isEnabled()) {
+            log.debug("Exact stats with unique ip is found in visitor bitmaps");
+            return statsQueryMetrics.record("bitmap", true, uris,
+                    () -> visitorBitmapService.getUniqueHits(start, end, uris));
+        }
+
+        if (!unique && rollupService.isEnabled()) {
+            log.debug("Stats for these uris is found in rollups");
+            return statsQueryMetrics.record("rollup", false, uris, () -> rollupService.getHits(start, end, uris));
+        }
 
         if (uris == null || uris.isEmpty()) {
             if (unique) {
-                return statsRepository.getAllUniqueStats(start, end);
+                return statsQueryMetrics.record("raw", true, uris,
+                        () -> statsRepository.getAllUniqueStats(start, end));
             } else {
-                return statsRepository.getAllStats(start, end);
+                return statsQueryMetrics.record("raw", false, uris, () -> statsRepository.getAllStats(start, end));
             }
         }
 
         if (unique) {
-            log.info("Stats with unique ip for these uris is found");
-            return statsRepository.getAllUniqueStatsInUris(start, end, uris);
+            log.debug("Stats with unique ip for these uris is found");
+            return statsQueryMetrics.record("raw", true, uris,
+                    () -> statsRepository.getAllUniqueStatsInUris(start, end, uris));
         } else
-            log.info("Stats for these uris is found");
-        return statsRepository.getStatsByUris(start, end, uris);
+            log.debug("Stats for these uris is found");
+        return statsQueryMetrics.record("raw", false, uris, () -> statsRepository.getStatsByUris(start, end, uris));
+    }
+
+    @Override
+    public void checkStats(LocalDateTime start, LocalDateTime end, boolean unique, UniqueMode mode) {
+        compactionWatermark.checkRange(start, end);
+        if (unique) {
+            compactionWatermark.uniqueMode(start, mode, visitorBitmapService.isEnabled());
+        }
+    }
+
+    // compacted histogram buckets only count visitors in sketches
+    @Override
+    public void checkHistogram(LocalDateTime start, LocalDateTime end, Granularity interval, boolean unique,
+                               UniqueMode mode) {
+        compactionWatermark.checkRange(start, end, interval);
+        if (unique) {
+            compactionWatermark.uniqueMode(start, mode, false);
+        }
+    }
+
+    @Override
+    public List<ViewStats> getTopHits(LocalDateTime start, LocalDateTime end, int limit, boolean exact) {
+        if (topHitsService.isEnabled()) {
+            log.debug("Top {} uris is found in heavy-hitter summaries", limit);
+            return topHitsService.getTopHits(start, end, limit, exact);
+        }
+        List<ViewStats> stats = rollupService.isEnabled()
+                ? rollupService.getHits(start, end, null)
+                : statsRepository.getAllStats(start, end);
+        return stats.stream()
+                .sorted(Comparator.comparing(ViewStats::getHits).reversed())
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public void streamHistogram(LocalDateTime start, LocalDateTime end, List<String> uris, Granularity interval,
+                                boolean unique, UniqueMode mode, Consumer<HistogramBucket> consumer) {
+        if (UriPatterns.containsPattern(uris)) {
+            uris = uris.stream()
+                    .flatMap(uri -> UriPatterns.isPattern(uri)
+                            ? statsDictionary.findUrisByPrefix(UriPatterns.prefix(uri)).stream()
+                            : Stream.of(uri))
+                    .distinct()
+                    .collect(Collectors.toList());
+            if (uris.isEmpty()) {
+                return;
+            }
+        }
+        log.debug("Histogram per {} is streamed", interval);
+        histogramService.streamHistogram(start, end, uris, interval, unique, mode, consumer);
+    }
+
+    @Override
+    public List<VisitorSketch> getVisitorSketches(LocalDateTime start, LocalDateTime end, List<String> uris) {
+        List<VisitorSketch> result = new ArrayList<>();
+        for (String uri : uris) {
+            List<String> matches = UriPatterns.isPattern(uri)
+                    ? statsDictionary.findUrisByPrefix(UriPatterns.prefix(uri))
+                    : List.of(uri);
+            if (matches.isEmpty()) {
+                continue;
+            }
+            statsDictionary.resolveUris(matches);
+            for (List<String> chunk : chunks(matches)) {
+                uniqueSketchService.getSketchesByApp(start, end, chunk).forEach((app, sketch) ->
+                        result.add(new VisitorSketch(app, uri, sketch.toBytes())));
+            }
+        }
+        log.debug("Visitor sketches for {} uri groups are found", uris.size());
+        return result;
+    }
+
+    @Override
+    public double getApproximationError() {
+        return uniqueSketchService.isEnabled() ? uniqueSketchService.getRelativeError() : 0;
     }
 }
@@ -0,0 +1,18 @@
+package ru.practicum.service;
+
+import ru.practicum.ViewStats;
+import ru.practicum.model.Stats;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface TopHitsService {
+
+    boolean isEnabled();
+
+    void record(List<Stats> stats);
+
+    void flush();
+
+    List<ViewStats> getTopHits(LocalDateTime start, LocalDateTime end, int limit, boolean exact);
+}
@@ -0,0 +1,223 @@
+package ru.practicum.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.ViewStats;
+import ru.practicum.config.ConditionalOnJpaBackend;
+import ru.practicum.enums.Granularity;
+import ru.practicum.model.Stats;
+import ru.practicum.model.TimeSegment;
+import ru.practicum.repository.StatsRepository;
+import ru.practicum.repository.TopHitsRepository;
+import ru.practicum.sketch.SpaceSaving;
+import ru.practicum.util.CompactionWatermark;
+import ru.practicum.util.StatsDictionary;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+@Slf4j
+@Service
+@ConditionalOnJpaBackend
+public class TopHitsServiceImpl implements TopHitsService {
+
+    private static final List<Granularity> LEVELS = List.of(Granularity.HOUR, Granularity.DAY);
+    private static final char SEPARATOR = '\n';
+
+    private final TopHitsRepository topHitsRepository;
+    private final StatsRepository statsRepository;
+    private final RollupService rollupService;
+    private final StatsDictionary statsDictionary;
+    private final CompactionWatermark compactionWatermark;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int capacity;
+    private final Map<Granularity, ConcurrentHashMap<LocalDateTime, SpaceSaving>> pending =
+            new EnumMap<>(Granularity.class);
+    private final ReadWriteLock flushLock = new ReentrantReadWriteLock();
+
+    public TopHitsServiceImpl(TopHitsRepository topHitsRepository,
+                              StatsRepository statsRepository,
+                              RollupService rollupService,
+                              StatsDictionary statsDictionary,
+                              CompactionWatermark compactionWatermark,
+                              TransactionTemplate transactionTemplate,
+                              @Value("${stats.top.enabled:true}") boolean enabled,
+                              @Value("${stats.top.capacity:1000}") int capacity) {
+        this.topHitsRepository = topHitsRepository;
+        this.statsRepository = statsRepository;
+        this.rollupService = rollupService;
+        this.statsDictionary = statsDictionary;
+        this.compactionWatermark = compactionWatermark;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+        this.capacity = capacity;
+        for (Granularity granularity : LEVELS) {
+            pending.put(granularity, new ConcurrentHashMap<>());
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void record(List<Stats> stats) {
+        if (!enabled) {
+            return;
+        }
+        for (Granularity granularity : LEVELS) {
+            Map<LocalDateTime, Map<String, Long>> buckets = new HashMap<>();
+            for (Stats hit : stats) {
+                buckets.computeIfAbsent(granularity.floor(hit.getTimestamp()), k -> new HashMap<>())
+                        .merge(item(hit.getApp(), hit.getUri()), 1L, Long::sum);
+            }
+            buckets.forEach((bucket, counts) -> pending.get(granularity).compute(bucket, (k, summary) -> {
+                SpaceSaving result = summary == null ? new SpaceSaving(capacity) : summary;
+                counts.forEach(result::add);
+                return result;
+            }));
+        }
+    }
+
+    @Override
+    @PreDestroy
+    @Scheduled(fixedDelayString = "${stats.top.flush-interval-ms:5000}")
+    public void flush() {
+        if (!enabled) {
+            return;
+        }
+        flushLock.writeLock().lock();
+        try {
+            int flushed = 0;
+            int failed = 0;
+            for (Granularity granularity : LEVELS) {
+                ConcurrentHashMap<LocalDateTime, SpaceSaving> summaries = pending.get(granularity);
+                for (LocalDateTime bucket : new ArrayList<>(summaries.keySet())) {
+                    SpaceSaving summary = summaries.remove(bucket);
+                    if (summary == null) {
+                        continue;
+                    }
+                    try {
+                        transactionTemplate.executeWithoutResult(status -> {
+                            SpaceSaving merged = new SpaceSaving(capacity);
+                            merged.merge(summary);
+                            topHitsRepository.findSummary(granularity, bucket)
+                                    .map(SpaceSaving::fromBytes)
+                                    .ifPresent(merged::merge);
+                            topHitsRepository.saveSummary(granularity, bucket, merged.toBytes());
+                        });
+                        flushed++;
+                    } catch (RuntimeException e) {
+                        // the counts go back and are merged with whatever arrived for the bucket since
+                        summaries.merge(bucket, summary, (current, unsaved) -> {
+                            current.merge(unsaved);
+                            return current;
+                        });
+                        failed++;
+                        log.warn("Failed to flush top hits summary of {} per {}: {}", bucket, granularity,
+                                e.getMessage());
+                    }
+                }
+            }
+            if (flushed > 0) {
+                log.debug("Flushed {} top hits summaries", flushed);
+            }
+            if (failed > 0) {
+                log.error("Failed to flush {} top hits summaries, keeping them for the next flush", failed);
+            }
+        } finally {
+            flushLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<ViewStats> getTopHits(LocalDateTime start, LocalDateTime end, int limit, boolean exact) {
+        SpaceSaving total = new SpaceSaving(capacity);
+        flushLock.readLock().lock();
+        try {
+            for (TimeSegment segment : compactionWatermark.plan(start, end, LEVELS)) {
+                if (segment.isRaw()) {
+                    Map<String, Long> counts = new HashMap<>();
+                    for (ViewStats stats : getHits(segment.getFrom(), segment.getTo())) {
+                        counts.put(item(stats.getApp(), stats.getUri()), stats.getHits());
+                    }
+                    total.merge(SpaceSaving.ofExact(capacity, counts));
+                    continue;
+                }
+                topHitsRepository.forEachSummary(segment.getGranularity(), segment.getFrom(), segment.getTo(),
+                        bytes -> total.merge(SpaceSaving.fromBytes(bytes)));
+                pending.get(segment.getGranularity()).forEach((bucket, summary) -> {
+                    if (!bucket.isBefore(segment.getFrom()) && bucket.isBefore(segment.getTo())) {
+                        pending.get(segment.getGranularity()).computeIfPresent(bucket, (k, current) -> {
+                            total.merge(current);
+                            return current;
+                        });
+                    }
+                });
+            }
+        } finally {
+            flushLock.readLock().unlock();
+        }
+
+        if (!exact) {
+            List<ViewStats> result = new ArrayList<>(limit);
+            for (SpaceSaving.Entry entry : total.top(limit)) {
+                result.add(toViewStats(entry.item(), entry.count()));
+            }
+            return result;
+        }
+
+        Set<String> candidates = new HashSet<>();
+        Set<String> uris = new HashSet<>();
+        for (SpaceSaving.Entry entry : total.top(Math.min(capacity, limit * 2))) {
+            candidates.add(entry.item());
+            uris.add(entry.item().substring(entry.item().indexOf(SEPARATOR) + 1));
+        }
+        if (uris.isEmpty()) {
+            return List.of();
+        }
+        List<String> uriList = new ArrayList<>(uris);
+        statsDictionary.resolveUris(uriList);
+        List<ViewStats> counted = rollupService.isEnabled()
+                ? rollupService.getHits(start, end, uriList)
+                : statsRepository.getStatsByUris(start, end, uriList);
+        return counted.stream()
+                .filter(stats -> candidates.contains(item(stats.getApp(), stats.getUri())))
+                .sorted(Comparator.comparing(ViewStats::getHits).reversed())
+                .limit(limit)
+                .toList();
+    }
+
+    private List<ViewStats> getHits(LocalDateTime from, LocalDateTime to) {
+        if (rollupService.isEnabled()) {
+            return rollupService.getHits(from, to.minus(1, ChronoUnit.MICROS), null);
+        }
+        return statsRepository.getStatsInRange(from, to);
+    }
+
+    private static String item(String app, String uri) {
+        return app + SEPARATOR + uri;
+    }
+
+    private static ViewStats toViewStats(String item, long hits) {
+        int separator = item.indexOf(SEPARATOR);
+        return new ViewStats(item.substring(0, separator), item.substring(separator + 1), hits);
+    }
+}
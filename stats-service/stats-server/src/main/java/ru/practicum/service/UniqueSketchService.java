@@ -0,0 +1,29 @@
+package ru.practicum.service;
+
+import ru.practicum.ViewStats;
+import ru.practicum.enums.Granularity;
+import ru.practicum.model.RollupKey;
+import ru.practicum.model.Stats;
+import ru.practicum.sketch.HyperLogLog;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+public interface UniqueSketchService {
+
+    boolean isEnabled();
+
+    void record(List<Stats> stats);
+
+    void flush();
+
+    List<ViewStats> getUniqueHits(LocalDateTime start, LocalDateTime end, List<String> uris);
+
+    Map<String, HyperLogLog> getSketchesByApp(LocalDateTime start, LocalDateTime end, List<String> uris);
+
+    Map<RollupKey, Long> getUniqueHitsByBucket(Granularity granularity, LocalDateTime from, LocalDateTime to,
+                                               List<String> uris);
+
+    double getRelativeError();
+}
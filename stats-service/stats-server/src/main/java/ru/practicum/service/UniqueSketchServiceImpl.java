@@ -0,0 +1,246 @@
+package ru.practicum.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.ViewStats;
+import ru.practicum.config.ConditionalOnJpaBackend;
+import ru.practicum.enums.Granularity;
+import ru.practicum.model.RollupKey;
+import ru.practicum.model.Stats;
+import ru.practicum.model.TimeSegment;
+import ru.practicum.model.VisitorKey;
+import ru.practicum.repository.SketchRepository;
+import ru.practicum.repository.StatsRepository;
+import ru.practicum.sketch.HyperLogLog;
+import ru.practicum.util.CompactionWatermark;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+@Slf4j
+@Service
+@ConditionalOnJpaBackend
+public class UniqueSketchServiceImpl implements UniqueSketchService {
+
+    private static final List<Granularity> LEVELS = List.of(Granularity.HOUR, Granularity.DAY);
+
+    private final SketchRepository sketchRepository;
+    private final StatsRepository statsRepository;
+    private final CompactionWatermark compactionWatermark;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int precision;
+    private final Map<Granularity, ConcurrentHashMap<RollupKey, HyperLogLog>> pending =
+            new EnumMap<>(Granularity.class);
+    private final ReadWriteLock flushLock = new ReentrantReadWriteLock();
+
+    public UniqueSketchServiceImpl(SketchRepository sketchRepository,
+                                   StatsRepository statsRepository,
+                                   CompactionWatermark compactionWatermark,
+                                   TransactionTemplate transactionTemplate,
+                                   @Value("${stats.hll.enabled:true}") boolean enabled,
+                                   @Value("${stats.hll.precision:12}") int precision) {
+        this.sketchRepository = sketchRepository;
+        this.statsRepository = statsRepository;
+        this.compactionWatermark = compactionWatermark;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+        this.precision = precision;
+        for (Granularity granularity : LEVELS) {
+            pending.put(granularity, new ConcurrentHashMap<>());
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void record(List<Stats> stats) {
+        if (!enabled) {
+            return;
+        }
+        for (Stats hit : stats) {
+            for (Granularity granularity : LEVELS) {
+                RollupKey key = new RollupKey(hit.getApp(), hit.getUri(), granularity.floor(hit.getTimestamp()));
+                pending.get(granularity).compute(key, (k, sketch) -> {
+                    HyperLogLog result = sketch == null ? new HyperLogLog(precision) : sketch;
+                    result.add(hit.getIp());
+                    return result;
+                });
+            }
+        }
+    }
+
+    @Override
+    @PreDestroy
+    @Scheduled(fixedDelayString = "${stats.hll.flush-interval-ms:5000}")
+    public void flush() {
+        if (!enabled) {
+            return;
+        }
+        flushLock.writeLock().lock();
+        try {
+            int flushed = 0;
+            int failed = 0;
+            for (Granularity granularity : LEVELS) {
+                ConcurrentHashMap<RollupKey, HyperLogLog> sketches = pending.get(granularity);
+                for (RollupKey key : new ArrayList<>(sketches.keySet())) {
+                    HyperLogLog sketch = sketches.remove(key);
+                    if (sketch == null) {
+                        continue;
+                    }
+                    try {
+                        transactionTemplate.executeWithoutResult(status -> {
+                            HyperLogLog merged = new HyperLogLog(precision);
+                            merged.merge(sketch);
+                            sketchRepository.findSketch(granularity, key)
+                                    .map(HyperLogLog::fromBytes)
+                                    .ifPresent(merged::merge);
+                            sketchRepository.saveSketch(granularity, key, merged.toBytes());
+                        });
+                        flushed++;
+                    } catch (RuntimeException e) {
+                        // a union is idempotent, so the sketch goes back and is merged into whatever arrived since
+                        sketches.merge(key, sketch, (current, unsaved) -> {
+                            current.merge(unsaved);
+                            return current;
+                        });
+                        failed++;
+                        log.warn("Failed to flush HyperLogLog sketch {} per {}: {}", key, granularity, e.getMessage());
+                    }
+                }
+            }
+            if (flushed > 0) {
+                log.debug("Flushed {} HyperLogLog sketches", flushed);
+            }
+            if (failed > 0) {
+                log.error("Failed to flush {} HyperLogLog sketches, keeping them for the next flush", failed);
+            }
+        } finally {
+            flushLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<ViewStats> getUniqueHits(LocalDateTime start, LocalDateTime end, List<String> uris) {
+        Map<String, UniqueCounter> counters = collect(start, end, uris, false);
+        List<ViewStats> result = new ArrayList<>(counters.size());
+        for (UniqueCounter counter : counters.values()) {
+            result.add(new ViewStats(counter.app, counter.uri, counter.sketch.estimate()));
+        }
+        result.sort(Comparator.comparing(ViewStats::getHits).reversed());
+        return result;
+    }
+
+    @Override
+    public Map<String, HyperLogLog> getSketchesByApp(LocalDateTime start, LocalDateTime end, List<String> uris) {
+        Map<String, HyperLogLog> result = new HashMap<>();
+        collect(start, end, uris, true).forEach((key, counter) -> result.put(counter.app, counter.sketch));
+        return result;
+    }
+
+    @Override
+    public Map<RollupKey, Long> getUniqueHitsByBucket(Granularity granularity, LocalDateTime from, LocalDateTime to,
+                                                      List<String> uris) {
+        if (!LEVELS.contains(granularity)) {
+            throw new IllegalArgumentException("Sketches are not kept per " + granularity);
+        }
+        Set<String> uriFilter = uris == null || uris.isEmpty() ? null : new HashSet<>(uris);
+        Map<RollupKey, HyperLogLog> sketches = new HashMap<>();
+        flushLock.readLock().lock();
+        try {
+            sketchRepository.forEachBucketSketch(granularity, from, to, uriFilter,
+                    (key, bytes) -> sketches.put(key, HyperLogLog.fromBytes(bytes)));
+            pending.get(granularity).forEach((key, sketch) -> {
+                if (!key.getBucket().isBefore(from) && key.getBucket().isBefore(to)
+                        && (uriFilter == null || uriFilter.contains(key.getUri()))) {
+                    HyperLogLog target = sketches.computeIfAbsent(key, k -> new HyperLogLog(precision));
+                    pending.get(granularity).computeIfPresent(key, (k, current) -> {
+                        target.merge(current);
+                        return current;
+                    });
+                }
+            });
+        } finally {
+            flushLock.readLock().unlock();
+        }
+        Map<RollupKey, Long> result = new HashMap<>(sketches.size());
+        sketches.forEach((key, sketch) -> result.put(key, sketch.estimate()));
+        return result;
+    }
+
+    @Override
+    public double getRelativeError() {
+        return HyperLogLog.relativeError(precision);
+    }
+
+    // with sketches disabled the whole range is read from raw visitors, which keeps per-app sketches available
+    private Map<String, UniqueCounter> collect(LocalDateTime start, LocalDateTime end, List<String> uris,
+                                               boolean byApp) {
+        Set<String> uriFilter = uris == null || uris.isEmpty() ? null : new HashSet<>(uris);
+        Map<String, UniqueCounter> counters = new HashMap<>();
+        flushLock.readLock().lock();
+        try {
+            for (TimeSegment segment : compactionWatermark.plan(start, end, enabled ? LEVELS : List.of())) {
+                if (segment.isRaw()) {
+                    List<VisitorKey> visitors = uriFilter == null
+                            ? statsRepository.getVisitorsInRange(segment.getFrom(), segment.getTo())
+                            : statsRepository.getVisitorsInRangeByUris(segment.getFrom(), segment.getTo(), uris);
+                    for (VisitorKey visitor : visitors) {
+                        counter(counters, visitor.getApp(), visitor.getUri(), byApp).sketch.add(visitor.getIp());
+                    }
+                    continue;
+                }
+                sketchRepository.forEachSketch(segment.getGranularity(), segment.getFrom(), segment.getTo(),
+                        uriFilter, (app, uri, bytes) -> counter(counters, app, uri, byApp).sketch
+                                .merge(HyperLogLog.fromBytes(bytes)));
+                pending.get(segment.getGranularity()).forEach((key, sketch) -> {
+                    if (!key.getBucket().isBefore(segment.getFrom()) && key.getBucket().isBefore(segment.getTo())
+                            && (uriFilter == null || uriFilter.contains(key.getUri()))) {
+                        HyperLogLog target = counter(counters, key.getApp(), key.getUri(), byApp).sketch;
+                        pending.get(segment.getGranularity()).computeIfPresent(key, (k, current) -> {
+                            target.merge(current);
+                            return current;
+                        });
+                    }
+                });
+            }
+        } finally {
+            flushLock.readLock().unlock();
+        }
+        return counters;
+    }
+
+    private UniqueCounter counter(Map<String, UniqueCounter> counters, String app, String uri, boolean byApp) {
+        return counters.computeIfAbsent(byApp ? app : app + '\n' + uri,
+                k -> new UniqueCounter(app, uri, new HyperLogLog(precision)));
+    }
+
+    private static class UniqueCounter {
+        private final String app;
+        private final String uri;
+        private final HyperLogLog sketch;
+
+        UniqueCounter(String app, String uri, HyperLogLog sketch) {
+            this.app = app;
+            this.uri = uri;
+            this.sketch = sketch;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package ru.practicum.service;
+
+import ru.practicum.ViewStats;
+import ru.practicum.model.Stats;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+public interface VisitorBitmapService {
+
+    boolean isEnabled();
+
+    // insert commits the raw rows together with markPending and returns false when it stored nothing; the visitors
+    // are added to the bitmaps once it has committed
+    boolean record(List<Stats> stats, BooleanSupplier insert);
+
+    // for rows that are stored already, e.g. when compaction folds a day
+    void record(List<Stats> stats);
+
+    // called in the transaction that stores the rows, so a bitmap left behind by a crash is rebuilt on startup
+    void markPending(List<Stats> stats);
+
+    void flush();
+
+    // drops the day bitmaps of [from, to), held and stored
+    void delete(LocalDateTime from, LocalDateTime to);
+
+    List<ViewStats> getUniqueHits(LocalDateTime start, LocalDateTime end, List<String> uris);
+}
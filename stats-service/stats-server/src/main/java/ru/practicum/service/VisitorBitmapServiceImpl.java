@@ -0,0 +1,441 @@
+package ru.practicum.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.ViewStats;
+import ru.practicum.config.ConditionalOnJpaBackend;
+import ru.practicum.enums.Granularity;
+import ru.practicum.model.RollupKey;
+import ru.practicum.model.Stats;
+import ru.practicum.model.TimeSegment;
+import ru.practicum.model.VisitorKey;
+import ru.practicum.repository.BitmapRepository;
+import ru.practicum.repository.StatsRepository;
+import ru.practicum.sketch.RoaringBitmap;
+import ru.practicum.util.CompactionWatermark;
+import ru.practicum.util.IpAddresses;
+import ru.practicum.util.IpDictionary;
+
+import java.time.LocalDateTime;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+
+// Only the day bitmaps of the last resident-days are held; older days are read from stats_ip_bitmap when a query or
+// a late hit needs them and leave the heap again once stored. Every ingest transaction also writes the keys of the
+// bitmaps it changes to stats_ip_bitmap_pending, and a flush deletes them with the bitmaps it saves, so keys left
+// behind by a crash name the bitmaps to rebuild from the raw rows on the next startup.
+@Slf4j
+@Service
+@ConditionalOnJpaBackend
+public class VisitorBitmapServiceImpl implements VisitorBitmapService {
+
+    private static final List<Granularity> LEVELS = List.of(Granularity.DAY);
+    private static final int LOCK_STRIPES = 64;
+    private static final int URI_CHUNK_SIZE = 1000;
+
+    private final BitmapRepository bitmapRepository;
+    private final StatsRepository statsRepository;
+    private final IpDictionary ipDictionary;
+    private final CompactionWatermark compactionWatermark;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int residentDays;
+    private final Map<String, Map<String, NavigableMap<LocalDateTime, RoaringBitmap>>> bitmaps =
+            new ConcurrentHashMap<>();
+    private final Set<RollupKey> dirty = ConcurrentHashMap.newKeySet();
+    private final Lock flushLock = new ReentrantLock();
+    private final Lock[] bitmapLocks = new Lock[LOCK_STRIPES];
+    // held for reading from an insert until its visitors are added, and for writing while nothing may be between
+    private final ReadWriteLock ingestLock = new ReentrantReadWriteLock();
+    // keeps queries off the bitmaps while eviction moves the resident range
+    private final ReadWriteLock residencyLock = new ReentrantReadWriteLock();
+    private final AtomicBoolean coldResident = new AtomicBoolean();
+    // null while every day is held
+    private volatile LocalDateTime residentFrom;
+
+    public VisitorBitmapServiceImpl(BitmapRepository bitmapRepository,
+                                    StatsRepository statsRepository,
+                                    IpDictionary ipDictionary,
+                                    CompactionWatermark compactionWatermark,
+                                    TransactionTemplate transactionTemplate,
+                                    @Value("${stats.bitmap.enabled:true}") boolean enabled,
+                                    @Value("${stats.bitmap.resident-days:31}") int residentDays) {
+        this.bitmapRepository = bitmapRepository;
+        this.statsRepository = statsRepository;
+        this.ipDictionary = ipDictionary;
+        this.compactionWatermark = compactionWatermark;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+        this.residentDays = residentDays;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            bitmapLocks[i] = new ReentrantLock();
+        }
+    }
+
+    @PostConstruct
+    public void load() {
+        if (!enabled) {
+            return;
+        }
+        ipDictionary.load();
+        residentFrom = residentDays > 0 ? Granularity.DAY.floor(LocalDateTime.now()).minusDays(residentDays) : null;
+        int[] loaded = new int[1];
+        bitmapRepository.forEachBitmap(residentFrom, (key, bytes) -> {
+            RoaringBitmap bitmap = RoaringBitmap.fromBytes(bytes);
+            days(key.getApp(), key.getUri()).put(key.getBucket(), bitmap);
+            ipDictionary.reserve(bitmap.last());
+            loaded[0]++;
+        });
+        log.info("Loaded {} visitor bitmaps over {} ip addresses", loaded[0], ipDictionary.size());
+        rebuildPending();
+    }
+
+    // bitmaps whose rows committed without the bitmaps being saved afterwards, e.g. before a crash
+    private void rebuildPending() {
+        long lastPending = bitmapRepository.findLastPendingId();
+        if (lastPending == 0) {
+            return;
+        }
+        Map<LocalDateTime, Set<RollupKey>> pending = new TreeMap<>();
+        bitmapRepository.forEachPending(lastPending, key ->
+                pending.computeIfAbsent(key.getBucket(), day -> new HashSet<>()).add(key));
+        int rebuilt = 0;
+        for (Map.Entry<LocalDateTime, Set<RollupKey>> day : pending.entrySet()) {
+            List<String> uris = day.getValue().stream().map(RollupKey::getUri).distinct().toList();
+            for (int i = 0; i < uris.size(); i += URI_CHUNK_SIZE) {
+                List<String> chunk = uris.subList(i, Math.min(i + URI_CHUNK_SIZE, uris.size()));
+                for (VisitorKey visitor : statsRepository.getVisitorsInRangeByUris(day.getKey(),
+                        day.getKey().plusDays(1), chunk)) {
+                    RollupKey key = new RollupKey(visitor.getApp(), visitor.getUri(), day.getKey());
+                    if (day.getValue().contains(key)) {
+                        add(key, ipDictionary.idOf(visitor.getIp()));
+                    }
+                }
+            }
+            rebuilt += day.getValue().size();
+        }
+        flushDirty(lastPending);
+        log.info("Rebuilt {} visitor bitmaps from raw stats that were not saved before the last shutdown", rebuilt);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public boolean record(List<Stats> stats, BooleanSupplier insert) {
+        if (!enabled) {
+            return insert.getAsBoolean();
+        }
+        ingestLock.readLock().lock();
+        try {
+            if (!insert.getAsBoolean()) {
+                return false;
+            }
+            addAll(stats);
+            return true;
+        } finally {
+            ingestLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void record(List<Stats> stats) {
+        if (!enabled) {
+            return;
+        }
+        ingestLock.readLock().lock();
+        try {
+            addAll(stats);
+        } finally {
+            ingestLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void markPending(List<Stats> stats) {
+        if (!enabled) {
+            return;
+        }
+        bitmapRepository.savePending(stats.stream()
+                .map(hit -> new RollupKey(hit.getApp(), hit.getUri(), Granularity.DAY.floor(hit.getTimestamp())))
+                .distinct()
+                .toList());
+    }
+
+    // the last pending id is read with no insert between its commit and its visitors being added, so every pending
+    // row up to it is covered by the bitmaps saved next and goes in the same transaction
+    @Override
+    @PreDestroy
+    @Scheduled(fixedDelayString = "${stats.bitmap.flush-interval-ms:10000}")
+    public void flush() {
+        if (!enabled) {
+            return;
+        }
+        flushLock.lock();
+        try {
+            if (!dirty.isEmpty()) {
+                long lastPending;
+                ingestLock.writeLock().lock();
+                try {
+                    lastPending = bitmapRepository.findLastPendingId();
+                } finally {
+                    ingestLock.writeLock().unlock();
+                }
+                flushDirty(lastPending);
+            }
+            evict();
+        } catch (RuntimeException e) {
+            log.error("Failed to flush visitor bitmaps", e);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    // under the flush lock, so a flush running alongside never writes back a bitmap removed here
+    @Override
+    public void delete(LocalDateTime from, LocalDateTime to) {
+        if (!enabled) {
+            return;
+        }
+        flushLock.lock();
+        try {
+            bitmaps.values().forEach(apps -> apps.values().forEach(days -> days.subMap(from, to).clear()));
+            dirty.removeIf(key -> !key.getBucket().isBefore(from) && key.getBucket().isBefore(to));
+            int deleted = transactionTemplate.execute(status -> bitmapRepository.deleteBitmaps(from, to));
+            log.debug("Deleted {} visitor bitmaps for [{}, {})", deleted, from, to);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @Override
+    public List<ViewStats> getUniqueHits(LocalDateTime start, LocalDateTime end, List<String> uris) {
+        Map<String, UniqueCounter> counters = new HashMap<>();
+        // ips missing from the dictionary get ids of this query only, counted down from the top of the unsigned
+        // range the dictionary never reaches
+        Map<String, Integer> unknownIps = new HashMap<>();
+        for (TimeSegment segment : compactionWatermark.plan(start, end, LEVELS)) {
+            if (segment.isRaw()) {
+                List<VisitorKey> visitors = uris == null || uris.isEmpty()
+                        ? statsRepository.getVisitorsInRange(segment.getFrom(), segment.getTo())
+                        : statsRepository.getVisitorsInRangeByUris(segment.getFrom(), segment.getTo(), uris);
+                for (VisitorKey visitor : visitors) {
+                    int id = ipDictionary.findId(visitor.getIp());
+                    if (id == IpDictionary.UNKNOWN) {
+                        id = unknownIps.computeIfAbsent(IpAddresses.normalize(visitor.getIp()),
+                                ip -> -1 - unknownIps.size());
+                    }
+                    counter(counters, visitor.getApp(), visitor.getUri()).visitors.add(id);
+                }
+                continue;
+            }
+            residencyLock.readLock().lock();
+            try {
+                addBitmaps(counters, segment.getFrom(), segment.getTo(), uris);
+            } finally {
+                residencyLock.readLock().unlock();
+            }
+        }
+        List<ViewStats> result = new ArrayList<>(counters.size());
+        for (UniqueCounter counter : counters.values()) {
+            long cardinality = counter.visitors.getCardinality();
+            if (cardinality > 0) {
+                result.add(new ViewStats(counter.app, counter.uri, cardinality));
+            }
+        }
+        result.sort(Comparator.comparing(ViewStats::getHits).reversed());
+        return result;
+    }
+
+    // days before the resident range come from the stored bitmaps, and the held ones on top of them add whatever
+    // is not stored yet; both are unions, so a day found in both counts once
+    private void addBitmaps(Map<String, UniqueCounter> counters, LocalDateTime from, LocalDateTime to,
+                            List<String> uris) {
+        LocalDateTime resident = residentFrom;
+        if (resident != null && from.isBefore(resident)) {
+            bitmapRepository.forEachBitmap(from, to.isBefore(resident) ? to : resident, uris, (key, bytes) ->
+                    counter(counters, key.getApp(), key.getUri()).visitors.or(RoaringBitmap.fromBytes(bytes)));
+        }
+        Iterable<String> selected = uris == null || uris.isEmpty() ? bitmaps.keySet() : uris;
+        for (String uri : selected) {
+            bitmaps.getOrDefault(uri, Map.of()).forEach((app, days) -> {
+                RoaringBitmap visitors = counter(counters, app, uri).visitors;
+                for (RoaringBitmap bitmap : days.subMap(from, to).values()) {
+                    Lock lock = lockFor(bitmap);
+                    lock.lock();
+                    try {
+                        visitors.or(bitmap);
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            });
+        }
+    }
+
+    private void addAll(List<Stats> stats) {
+        for (Stats hit : stats) {
+            add(new RollupKey(hit.getApp(), hit.getUri(), Granularity.DAY.floor(hit.getTimestamp())),
+                    ipDictionary.idOf(hit.getIp()));
+        }
+    }
+
+    private void add(RollupKey key, int id) {
+        RoaringBitmap bitmap = bitmap(key);
+        Lock lock = lockFor(bitmap);
+        lock.lock();
+        try {
+            bitmap.add(id);
+        } finally {
+            lock.unlock();
+        }
+        dirty.add(key);
+    }
+
+    // a day before the resident range starts from its stored bitmap, so saving it again keeps the visitors it had
+    private RoaringBitmap bitmap(RollupKey key) {
+        return days(key.getApp(), key.getUri()).computeIfAbsent(key.getBucket(), day -> {
+            LocalDateTime resident = residentFrom;
+            if (resident == null || !day.isBefore(resident)) {
+                return new RoaringBitmap();
+            }
+            coldResident.set(true);
+            byte[] stored = bitmapRepository.findBitmap(key);
+            if (stored == null) {
+                return new RoaringBitmap();
+            }
+            RoaringBitmap bitmap = RoaringBitmap.fromBytes(stored);
+            ipDictionary.reserve(bitmap.last());
+            return bitmap;
+        });
+    }
+
+    // stored days before the resident range leave the heap; ones still dirty stay until a flush has saved them
+    private void evict() {
+        if (residentDays <= 0) {
+            return;
+        }
+        LocalDateTime from = Granularity.DAY.floor(LocalDateTime.now()).minusDays(residentDays);
+        if (!from.isAfter(residentFrom) && !coldResident.get()) {
+            return;
+        }
+        ingestLock.writeLock().lock();
+        residencyLock.writeLock().lock();
+        try {
+            if (from.isAfter(residentFrom)) {
+                residentFrom = from;
+            }
+            coldResident.set(false);
+            int evicted = 0;
+            for (Iterator<Map.Entry<String, Map<String, NavigableMap<LocalDateTime, RoaringBitmap>>>> uris =
+                 bitmaps.entrySet().iterator(); uris.hasNext(); ) {
+                Map.Entry<String, Map<String, NavigableMap<LocalDateTime, RoaringBitmap>>> uri = uris.next();
+                for (Iterator<Map.Entry<String, NavigableMap<LocalDateTime, RoaringBitmap>>> apps =
+                     uri.getValue().entrySet().iterator(); apps.hasNext(); ) {
+                    Map.Entry<String, NavigableMap<LocalDateTime, RoaringBitmap>> app = apps.next();
+                    for (Iterator<LocalDateTime> days = app.getValue().headMap(residentFrom).keySet().iterator();
+                         days.hasNext(); ) {
+                        if (dirty.contains(new RollupKey(app.getKey(), uri.getKey(), days.next()))) {
+                            coldResident.set(true);
+                        } else {
+                            days.remove();
+                            evicted++;
+                        }
+                    }
+                    if (app.getValue().isEmpty()) {
+                        apps.remove();
+                    }
+                }
+                if (uri.getValue().isEmpty()) {
+                    uris.remove();
+                }
+            }
+            log.debug("Evicted {} visitor bitmaps before {}", evicted, residentFrom);
+        } finally {
+            residencyLock.writeLock().unlock();
+            ingestLock.writeLock().unlock();
+        }
+    }
+
+    private void flushDirty(long lastPending) {
+        List<Map.Entry<RollupKey, byte[]>> snapshots = new ArrayList<>();
+        for (RollupKey key : new ArrayList<>(dirty)) {
+            dirty.remove(key);
+            NavigableMap<LocalDateTime, RoaringBitmap> days = bitmaps.getOrDefault(key.getUri(), Map.of())
+                    .get(key.getApp());
+            RoaringBitmap bitmap = days == null ? null : days.get(key.getBucket());
+            if (bitmap == null) {
+                continue;
+            }
+            Lock lock = lockFor(bitmap);
+            lock.lock();
+            try {
+                snapshots.add(new AbstractMap.SimpleImmutableEntry<>(key, bitmap.toBytes()));
+            } finally {
+                lock.unlock();
+            }
+        }
+        try {
+            ipDictionary.flush();
+            transactionTemplate.executeWithoutResult(status -> {
+                if (!snapshots.isEmpty()) {
+                    bitmapRepository.saveBitmaps(snapshots);
+                }
+                bitmapRepository.deletePending(lastPending);
+            });
+            log.debug("Flushed {} visitor bitmaps", snapshots.size());
+        } catch (RuntimeException e) {
+            snapshots.forEach(snapshot -> dirty.add(snapshot.getKey()));
+            log.error("Failed to flush visitor bitmaps", e);
+        }
+    }
+
+    private Lock lockFor(RoaringBitmap bitmap) {
+        return bitmapLocks[System.identityHashCode(bitmap) & (LOCK_STRIPES - 1)];
+    }
+
+    private NavigableMap<LocalDateTime, RoaringBitmap> days(String app, String uri) {
+        return bitmaps.computeIfAbsent(uri, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(app, k -> new ConcurrentSkipListMap<>());
+    }
+
+    private UniqueCounter counter(Map<String, UniqueCounter> counters, String app, String uri) {
+        return counters.computeIfAbsent(app + '\n' + uri, k -> new UniqueCounter(app, uri, new RoaringBitmap()));
+    }
+
+    private static class UniqueCounter {
+        private final String app;
+        private final String uri;
+        private final RoaringBitmap visitors;
+
+        UniqueCounter(String app, String uri, RoaringBitmap visitors) {
+            this.app = app;
+            this.uri = uri;
+            this.visitors = visitors;
+        }
+    }
+}
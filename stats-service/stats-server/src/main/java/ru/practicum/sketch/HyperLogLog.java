@@ -0,0 +1,109 @@
+package ru.practicum.sketch;
+
+import java.nio.ByteBuffer;
+
+public class HyperLogLog {
+
+    private static final byte DENSE = 0;
+    private static final byte SPARSE = 1;
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 16) {
+            throw new IllegalArgumentException("HyperLogLog precision must be between 4 and 16: " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    public static double relativeError(int precision) {
+        return 1.04 / Math.sqrt(1 << precision);
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public void add(String value) {
+        addHash(Hashing.murmur64(value));
+    }
+
+    public void addHash(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        long rest = (hash << precision) | (1L << (precision - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (registers[index] < rank) {
+            registers[index] = rank;
+        }
+    }
+
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException(String.format("Cannot merge HyperLogLog of precision %d into %d",
+                    other.precision, precision));
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (registers[i] < other.registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double alpha = 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    public byte[] toBytes() {
+        int nonZero = 0;
+        for (byte register : registers) {
+            if (register != 0) {
+                nonZero++;
+            }
+        }
+        if (nonZero * 3 + 6 < registers.length + 2) {
+            ByteBuffer buffer = ByteBuffer.allocate(6 + nonZero * 3);
+            buffer.put((byte) precision).put(SPARSE).putInt(nonZero);
+            for (int i = 0; i < registers.length; i++) {
+                if (registers[i] != 0) {
+                    buffer.putShort((short) i).put(registers[i]);
+                }
+            }
+            return buffer.array();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(2 + registers.length);
+        buffer.put((byte) precision).put(DENSE).put(registers);
+        return buffer.array();
+    }
+
+    public static HyperLogLog fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        HyperLogLog sketch = new HyperLogLog(buffer.get());
+        byte format = buffer.get();
+        if (format == SPARSE) {
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                int index = Short.toUnsignedInt(buffer.getShort());
+                sketch.registers[index] = buffer.get();
+            }
+        } else {
+            buffer.get(sketch.registers);
+        }
+        return sketch;
+    }
+}
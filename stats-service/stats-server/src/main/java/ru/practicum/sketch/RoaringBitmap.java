@@ -0,0 +1,319 @@
+package ru.practicum.sketch;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class RoaringBitmap {
+
+    private static final int ARRAY_MAX_SIZE = 4096;
+    private static final int BITMAP_WORDS = 1024;
+    private static final byte ARRAY = 0;
+    private static final byte BITMAP = 1;
+
+    private char[] keys = new char[4];
+    private Container[] containers = new Container[4];
+    private int size;
+
+    public void add(int value) {
+        char high = (char) (value >>> 16);
+        char low = (char) value;
+        int index = Arrays.binarySearch(keys, 0, size, high);
+        if (index >= 0) {
+            containers[index] = containers[index].add(low);
+            return;
+        }
+        insert(-index - 1, high, new ArrayContainer().add(low));
+    }
+
+    public boolean contains(int value) {
+        int index = Arrays.binarySearch(keys, 0, size, (char) (value >>> 16));
+        return index >= 0 && containers[index].contains((char) value);
+    }
+
+    public long getCardinality() {
+        long cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += containers[i].cardinality();
+        }
+        return cardinality;
+    }
+
+    public int last() {
+        if (size == 0) {
+            return -1;
+        }
+        return keys[size - 1] << 16 | containers[size - 1].last();
+    }
+
+    public void or(RoaringBitmap other) {
+        for (int i = 0; i < other.size; i++) {
+            int index = Arrays.binarySearch(keys, 0, size, other.keys[i]);
+            if (index >= 0) {
+                containers[index] = containers[index].or(other.containers[i]);
+            } else {
+                insert(-index - 1, other.keys[i], other.containers[i].copy());
+            }
+        }
+    }
+
+    public byte[] toBytes() {
+        int length = 4;
+        for (int i = 0; i < size; i++) {
+            length += 7 + containers[i].serializedSize();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(size);
+        for (int i = 0; i < size; i++) {
+            buffer.putChar(keys[i]);
+            containers[i].writeTo(buffer);
+        }
+        return buffer.array();
+    }
+
+    public static RoaringBitmap fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        RoaringBitmap bitmap = new RoaringBitmap();
+        int count = buffer.getInt();
+        bitmap.keys = new char[Math.max(count, 4)];
+        bitmap.containers = new Container[Math.max(count, 4)];
+        for (int i = 0; i < count; i++) {
+            bitmap.keys[i] = buffer.getChar();
+            byte type = buffer.get();
+            int cardinality = buffer.getInt();
+            bitmap.containers[i] = type == BITMAP
+                    ? BitmapContainer.readFrom(buffer, cardinality)
+                    : ArrayContainer.readFrom(buffer, cardinality);
+        }
+        bitmap.size = count;
+        return bitmap;
+    }
+
+    private void insert(int index, char key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1, size - index);
+        keys[index] = key;
+        containers[index] = container;
+        size++;
+    }
+
+    private abstract static class Container {
+
+        abstract Container add(char value);
+
+        abstract boolean contains(char value);
+
+        abstract int cardinality();
+
+        abstract int last();
+
+        abstract Container or(Container other);
+
+        abstract Container copy();
+
+        abstract int serializedSize();
+
+        abstract void writeTo(ByteBuffer buffer);
+    }
+
+    private static final class ArrayContainer extends Container {
+        private char[] values;
+        private int cardinality;
+
+        ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            int index = Arrays.binarySearch(values, 0, cardinality, value);
+            if (index >= 0) {
+                return this;
+            }
+            if (cardinality >= ARRAY_MAX_SIZE) {
+                return toBitmap().add(value);
+            }
+            index = -index - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(cardinality * 2, ARRAY_MAX_SIZE));
+            }
+            System.arraycopy(values, index, values, index + 1, cardinality - index);
+            values[index] = value;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        int last() {
+            return values[cardinality - 1];
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer) {
+                return other.copy().or(this);
+            }
+            ArrayContainer array = (ArrayContainer) other;
+            char[] merged = new char[cardinality + array.cardinality];
+            int i = 0;
+            int j = 0;
+            int k = 0;
+            while (i < cardinality && j < array.cardinality) {
+                if (values[i] < array.values[j]) {
+                    merged[k++] = values[i++];
+                } else if (values[i] > array.values[j]) {
+                    merged[k++] = array.values[j++];
+                } else {
+                    merged[k++] = values[i++];
+                    j++;
+                }
+            }
+            while (i < cardinality) {
+                merged[k++] = values[i++];
+            }
+            while (j < array.cardinality) {
+                merged[k++] = array.values[j++];
+            }
+            ArrayContainer result = new ArrayContainer(merged, k);
+            return k > ARRAY_MAX_SIZE ? result.toBitmap() : result;
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(cardinality, 4)), cardinality);
+        }
+
+        @Override
+        int serializedSize() {
+            return cardinality * 2;
+        }
+
+        @Override
+        void writeTo(ByteBuffer buffer) {
+            buffer.put(ARRAY).putInt(cardinality);
+            for (int i = 0; i < cardinality; i++) {
+                buffer.putChar(values[i]);
+            }
+        }
+
+        static ArrayContainer readFrom(ByteBuffer buffer, int cardinality) {
+            char[] values = new char[Math.max(cardinality, 4)];
+            for (int i = 0; i < cardinality; i++) {
+                values[i] = buffer.getChar();
+            }
+            return new ArrayContainer(values, cardinality);
+        }
+
+        private BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer(new long[BITMAP_WORDS], 0);
+            for (int i = 0; i < cardinality; i++) {
+                bitmap.add(values[i]);
+            }
+            return bitmap;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        private final long[] words;
+        private int cardinality;
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            long before = words[value >>> 6];
+            long after = before | (1L << value);
+            if (before != after) {
+                words[value >>> 6] = after;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        int last() {
+            for (int i = BITMAP_WORDS - 1; i >= 0; i--) {
+                if (words[i] != 0) {
+                    return i * 64 + 63 - Long.numberOfLeadingZeros(words[i]);
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof ArrayContainer) {
+                ArrayContainer array = (ArrayContainer) other;
+                for (int i = 0; i < array.cardinality; i++) {
+                    add(array.values[i]);
+                }
+                return this;
+            }
+            long[] otherWords = ((BitmapContainer) other).words;
+            int count = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                words[i] |= otherWords[i];
+                count += Long.bitCount(words[i]);
+            }
+            cardinality = count;
+            return this;
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+
+        @Override
+        int serializedSize() {
+            return BITMAP_WORDS * 8;
+        }
+
+        @Override
+        void writeTo(ByteBuffer buffer) {
+            buffer.put(BITMAP).putInt(cardinality);
+            for (long word : words) {
+                buffer.putLong(word);
+            }
+        }
+
+        static BitmapContainer readFrom(ByteBuffer buffer, int cardinality) {
+            long[] words = new long[BITMAP_WORDS];
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                words[i] = buffer.getLong();
+            }
+            return new BitmapContainer(words, cardinality);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package ru.practicum.sketch;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+public class SpaceSaving {
+
+    private static final byte VERSION = 1;
+
+    private final int capacity;
+    private final Map<String, Counter> counters = new HashMap<>();
+    private final TreeMap<Long, Set<String>> byCount = new TreeMap<>();
+
+    public SpaceSaving(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Space-Saving capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    public static SpaceSaving ofExact(int capacity, Map<String, Long> counts) {
+        SpaceSaving summary = new SpaceSaving(capacity);
+        counts.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .limit(capacity)
+                .forEach(entry -> summary.put(entry.getKey(), entry.getValue(), 0));
+        return summary;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return counters.size();
+    }
+
+    public void add(String item) {
+        add(item, 1);
+    }
+
+    public void add(String item, long weight) {
+        Counter counter = counters.get(item);
+        if (counter != null) {
+            unindex(item, counter.count);
+            counter.count += weight;
+            index(item, counter.count);
+            return;
+        }
+        if (counters.size() < capacity) {
+            put(item, weight, 0);
+            return;
+        }
+        Map.Entry<Long, Set<String>> min = byCount.firstEntry();
+        String victim = min.getValue().iterator().next();
+        unindex(victim, min.getKey());
+        counters.remove(victim);
+        put(item, min.getKey() + weight, min.getKey());
+    }
+
+    public long minCount() {
+        return counters.size() < capacity || byCount.isEmpty() ? 0 : byCount.firstKey();
+    }
+
+    public void merge(SpaceSaving other) {
+        long ownMin = minCount();
+        long otherMin = other.minCount();
+        Set<String> items = new HashSet<>(counters.keySet());
+        items.addAll(other.counters.keySet());
+        List<Entry> merged = new ArrayList<>(items.size());
+        for (String item : items) {
+            Counter own = counters.get(item);
+            Counter theirs = other.counters.get(item);
+            long count = (own != null ? own.count : ownMin) + (theirs != null ? theirs.count : otherMin);
+            long error = (own != null ? own.error : ownMin) + (theirs != null ? theirs.error : otherMin);
+            merged.add(new Entry(item, count, error));
+        }
+        merged.sort(Comparator.comparingLong(Entry::count).reversed());
+        counters.clear();
+        byCount.clear();
+        for (int i = 0; i < merged.size() && i < capacity; i++) {
+            Entry entry = merged.get(i);
+            put(entry.item(), entry.count(), entry.error());
+        }
+    }
+
+    public List<Entry> top(int limit) {
+        return counters.entrySet().stream()
+                .map(entry -> new Entry(entry.getKey(), entry.getValue().count, entry.getValue().error))
+                .sorted(Comparator.comparingLong(Entry::count).reversed())
+                .limit(limit)
+                .toList();
+    }
+
+    public byte[] toBytes() {
+        List<byte[]> items = new ArrayList<>(counters.size());
+        int size = 1 + 4 + 4;
+        for (String item : counters.keySet()) {
+            byte[] bytes = item.getBytes(StandardCharsets.UTF_8);
+            items.add(bytes);
+            size += 4 + bytes.length + 8 + 8;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(VERSION).putInt(capacity).putInt(counters.size());
+        int i = 0;
+        for (Counter counter : counters.values()) {
+            byte[] bytes = items.get(i++);
+            buffer.putInt(bytes.length).put(bytes).putLong(counter.count).putLong(counter.error);
+        }
+        return buffer.array();
+    }
+
+    public static SpaceSaving fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported Space-Saving version " + version);
+        }
+        SpaceSaving summary = new SpaceSaving(buffer.getInt());
+        int size = buffer.getInt();
+        for (int i = 0; i < size; i++) {
+            byte[] item = new byte[buffer.getInt()];
+            buffer.get(item);
+            summary.put(new String(item, StandardCharsets.UTF_8), buffer.getLong(), buffer.getLong());
+        }
+        return summary;
+    }
+
+    private void put(String item, long count, long error) {
+        counters.put(item, new Counter(count, error));
+        index(item, count);
+    }
+
+    private void index(String item, long count) {
+        byCount.computeIfAbsent(count, k -> new LinkedHashSet<>()).add(item);
+    }
+
+    private void unindex(String item, long count) {
+        Set<String> items = byCount.get(count);
+        items.remove(item);
+        if (items.isEmpty()) {
+            byCount.remove(count);
+        }
+    }
+
+    public record Entry(String item, long count, long error) {
+    }
+
+    private static final class Counter {
+        private long count;
+        private final long error;
+
+        Counter(long count, long error) {
+            this.count = count;
+            this.error = error;
+        }
+    }
+}
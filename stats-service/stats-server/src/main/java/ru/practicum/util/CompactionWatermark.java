@@ -0,0 +1,120 @@
+package ru.practicum.util;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import ru.practicum.config.ConditionalOnJpaBackend;
+import ru.practicum.enums.Granularity;
+import ru.practicum.enums.UniqueMode;
+import ru.practicum.exception.ValidationException;
+import ru.practicum.model.CompactionState;
+import ru.practicum.model.TimeSegment;
+import ru.practicum.repository.CompactionRepository;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+// Before the watermark raw rows are gone and only aggregates of the compaction granularity and coarser remain,
+// so a range there has to start and end on bucket boundaries to get the totals the raw rows gave
+@Slf4j
+@Component
+@ConditionalOnJpaBackend
+public class CompactionWatermark {
+
+    private final CompactionRepository compactionRepository;
+    private volatile CompactionState state;
+
+    public CompactionWatermark(CompactionRepository compactionRepository) {
+        this.compactionRepository = compactionRepository;
+    }
+
+    @PostConstruct
+    public void load() {
+        state = compactionRepository.findState().orElse(null);
+        if (state != null) {
+            log.info("Stats are compacted per {} from {} to {}", state.getGranularity(), state.getCompactedFrom(),
+                    state.getCompactedBefore());
+        }
+    }
+
+    public CompactionState getState() {
+        return state;
+    }
+
+    public void update(CompactionState state) {
+        this.state = state;
+    }
+
+    public boolean covers(LocalDateTime start) {
+        CompactionState current = state;
+        return current != null && start.isBefore(current.getCompactedBefore());
+    }
+
+    public List<TimeSegment> plan(LocalDateTime start, LocalDateTime end, List<Granularity> levels) {
+        CompactionState current = state;
+        if (current == null || !start.isBefore(current.getCompactedBefore())) {
+            return SegmentPlanner.plan(start, end, levels);
+        }
+        Granularity granularity = current.getGranularity();
+        LocalDateTime before = current.getCompactedBefore();
+        LocalDateTime to = SegmentPlanner.toExclusive(end);
+        List<Granularity> coarse = new ArrayList<>(List.of(granularity));
+        levels.stream().filter(level -> level.compareTo(granularity) > 0).forEach(coarse::add);
+        List<TimeSegment> segments = new ArrayList<>(SegmentPlanner.planRange(granularity.ceil(start),
+                to.isAfter(before) ? before : granularity.ceil(to), coarse));
+        if (to.isAfter(before)) {
+            segments.addAll(SegmentPlanner.planRange(before, to, levels));
+        }
+        return segments;
+    }
+
+    // raw visitors are gone before the watermark: day bitmaps still count them exactly, finer ranges only sketches,
+    // so an exact count is refused there instead of being answered from sketches
+    public UniqueMode uniqueMode(LocalDateTime start, UniqueMode mode, boolean bitmaps) {
+        CompactionState current = state;
+        if (current == null || !start.isBefore(current.getCompactedBefore()) || mode == UniqueMode.APPROXIMATE) {
+            return mode;
+        }
+        if (bitmaps && current.getGranularity() == Granularity.DAY) {
+            return UniqueMode.BITMAP;
+        }
+        throw new ValidationException(String.format("Stats before %s are compacted per %s, unique visitors there " +
+                "are only counted with mode=%s", current.getCompactedBefore(), current.getGranularity(),
+                UniqueMode.APPROXIMATE));
+    }
+
+    public void checkRange(LocalDateTime start, LocalDateTime end) {
+        checkRange(start, end, null);
+    }
+
+    // a bucket cut by the range would count either whole or not at all, so such ranges are refused; hits are
+    // stamped to the second, so an end on the last second of a bucket takes all of it
+    public void checkRange(LocalDateTime start, LocalDateTime end, Granularity interval) {
+        CompactionState current = state;
+        if (current == null) {
+            return;
+        }
+        Granularity bucket = interval == null || interval.compareTo(current.getGranularity()) < 0
+                ? current.getGranularity() : interval;
+        if (cuts(current, bucket, start) || cuts(current, bucket, end.truncatedTo(ChronoUnit.SECONDS).plusSeconds(1))) {
+            throw new ValidationException(String.format("Stats before %s are compacted per %s, so the range must " +
+                    "start and end on its boundaries: start %s; end %s", current.getCompactedBefore(), bucket,
+                    start, end));
+        }
+    }
+
+    private static boolean cuts(CompactionState state, Granularity bucket, LocalDateTime edge) {
+        return edge.isAfter(state.getCompactedFrom()) && edge.isBefore(state.getCompactedBefore())
+                && !bucket.floor(edge).equals(edge);
+    }
+
+    public LocalDateTime earliest(LocalDateTime rawEarliest) {
+        CompactionState current = state;
+        if (current == null || rawEarliest != null && rawEarliest.isBefore(current.getCompactedFrom())) {
+            return rawEarliest;
+        }
+        return current.getCompactedFrom();
+    }
+}
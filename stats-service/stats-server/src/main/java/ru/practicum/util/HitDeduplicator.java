@@ -0,0 +1,102 @@
+package ru.practicum.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Hits with the same app, uri and ip whose timestamps fall into the same window are stored once. Keys live in two
+// generations that rotate every window of wall-clock time, or earlier once the current one holds max-entries keys,
+// so a retry arriving up to two windows later is still recognised and memory stays bounded.
+@Slf4j
+@Component
+public class HitDeduplicator {
+
+    private final boolean enabled;
+    private final long windowMs;
+    private final long windowNanos;
+    private final int maxEntries;
+    private final Counter suppressedCounter;
+    private final ReentrantLock rotation = new ReentrantLock();
+    private volatile Set<String> current = ConcurrentHashMap.newKeySet();
+    private volatile Set<String> previous = ConcurrentHashMap.newKeySet();
+    private volatile long rotatedAt = System.nanoTime();
+
+    public HitDeduplicator(MeterRegistry meterRegistry,
+                           @Value("${stats.dedup.enabled:false}") boolean enabled,
+                           @Value("${stats.dedup.window-ms:1000}") long windowMs,
+                           @Value("${stats.dedup.max-entries:1000000}") int maxEntries) {
+        this.enabled = enabled;
+        this.windowMs = Math.max(1, windowMs);
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(this.windowMs);
+        this.maxEntries = maxEntries;
+        this.suppressedCounter = Counter.builder("stats.dedup.suppressed")
+                .register(meterRegistry);
+        Gauge.builder("stats.dedup.entries", this, dedup -> dedup.current.size() + dedup.previous.size())
+                .register(meterRegistry);
+        if (enabled) {
+            log.info("Hit deduplication enabled: window {} ms, at most {} keys per window", this.windowMs, maxEntries);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isDuplicate(String app, String uri, String ip, LocalDateTime timestamp) {
+        if (!enabled) {
+            return false;
+        }
+        rotateIfDue();
+        String key = key(app, uri, ip, timestamp);
+        if (previous.contains(key) || !current.add(key)) {
+            suppressedCounter.increment();
+            return true;
+        }
+        return false;
+    }
+
+    // undoes isDuplicate for a hit that was then not stored, so a retry of it is not suppressed
+    public void release(String app, String uri, String ip, LocalDateTime timestamp) {
+        if (!enabled) {
+            return;
+        }
+        String key = key(app, uri, ip, timestamp);
+        current.remove(key);
+        previous.remove(key);
+    }
+
+    private String key(String app, String uri, String ip, LocalDateTime timestamp) {
+        long bucket = Math.floorDiv(timestamp.toInstant(ZoneOffset.UTC).toEpochMilli(), windowMs);
+        return app + '\n' + uri + '\n' + ip + '\n' + bucket;
+    }
+
+    private void rotateIfDue() {
+        if (System.nanoTime() - rotatedAt < windowNanos && current.size() < maxEntries) {
+            return;
+        }
+        if (!rotation.tryLock()) {
+            return;
+        }
+        try {
+            long now = System.nanoTime();
+            if (now - rotatedAt < windowNanos && current.size() < maxEntries) {
+                return;
+            }
+            previous = current;
+            current = ConcurrentHashMap.newKeySet();
+            rotatedAt = now;
+        } finally {
+            rotation.unlock();
+        }
+    }
+}
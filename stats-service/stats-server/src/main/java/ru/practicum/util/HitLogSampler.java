@@ -0,0 +1,22 @@
+package ru.practicum.util;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// one hit in every rate is logged, so per-hit logging costs a counter increment on the ingest path
+@Component
+public class HitLogSampler {
+
+    private final long rate;
+    private final AtomicLong hits = new AtomicLong();
+
+    public HitLogSampler(@Value("${stats.log.hit-sample-rate:1000}") long rate) {
+        this.rate = Math.max(1, rate);
+    }
+
+    public boolean sample() {
+        return hits.getAndIncrement() % rate == 0;
+    }
+}
@@ -0,0 +1,43 @@
+package ru.practicum.util;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+@Component
+public class IdempotencyKeys {
+
+    private final Map<String, Boolean> keys;
+    private final Lock lock = new ReentrantLock();
+
+    public IdempotencyKeys(@Value("${stats.idempotency.capacity:100000}") int capacity) {
+        this.keys = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public boolean register(String key) {
+        lock.lock();
+        try {
+            return keys.putIfAbsent(key, Boolean.TRUE) == null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release(String key) {
+        lock.lock();
+        try {
+            keys.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
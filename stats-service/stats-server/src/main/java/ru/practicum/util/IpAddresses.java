@@ -0,0 +1,166 @@
+package ru.practicum.util;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public final class IpAddresses {
+
+    private static final byte TEXT_MARKER = (byte) 0xFF;
+
+    private IpAddresses() {
+    }
+
+    public static byte[] toBytes(String ip) {
+        byte[] ipv4 = parseIpv4(ip);
+        if (ipv4 != null) {
+            return ipv4;
+        }
+        if (ip.indexOf(':') >= 0) {
+            byte[] ipv6 = parseIpv6(ip);
+            if (ipv6 != null) {
+                return ipv6;
+            }
+        }
+        return encodeText(ip);
+    }
+
+    public static String toString(byte[] address) {
+        if (address.length == 4 || address.length == 16) {
+            try {
+                return InetAddress.getByAddress(address).getHostAddress();
+            } catch (UnknownHostException e) {
+                throw new IllegalArgumentException("Invalid ip address of length " + address.length, e);
+            }
+        }
+        int end = address[address.length - 1] == 0 ? address.length - 1 : address.length;
+        return new String(address, 1, end - 1, StandardCharsets.UTF_8);
+    }
+
+    public static String normalize(String ip) {
+        return toString(toBytes(ip));
+    }
+
+    private static byte[] encodeText(String ip) {
+        byte[] text = ip.getBytes(StandardCharsets.UTF_8);
+        int length = text.length + 1;
+        byte[] encoded = Arrays.copyOf(new byte[]{TEXT_MARKER}, length == 4 || length == 16 ? length + 1 : length);
+        System.arraycopy(text, 0, encoded, 1, text.length);
+        return encoded;
+    }
+
+    // parsed here rather than by InetAddress.getByName, which resolves anything that is not a literal through DNS;
+    // like getByName it accepts brackets, drops a zone id and returns an IPv4-mapped address as IPv4
+    private static byte[] parseIpv6(String ip) {
+        String literal = ip;
+        if (literal.length() > 2 && literal.charAt(0) == '[' && literal.charAt(literal.length() - 1) == ']') {
+            literal = literal.substring(1, literal.length() - 1);
+        }
+        int zone = literal.indexOf('%');
+        if (zone >= 0) {
+            literal = literal.substring(0, zone);
+        }
+        byte[] address = new byte[16];
+        int length = literal.length();
+        int written = 0;
+        int gap = -1;
+        int i = 0;
+        if (literal.startsWith("::")) {
+            gap = 0;
+            i = 2;
+        }
+        while (i < length) {
+            int end = literal.indexOf(':', i);
+            if (end < 0) {
+                end = length;
+            }
+            String group = literal.substring(i, end);
+            if (group.indexOf('.') >= 0) {
+                byte[] ipv4 = end == length && written <= 12 ? parseIpv4(group) : null;
+                if (ipv4 == null) {
+                    return null;
+                }
+                System.arraycopy(ipv4, 0, address, written, 4);
+                written += 4;
+                break;
+            }
+            int value = parseHexGroup(group);
+            if (value < 0 || written == 16) {
+                return null;
+            }
+            address[written++] = (byte) (value >>> 8);
+            address[written++] = (byte) value;
+            if (end == length) {
+                break;
+            }
+            if (end + 1 < length && literal.charAt(end + 1) == ':') {
+                if (gap >= 0) {
+                    return null;
+                }
+                gap = written;
+                i = end + 2;
+            } else if (end + 1 == length) {
+                return null;
+            } else {
+                i = end + 1;
+            }
+        }
+        if (gap < 0 ? written != 16 : written == 16) {
+            return null;
+        }
+        if (gap >= 0) {
+            int tail = written - gap;
+            System.arraycopy(address, gap, address, 16 - tail, tail);
+            Arrays.fill(address, gap, 16 - tail, (byte) 0);
+        }
+        for (int b = 0; b < 10; b++) {
+            if (address[b] != 0) {
+                return address;
+            }
+        }
+        return address[10] == (byte) 0xFF && address[11] == (byte) 0xFF
+                ? Arrays.copyOfRange(address, 12, 16) : address;
+    }
+
+    private static int parseHexGroup(String group) {
+        if (group.isEmpty() || group.length() > 4) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = 0; i < group.length(); i++) {
+            char c = group.charAt(i);
+            int digit = c < 128 ? Character.digit(c, 16) : -1;
+            if (digit < 0) {
+                return -1;
+            }
+            value = value * 16 + digit;
+        }
+        return value;
+    }
+
+    private static byte[] parseIpv4(String ip) {
+        byte[] address = new byte[4];
+        int octet = 0;
+        int value = -1;
+        for (int i = 0; i < ip.length(); i++) {
+            char c = ip.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = value < 0 ? c - '0' : value * 10 + (c - '0');
+                if (value > 255) {
+                    return null;
+                }
+            } else if (c == '.' && value >= 0 && octet < 3) {
+                address[octet++] = (byte) value;
+                value = -1;
+            } else {
+                return null;
+            }
+        }
+        if (octet != 3 || value < 0) {
+            return null;
+        }
+        address[3] = (byte) value;
+        return address;
+    }
+}
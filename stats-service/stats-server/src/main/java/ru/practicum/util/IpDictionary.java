@@ -0,0 +1,76 @@
+package ru.practicum.util;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import ru.practicum.config.ConditionalOnJpaBackend;
+import ru.practicum.repository.BitmapRepository;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Component
+@ConditionalOnJpaBackend
+@RequiredArgsConstructor
+public class IpDictionary {
+
+    public static final int UNKNOWN = -1;
+
+    private final BitmapRepository bitmapRepository;
+    private final Map<ByteBuffer, Integer> ids = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final ConcurrentLinkedQueue<Map.Entry<Integer, byte[]>> unsaved = new ConcurrentLinkedQueue<>();
+
+    public int idOf(String ip) {
+        byte[] address = IpAddresses.toBytes(ip);
+        return ids.computeIfAbsent(ByteBuffer.wrap(address), key -> {
+            int id = nextId.getAndIncrement();
+            unsaved.add(new AbstractMap.SimpleImmutableEntry<>(id, address));
+            return id;
+        });
+    }
+
+    // read paths look ips up without interning them, an address no hit has recorded gets UNKNOWN
+    public int findId(String ip) {
+        return ids.getOrDefault(ByteBuffer.wrap(IpAddresses.toBytes(ip)), UNKNOWN);
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    public void load() {
+        ids.clear();
+        unsaved.clear();
+        bitmapRepository.forEachIp((id, ip) -> {
+            ids.put(ByteBuffer.wrap(ip), id);
+            nextId.accumulateAndGet(id + 1, Math::max);
+        });
+    }
+
+    public void reserve(int id) {
+        nextId.accumulateAndGet(id + 1, Math::max);
+    }
+
+    public void flush() {
+        List<Map.Entry<Integer, byte[]>> batch = new ArrayList<>();
+        Map.Entry<Integer, byte[]> entry;
+        while ((entry = unsaved.poll()) != null) {
+            batch.add(entry);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            bitmapRepository.saveIps(batch);
+        } catch (RuntimeException e) {
+            unsaved.addAll(batch);
+            throw e;
+        }
+    }
+}
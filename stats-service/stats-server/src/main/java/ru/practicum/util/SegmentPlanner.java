@@ -0,0 +1,50 @@
+package ru.practicum.util;
+
+import ru.practicum.enums.Granularity;
+import ru.practicum.model.TimeSegment;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+public final class SegmentPlanner {
+
+    private SegmentPlanner() {
+    }
+
+    public static List<TimeSegment> plan(LocalDateTime start, LocalDateTime end, List<Granularity> levels) {
+        return planRange(start, toExclusive(end), levels);
+    }
+
+    public static List<TimeSegment> planRange(LocalDateTime from, LocalDateTime to, List<Granularity> levels) {
+        List<TimeSegment> segments = new ArrayList<>();
+        plan(from, to, levels, levels.size() - 1, segments);
+        return segments;
+    }
+
+    public static LocalDateTime toExclusive(LocalDateTime end) {
+        return end.truncatedTo(ChronoUnit.MICROS).plus(1, ChronoUnit.MICROS);
+    }
+
+    private static void plan(LocalDateTime from, LocalDateTime to, List<Granularity> levels, int level,
+                             List<TimeSegment> segments) {
+        if (!from.isBefore(to)) {
+            return;
+        }
+        if (level < 0) {
+            segments.add(new TimeSegment(null, from, to));
+            return;
+        }
+        Granularity granularity = levels.get(level);
+        LocalDateTime alignedFrom = granularity.ceil(from);
+        LocalDateTime alignedTo = granularity.floor(to);
+        if (!alignedFrom.isBefore(alignedTo)) {
+            plan(from, to, levels, level - 1, segments);
+            return;
+        }
+        plan(from, alignedFrom, levels, level - 1, segments);
+        segments.add(new TimeSegment(granularity, alignedFrom, alignedTo));
+        plan(alignedTo, to, levels, level - 1, segments);
+    }
+}
@@ -0,0 +1,182 @@
+package ru.practicum.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.util.UriComponentsBuilder;
+import ru.practicum.EndpointHit;
+import ru.practicum.HistogramBucket;
+import ru.practicum.ViewStats;
+import ru.practicum.WeightedHit;
+import ru.practicum.config.ConditionalOnCluster;
+import ru.practicum.enums.Granularity;
+import ru.practicum.enums.UniqueMode;
+import ru.practicum.enums.UriGrouping;
+import ru.practicum.model.VisitorSketch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+@Component
+@ConditionalOnCluster
+public class ShardClient {
+
+    public static final String LOCAL_HEADER = "X-Stats-Shard-Local";
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final TypeReference<List<ViewStats>> VIEW_STATS = new TypeReference<>() {
+    };
+    private static final TypeReference<List<VisitorSketch>> VISITOR_SKETCHES = new TypeReference<>() {
+    };
+
+    private final ObjectMapper objectMapper;
+    private final HttpClient httpClient;
+    private final Duration timeout;
+
+    public ShardClient(ObjectMapper objectMapper,
+                       @Value("${stats.cluster.connect-timeout-ms:1000}") long connectTimeoutMs,
+                       @Value("${stats.cluster.timeout-ms:30000}") long timeoutMs) {
+        this.objectMapper = objectMapper;
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .build();
+        this.timeout = Duration.ofMillis(timeoutMs);
+    }
+
+    public CompletableFuture<List<ViewStats>> getStats(String shard, LocalDateTime start, LocalDateTime end,
+                                                       List<String> uris, boolean unique, UniqueMode mode,
+                                                       UriGrouping groupBy) {
+        URI uri = query(shard, "/stats", start, end, uris)
+                .queryParam("unique", unique)
+                .queryParam("mode", mode)
+                .queryParam("groupBy", groupBy)
+                .encode().build().toUri();
+        return get(uri, VIEW_STATS);
+    }
+
+    public CompletableFuture<List<ViewStats>> getTopHits(String shard, LocalDateTime start, LocalDateTime end,
+                                                         int limit, boolean exact) {
+        URI uri = query(shard, "/stats/top", start, end, null)
+                .queryParam("limit", limit)
+                .queryParam("exact", exact)
+                .encode().build().toUri();
+        return get(uri, VIEW_STATS);
+    }
+
+    public CompletableFuture<List<VisitorSketch>> getVisitorSketches(String shard, LocalDateTime start,
+                                                                     LocalDateTime end, List<String> uris) {
+        return get(query(shard, "/stats/sketches", start, end, uris).encode().build().toUri(), VISITOR_SKETCHES);
+    }
+
+    public CompletableFuture<MappingIterator<HistogramBucket>> openHistogram(String shard, LocalDateTime start,
+                                                                            LocalDateTime end, List<String> uris,
+                                                                            Granularity interval, boolean unique,
+                                                                            UniqueMode mode) {
+        URI uri = query(shard, "/stats/histogram", start, end, uris)
+                .queryParam("interval", interval)
+                .queryParam("unique", unique)
+                .queryParam("mode", mode)
+                .encode().build().toUri();
+        HttpRequest request = request(uri)
+                .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_NDJSON_VALUE)
+                .GET()
+                .build();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream()).thenApply(response -> {
+            try {
+                if (response.statusCode() / 100 != 2) {
+                    response.body().close();
+                    throw failure(uri, response.statusCode());
+                }
+                return objectMapper.readerFor(HistogramBucket.class).readValues(response.body());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    public CompletableFuture<Void> postHits(String shard, List<EndpointHit> hits, String batchId) {
+        return post(URI.create(shard + "/hit/batch"), hits, batchId);
+    }
+
+    public CompletableFuture<Void> postWeightedHits(String shard, List<WeightedHit> hits, String batchId) {
+        return post(URI.create(shard + "/hit/weighted"), hits, batchId);
+    }
+
+    private CompletableFuture<Void> post(URI uri, Object body, String batchId) {
+        HttpRequest.Builder request = request(uri)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(write(body)));
+        if (batchId != null) {
+            request.header(IDEMPOTENCY_KEY_HEADER, batchId);
+        }
+        return httpClient.sendAsync(request.build(), HttpResponse.BodyHandlers.discarding()).thenAccept(response -> {
+            if (response.statusCode() / 100 != 2) {
+                throw failure(uri, response.statusCode());
+            }
+        });
+    }
+
+    private <T> CompletableFuture<T> get(URI uri, TypeReference<T> type) {
+        HttpRequest request = request(uri)
+                .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+                .GET()
+                .build();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream()).thenApply(response -> {
+            try (InputStream body = response.body()) {
+                if (response.statusCode() / 100 != 2) {
+                    throw failure(uri, response.statusCode());
+                }
+                return objectMapper.readValue(body, type);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    // sub-requests are answered from the shard's own data and never fan out again
+    private HttpRequest.Builder request(URI uri) {
+        return HttpRequest.newBuilder(uri)
+                .timeout(timeout)
+                .header(LOCAL_HEADER, "true");
+    }
+
+    private static UriComponentsBuilder query(String shard, String path, LocalDateTime start, LocalDateTime end,
+                                              List<String> uris) {
+        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(shard)
+                .path(path)
+                .queryParam("start", start.format(FORMAT))
+                .queryParam("end", end.format(FORMAT));
+        if (uris != null && !uris.isEmpty()) {
+            builder.queryParam("uris", uris);
+        }
+        return builder;
+    }
+
+    private byte[] write(Object value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Could not serialize shard request", e);
+        }
+    }
+
+    private static IllegalStateException failure(URI uri, int status) {
+        return new IllegalStateException(String.format("Shard request %s failed with status %d", uri, status));
+    }
+}
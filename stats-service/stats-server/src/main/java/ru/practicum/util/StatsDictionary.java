@@ -0,0 +1,179 @@
+package ru.practicum.util;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.config.ConditionalOnJpaBackend;
+import ru.practicum.repository.DictionaryRepository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
+@Component
+@ConditionalOnJpaBackend
+public class StatsDictionary {
+
+    public static final int UNKNOWN = -1;
+
+    // misses are remembered for a while, so a query for unknown values does not go to the database every time;
+    // an entry is dropped as soon as the value is interned here, and the ttl covers values interned elsewhere
+    private static final long MISS_TTL_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final int MAX_MISSES = 10_000;
+
+    private final Interner apps;
+    private final Interner uris;
+
+    public StatsDictionary(DictionaryRepository dictionaryRepository, PlatformTransactionManager transactionManager) {
+        TransactionTemplate requiresNew = new TransactionTemplate(transactionManager);
+        requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.apps = new Interner(dictionaryRepository, requiresNew, "stats_app", "name");
+        this.uris = new Interner(dictionaryRepository, requiresNew, "stats_uri", "uri");
+    }
+
+    @PostConstruct
+    public void load() {
+        apps.load();
+        uris.load();
+        log.info("Loaded {} apps and {} uris into stats dictionary", apps.ids.size(), uris.ids.size());
+    }
+
+    public int internApp(String app) {
+        return apps.intern(app);
+    }
+
+    public int internUri(String uri) {
+        return uris.intern(uri);
+    }
+
+    public int findAppId(String app) {
+        return apps.find(app);
+    }
+
+    public int findUriId(String uri) {
+        return uris.find(uri);
+    }
+
+    public void resolveUris(Collection<String> values) {
+        if (values != null) {
+            values.forEach(uris::find);
+        }
+    }
+
+    public List<String> findUrisByPrefix(String prefix) {
+        return uris.findByPrefix(prefix);
+    }
+
+    public String getApp(int id) {
+        return apps.value(id);
+    }
+
+    public String getUri(int id) {
+        return uris.value(id);
+    }
+
+    private static final class Interner {
+        private final DictionaryRepository repository;
+        private final TransactionTemplate requiresNew;
+        private final String table;
+        private final String column;
+        private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+        private final Map<Integer, String> values = new ConcurrentHashMap<>();
+        private final NavigableSet<String> sorted = new ConcurrentSkipListSet<>();
+        private final Map<String, Long> misses = new ConcurrentHashMap<>();
+
+        Interner(DictionaryRepository repository, TransactionTemplate requiresNew, String table, String column) {
+            this.repository = repository;
+            this.requiresNew = requiresNew;
+            this.table = table;
+            this.column = column;
+        }
+
+        void load() {
+            repository.forEach(table, column, this::cache);
+        }
+
+        int intern(String value) {
+            Integer id = ids.get(value);
+            if (id != null) {
+                return id;
+            }
+            // not computeIfAbsent: the lookup and insert would run while holding the map's bin monitor,
+            // pinning virtual threads for a database round trip; racing inserts resolve in insert()
+            int created = repository.findId(table, column, value).orElseGet(() -> insert(value));
+            cache(created, value);
+            return created;
+        }
+
+        int find(String value) {
+            Integer id = ids.get(value);
+            if (id != null) {
+                return id;
+            }
+            Long missedAt = misses.get(value);
+            if (missedAt != null && System.nanoTime() - missedAt < MISS_TTL_NANOS) {
+                return UNKNOWN;
+            }
+            return repository.findId(table, column, value)
+                    .map(found -> {
+                        cache(found, value);
+                        return found;
+                    })
+                    .orElseGet(() -> miss(value));
+        }
+
+        private int miss(String value) {
+            if (misses.size() >= MAX_MISSES) {
+                misses.clear();
+            }
+            misses.put(value, System.nanoTime());
+            // interned concurrently after the lookup missed
+            if (ids.containsKey(value)) {
+                misses.remove(value);
+            }
+            return UNKNOWN;
+        }
+
+        String value(int id) {
+            String value = values.get(id);
+            if (value != null) {
+                return value;
+            }
+            return repository.findValue(table, column, id)
+                    .map(found -> {
+                        cache(id, found);
+                        return found;
+                    })
+                    .orElseThrow(() -> new IllegalStateException(
+                            String.format("Unknown id %d in dictionary %s", id, table)));
+        }
+
+        private int insert(String value) {
+            try {
+                return requiresNew.execute(status -> repository.insert(table, column, value));
+            } catch (DuplicateKeyException e) {
+                return repository.findId(table, column, value).orElseThrow(() -> e);
+            }
+        }
+
+        List<String> findByPrefix(String prefix) {
+            return List.copyOf(sorted.subSet(prefix, true, prefix + Character.MAX_VALUE, false));
+        }
+
+        private void cache(int id, String value) {
+            ids.put(value, id);
+            values.put(id, value);
+            sorted.add(value);
+            misses.remove(value);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package ru.practicum.util;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Latency and result size of every stats query, tagged by its shape: where it is answered from, whether it counts
+// unique visitors and whether it is limited to a uri list
+@Component
+@RequiredArgsConstructor
+public class StatsQueryMetrics {
+
+    private final MeterRegistry meterRegistry;
+
+    public <T> List<T> record(String source, boolean unique, List<String> uris, Supplier<List<T>> query) {
+        long startedAt = System.nanoTime();
+        List<T> rows = query.get();
+        record(source, unique, uris, startedAt, rows.size());
+        return rows;
+    }
+
+    public void record(String source, boolean unique, List<String> uris, long startedAt, long rows) {
+        String[] tags = {"source", source, "unique", String.valueOf(unique),
+                "uris", uris == null || uris.isEmpty() ? "all" : "list"};
+        Timer.builder("stats.query.latency")
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("stats.query.rows")
+                .tags(tags)
+                .register(meterRegistry)
+                .record(rows);
+    }
+}
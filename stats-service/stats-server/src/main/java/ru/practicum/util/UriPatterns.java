@@ -0,0 +1,23 @@
+package ru.practicum.util;
+
+import java.util.Collection;
+
+public final class UriPatterns {
+
+    private static final String WILDCARD = "*";
+
+    private UriPatterns() {
+    }
+
+    public static boolean isPattern(String uri) {
+        return uri.endsWith(WILDCARD);
+    }
+
+    public static boolean containsPattern(Collection<String> uris) {
+        return uris != null && uris.stream().anyMatch(UriPatterns::isPattern);
+    }
+
+    public static String prefix(String pattern) {
+        return pattern.substring(0, pattern.length() - WILDCARD.length());
+    }
+}
@@ -0,0 +1,25 @@
+-- Moves the string-keyed stats table out of the way before the first start of a
+-- dictionary-encoded stats-server. Start the server with
+-- stats.migration.legacy-table=stats_legacy to copy the rows into the new layout,
+-- then drop stats_legacy once the migration log line reports completion.
+
+ALTER TABLE stats RENAME TO stats_legacy;
+
+DO $$
+DECLARE
+    part RECORD;
+BEGIN
+    FOR part IN
+        SELECT c.relname FROM pg_inherits AS i
+        JOIN pg_class AS c ON c.oid = i.inhrelid
+        JOIN pg_class AS p ON p.oid = i.inhparent
+        WHERE p.relname = 'stats_legacy'
+    LOOP
+        EXECUTE format('ALTER TABLE %I RENAME TO %I', part.relname, part.relname || '_legacy');
+    END LOOP;
+END $$;
+
+ALTER INDEX IF EXISTS stats_time_stamp_idx RENAME TO stats_legacy_time_stamp_idx;
+ALTER INDEX IF EXISTS stats_uri_time_stamp_idx RENAME TO stats_legacy_uri_time_stamp_idx;
+ALTER INDEX IF EXISTS stats_pkey RENAME TO stats_legacy_pkey;
+ALTER SEQUENCE IF EXISTS stats_id_seq RENAME TO stats_legacy_id_seq;
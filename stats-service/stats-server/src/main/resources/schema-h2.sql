@@ -0,0 +1,10 @@
+create table if not exists stats (
+                                     id          BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+                                     app_id      INTEGER not null,
+                                     uri_id      INTEGER not null,
+                                     ip          BYTEA not null,
+                                     time_stamp  TIMESTAMP WITHOUT TIME ZONE not null
+);
+
+create index if not exists stats_time_stamp_idx on stats (time_stamp);
+create index if not exists stats_uri_time_stamp_idx on stats (uri_id, time_stamp);
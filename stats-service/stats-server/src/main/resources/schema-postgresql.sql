@@ -0,0 +1,13 @@
+create table if not exists stats (
+                                     id          BIGSERIAL not null,
+                                     app_id      INTEGER not null,
+                                     uri_id      INTEGER not null,
+                                     ip          BYTEA not null,
+                                     time_stamp  TIMESTAMP WITHOUT TIME ZONE not null,
+                                     PRIMARY KEY (id, time_stamp)
+) PARTITION BY RANGE (time_stamp);
+
+create table if not exists stats_default partition of stats default;
+
+create index if not exists stats_time_stamp_idx on stats (time_stamp);
+create index if not exists stats_uri_time_stamp_idx on stats (uri_id, time_stamp);
@@ -1,9 +1,94 @@
-drop table if exists stats;
+create table if not exists stats_minute (
+                                     app         VARCHAR(64) not null,
+                                     uri         VARCHAR(256) not null,
+                                     bucket      TIMESTAMP WITHOUT TIME ZONE not null,
+                                     hits        BIGINT not null,
+                                     PRIMARY KEY (app, uri, bucket)
+);
+
+create table if not exists stats_hour (
+                                     app         VARCHAR(64) not null,
+                                     uri         VARCHAR(256) not null,
+                                     bucket      TIMESTAMP WITHOUT TIME ZONE not null,
+                                     hits        BIGINT not null,
+                                     PRIMARY KEY (app, uri, bucket)
+);
+
+create table if not exists stats_day (
+                                     app         VARCHAR(64) not null,
+                                     uri         VARCHAR(256) not null,
+                                     bucket      TIMESTAMP WITHOUT TIME ZONE not null,
+                                     hits        BIGINT not null,
+                                     PRIMARY KEY (app, uri, bucket)
+);
+
+create index if not exists stats_minute_bucket_idx on stats_minute (bucket);
+create index if not exists stats_hour_bucket_idx on stats_hour (bucket);
+create index if not exists stats_day_bucket_idx on stats_day (bucket);
+
+create table if not exists stats_hll (
+                                     granularity VARCHAR(8) not null,
+                                     app         VARCHAR(64) not null,
+                                     uri         VARCHAR(256) not null,
+                                     bucket      TIMESTAMP WITHOUT TIME ZONE not null,
+                                     sketch      BYTEA not null,
+                                     PRIMARY KEY (granularity, app, uri, bucket)
+);
 
-create table if not exists stats (
+create index if not exists stats_hll_bucket_idx on stats_hll (granularity, bucket);
+
+create table if not exists stats_ip_dict (
+                                     id          INTEGER PRIMARY KEY,
+                                     ip          BYTEA not null UNIQUE
+);
+
+create table if not exists stats_ip_bitmap (
+                                     app         VARCHAR(64) not null,
+                                     uri         VARCHAR(256) not null,
+                                     bucket      TIMESTAMP WITHOUT TIME ZONE not null,
+                                     bitmap      BYTEA not null,
+                                     PRIMARY KEY (app, uri, bucket)
+);
+
+create table if not exists stats_ip_bitmap_pending (
                                      id          BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
                                      app         VARCHAR(64) not null,
                                      uri         VARCHAR(256) not null,
-                                     ip          VARCHAR(64) not null,
-                                     time_stamp  TIMESTAMP WITHOUT TIME ZONE not null
-);
\ No newline at end of file
+                                     bucket      TIMESTAMP WITHOUT TIME ZONE not null
+);
+
+create table if not exists stats_app (
+                                     id          INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+                                     name        VARCHAR(64) not null UNIQUE
+);
+
+create table if not exists stats_uri (
+                                     id          INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+                                     uri         VARCHAR(256) not null UNIQUE
+);
+
+create table if not exists stats_top (
+                                     granularity VARCHAR(8) not null,
+                                     bucket      TIMESTAMP WITHOUT TIME ZONE not null,
+                                     summary     BYTEA not null,
+                                     PRIMARY KEY (granularity, bucket)
+);
+
+create table if not exists stats_compaction (
+                                     id               INTEGER PRIMARY KEY,
+                                     granularity      VARCHAR(8) not null,
+                                     compacted_from   TIMESTAMP WITHOUT TIME ZONE not null,
+                                     compacted_before TIMESTAMP WITHOUT TIME ZONE not null
+);
+
+create table if not exists stats_idempotency (
+                                     batch_key   VARCHAR(128) PRIMARY KEY,
+                                     created     TIMESTAMP WITHOUT TIME ZONE not null
+);
+
+create index if not exists stats_idempotency_created_idx on stats_idempotency (created);
+
+create table if not exists stats_migration (
+                                     legacy_table VARCHAR(64) PRIMARY KEY,
+                                     last_id      BIGINT not null
+);
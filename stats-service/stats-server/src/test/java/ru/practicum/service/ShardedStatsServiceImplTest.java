@@ -0,0 +1,120 @@
+package ru.practicum.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.practicum.EndpointHit;
+import ru.practicum.StatsShards;
+import ru.practicum.util.ShardClient;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ShardedStatsServiceImplTest {
+
+    private static final List<String> SHARDS = List.of("http://shard-0", "http://shard-1", "http://shard-2");
+    private static final LocalDateTime TIMESTAMP = LocalDateTime.of(2024, 1, 1, 12, 0, 0);
+
+    private final StatsService local = mock(StatsService.class);
+    private final ShardClient shardClient = mock(ShardClient.class);
+    // hits stored per shard, every shard skipping a key it has seen like the idempotency table does
+    private final Map<Integer, List<EndpointHit>> stored = new HashMap<>();
+    private final Map<Integer, Set<String>> keys = new HashMap<>();
+    private final Set<Integer> down = new HashSet<>();
+    private ShardedStatsServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        service = new ShardedStatsServiceImpl(local, shardClient, SHARDS, 0);
+        doAnswer(invocation -> {
+            store(0, invocation.getArgument(0), invocation.getArgument(1));
+            return null;
+        }).when(local).postHits(anyList(), any());
+        when(shardClient.postHits(anyString(), anyList(), any())).thenAnswer(invocation -> {
+            int shard = SHARDS.indexOf(invocation.<String>getArgument(0));
+            if (down.contains(shard)) {
+                return CompletableFuture.failedFuture(new IllegalStateException("shard " + shard + " is down"));
+            }
+            store(shard, invocation.getArgument(1), invocation.getArgument(2));
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    @Test
+    void replayedBatchIsStoredOnce() {
+        List<EndpointHit> batch = batch();
+        service.postHits(batch, "batch-1");
+        Map<Integer, Integer> counts = counts();
+
+        service.postHits(batch, "batch-1");
+
+        assertThat(counts()).isEqualTo(counts);
+        assertThat(counts.values().stream().mapToInt(Integer::intValue).sum()).isEqualTo(batch.size());
+        assertThat(counts).containsOnlyKeys(0, 1, 2);
+    }
+
+    @Test
+    void batchRetriedAfterPartialFailureIsStoredOnce() {
+        List<EndpointHit> batch = batch();
+        down.add(2);
+        assertThatThrownBy(() -> service.postHits(batch, "batch-1")).isInstanceOf(CompletionException.class);
+        assertThat(stored).containsOnlyKeys(1);
+
+        down.clear();
+        service.postHits(batch, "batch-1");
+        service.postHits(batch, "batch-1");
+
+        for (int shard = 0; shard < SHARDS.size(); shard++) {
+            int owner = shard;
+            assertThat(stored.get(shard)).hasSize((int) batch.stream()
+                    .filter(hit -> StatsShards.shardOf(hit.getUri(), SHARDS.size()) == owner)
+                    .count());
+        }
+    }
+
+    @Test
+    void batchesWithoutKeyAreNotDeduplicated() {
+        List<EndpointHit> batch = batch();
+        service.postHits(batch, null);
+        service.postHits(batch, null);
+
+        assertThat(counts().values().stream().mapToInt(Integer::intValue).sum()).isEqualTo(2 * batch.size());
+    }
+
+    private void store(int shard, List<EndpointHit> hits, String key) {
+        if (key != null && !keys.computeIfAbsent(shard, s -> new HashSet<>()).add(key)) {
+            return;
+        }
+        stored.computeIfAbsent(shard, s -> new ArrayList<>()).addAll(hits);
+    }
+
+    private Map<Integer, Integer> counts() {
+        Map<Integer, Integer> counts = new HashMap<>();
+        stored.forEach((shard, hits) -> counts.put(shard, hits.size()));
+        return counts;
+    }
+
+    // enough uris that every shard owns some of them
+    private static List<EndpointHit> batch() {
+        List<EndpointHit> hits = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            hits.add(new EndpointHit(0, "ewm-main-service", "/events/" + i, "10.0.0." + (i + 1), TIMESTAMP));
+        }
+        return hits;
+    }
+}
@@ -0,0 +1,150 @@
+package ru.practicum.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import ru.practicum.EndpointHit;
+import ru.practicum.archive.ArchiveFormatException;
+import ru.practicum.repository.StatsArchiveRepository;
+import ru.practicum.util.IpAddresses;
+import ru.practicum.util.StatsDictionary;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class StatsArchiveServiceImplTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 0, 0, 0);
+    private static final int CHUNK_SIZE = 5000;
+    // more than one archive block, so dictionaries and time deltas carry over between blocks
+    private static final int ROWS = 70_000;
+
+    private final StatsArchiveRepository repository = mock(StatsArchiveRepository.class);
+    private final StatsDictionary dictionary = mock(StatsDictionary.class);
+    private final StatsService statsService = mock(StatsService.class);
+    private StatsArchiveServiceImpl archiveService;
+
+    @BeforeEach
+    void setUp() {
+        archiveService = new StatsArchiveServiceImpl(repository, dictionary, statsService, CHUNK_SIZE);
+        when(dictionary.getApp(anyInt())).thenAnswer(invocation -> "app-" + invocation.getArgument(0));
+        when(dictionary.getUri(anyInt())).thenAnswer(invocation -> "/events/" + invocation.getArgument(0));
+    }
+
+    @Test
+    void importsEveryExportedRow() throws IOException {
+        List<EndpointHit> rows = rows();
+        byte[] archive = export(rows);
+
+        assertThat(archiveService.importStats(new ByteArrayInputStream(archive))).isEqualTo(ROWS);
+
+        assertThat(imported(ROWS / CHUNK_SIZE)).usingRecursiveFieldByFieldElementComparator()
+                .containsExactlyElementsOf(rows);
+    }
+
+    @Test
+    void exportsUpToTheInclusiveEnd() throws IOException {
+        LocalDateTime end = START.plusDays(1);
+        archiveService.exportStats(START, end, new ByteArrayOutputStream());
+
+        verify(repository).forEachRaw(eq(START), eq(end.plusNanos(1000)), any());
+    }
+
+    @Test
+    void storesNothingFromACorruptArchive() throws IOException {
+        byte[] archive = export(rows());
+        byte[] truncated = Arrays.copyOf(archive, archive.length * 3 / 4);
+
+        assertThatThrownBy(() -> archiveService.importStats(new ByteArrayInputStream(truncated)))
+                .isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> archiveService.importStats(new ByteArrayInputStream(new byte[]{1, 2, 3})))
+                .isInstanceOf(IOException.class);
+        assertThatThrownBy(() -> archiveService.importStats(new ByteArrayInputStream(notAnArchive())))
+                .isInstanceOf(ArchiveFormatException.class);
+
+        verify(statsService, never()).postHits(anyList());
+        verify(statsService, never()).postHits(anyList(), anyString());
+    }
+
+    @Test
+    void keysChunksByArchiveSoARetryIsStoredOnce() throws IOException {
+        byte[] archive = export(rows());
+        archiveService.importStats(new ByteArrayInputStream(archive));
+        archiveService.importStats(new ByteArrayInputStream(archive));
+
+        ArgumentCaptor<String> keys = ArgumentCaptor.forClass(String.class);
+        verify(statsService, times(2 * (ROWS / CHUNK_SIZE))).postHits(anyList(), keys.capture());
+        List<String> first = keys.getAllValues().subList(0, ROWS / CHUNK_SIZE);
+        List<String> second = keys.getAllValues().subList(ROWS / CHUNK_SIZE, keys.getAllValues().size());
+        assertThat(first).doesNotHaveDuplicates().allMatch(key -> key.length() <= 128);
+        assertThat(second).containsExactlyElementsOf(first);
+    }
+
+    private byte[] export(List<EndpointHit> rows) throws IOException {
+        doAnswer(invocation -> {
+            StatsArchiveRepository.RawRowConsumer consumer = invocation.getArgument(2);
+            for (EndpointHit hit : rows) {
+                consumer.accept(Integer.parseInt(hit.getApp().substring("app-".length())),
+                        Integer.parseInt(hit.getUri().substring("/events/".length())),
+                        IpAddresses.toBytes(hit.getIp()), hit.getTimestamp());
+            }
+            return null;
+        }).when(repository).forEachRaw(isNull(), isNull(), any());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThat(archiveService.exportStats(null, null, out)).isEqualTo(rows.size());
+        return out.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<EndpointHit> imported(int chunks) {
+        ArgumentCaptor<List<EndpointHit>> captor = ArgumentCaptor.forClass(List.class);
+        verify(statsService, times(chunks)).postHits(captor.capture(), anyString());
+        List<EndpointHit> hits = new ArrayList<>();
+        captor.getAllValues().forEach(hits::addAll);
+        return hits;
+    }
+
+    private static byte[] notAnArchive() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflated = new DeflaterOutputStream(out)) {
+            deflated.write(new byte[]{0, 0, 0, 0, 1, 0});
+        }
+        return out.toByteArray();
+    }
+
+    // ipv4, ipv6 and non-IP values, with timestamps that go back and forth by up to a minute
+    private static List<EndpointHit> rows() {
+        List<EndpointHit> rows = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            String ip = switch (i % 3) {
+                case 0 -> "192.168." + (i % 256) + "." + (i / 256 % 256);
+                case 1 -> "2001:db8:0:0:0:0:0:" + Integer.toHexString(i % 65536);
+                default -> "unknown-" + (i % 17);
+            };
+            LocalDateTime timestamp = START.plusSeconds(i).minusSeconds(i % 7 * 10).plusNanos(i % 1000 * 1000L);
+            rows.add(new EndpointHit(0, "app-" + (i % 3 + 1), "/events/" + (i % 997 + 1), ip, timestamp));
+        }
+        return rows;
+    }
+}
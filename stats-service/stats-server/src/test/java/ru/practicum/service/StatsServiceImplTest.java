@@ -0,0 +1,96 @@
+package ru.practicum.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import ru.practicum.EndpointHit;
+import ru.practicum.WeightedHit;
+import ru.practicum.model.Stats;
+import ru.practicum.repository.StatsRepository;
+import ru.practicum.repository.StatsStreamRepository;
+import ru.practicum.util.CompactionWatermark;
+import ru.practicum.util.HitDeduplicator;
+import ru.practicum.util.HitLogSampler;
+import ru.practicum.util.StatsDictionary;
+import ru.practicum.util.StatsQueryMetrics;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class StatsServiceImplTest {
+
+    private static final LocalDateTime TIMESTAMP = LocalDateTime.of(2024, 1, 1, 12, 0, 0);
+
+    private final HitIngestionService hitIngestionService = mock(HitIngestionService.class);
+    private StatsServiceImpl statsService;
+
+    @BeforeEach
+    void setUp() {
+        HitDeduplicator hitDeduplicator = new HitDeduplicator(new SimpleMeterRegistry(), true, 60_000, 1_000_000);
+        statsService = new StatsServiceImpl(mock(StatsRepository.class), mock(StatsStreamRepository.class),
+                hitIngestionService, mock(RollupService.class), mock(UniqueSketchService.class),
+                mock(VisitorBitmapService.class), mock(TopHitsService.class), mock(HistogramService.class),
+                mock(StatsCacheService.class), mock(StatsDictionary.class), mock(CompactionWatermark.class),
+                mock(StatsQueryMetrics.class), new HitLogSampler(1000), hitDeduplicator);
+    }
+
+    @Test
+    void weightedHitIsStoredAsCountRowsWithDedupEnabled() {
+        statsService.postWeightedHits(List.of(weighted("/events/1", "10.0.0.1", 5),
+                weighted("/events/2", "10.0.0.2", 3)), "batch-1");
+
+        List<Stats> stored = ingested(1).getFirst();
+        assertThat(stored).hasSize(8);
+        assertThat(stored.stream().filter(stats -> stats.getUri().equals("/events/1"))).hasSize(5);
+        assertThat(stored.stream().filter(stats -> stats.getUri().equals("/events/2"))).hasSize(3);
+        assertThat(stored).doesNotHaveDuplicates();
+    }
+
+    @Test
+    void repeatedWeightedHitIsDroppedAsAWhole() {
+        statsService.postWeightedHits(List.of(weighted("/events/1", "10.0.0.1", 5)), null);
+        statsService.postWeightedHits(List.of(weighted("/events/1", "10.0.0.1", 5),
+                weighted("/events/2", "10.0.0.2", 2)), null);
+        statsService.postHits(List.of(new EndpointHit(0, "ewm-main-service", "/events/1", "10.0.0.1", TIMESTAMP)));
+
+        List<List<Stats>> batches = ingested(2);
+        assertThat(batches.get(0)).hasSize(5);
+        assertThat(batches.get(1)).hasSize(2).allMatch(stats -> stats.getUri().equals("/events/2"));
+    }
+
+    @Test
+    void failedWeightedHitCanBeRetried() {
+        List<WeightedHit> hits = List.of(weighted("/events/1", "10.0.0.1", 4));
+        doThrow(new IllegalStateException("database is down")).when(hitIngestionService)
+                .ingestAll(anyList(), eq("batch-1"));
+        assertThatThrownBy(() -> statsService.postWeightedHits(hits, "batch-1"))
+                .isInstanceOf(IllegalStateException.class);
+
+        statsService.postWeightedHits(hits, "batch-2");
+
+        assertThat(ingested(2).get(1)).hasSize(4);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<List<Stats>> ingested(int batches) {
+        ArgumentCaptor<List<Stats>> captor = ArgumentCaptor.forClass(List.class);
+        verify(hitIngestionService, times(batches)).ingestAll(captor.capture(), nullable(String.class));
+        return new ArrayList<>(captor.getAllValues());
+    }
+
+    private static WeightedHit weighted(String uri, String ip, int count) {
+        return new WeightedHit("ewm-main-service", uri, ip, TIMESTAMP, count);
+    }
+}